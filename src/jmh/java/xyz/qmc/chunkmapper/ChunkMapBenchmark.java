@@ -0,0 +1,61 @@
+package xyz.qmc.chunkmapper;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * DimensionChunks の読み書きの競合
+ *
+ * HTTP スレッド（get と範囲の collect）3本と、抽出ワーカー1本の put を同時に走らせる。
+ * 32x32 チャンクの領域を埋めた状態から始める。
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ChunkMapBenchmark {
+    private static final int SIDE = 32;
+
+    private DimensionChunks dimension;
+    private List<ChunkDataCollector.CompactChunkData> chunks;
+    private ChunkQuery query;
+
+    @Setup
+    public void setup() {
+        chunks = SyntheticChunks.chunkData(SIDE * SIDE, false, false);
+        dimension = new DimensionChunks("overworld");
+        for (ChunkDataCollector.CompactChunkData data : chunks) {
+            dimension.put(DimensionChunks.key(data.chunkX, data.chunkZ), data);
+        }
+        // ビューアーの表示範囲程度 (8x8 チャンク)
+        query = new ChunkQuery("overworld", 8, 8, 15, 15, Integer.MIN_VALUE, Integer.MAX_VALUE);
+    }
+
+    @Benchmark
+    @Group("readWrite")
+    @GroupThreads(2)
+    public ChunkDataCollector.CompactChunkData get() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        return dimension.get(DimensionChunks.key(random.nextInt(SIDE), random.nextInt(SIDE)));
+    }
+
+    @Benchmark
+    @Group("readWrite")
+    @GroupThreads(1)
+    public int collect() {
+        List<ChunkDataCollector.CompactChunkData> out = new ArrayList<>(64);
+        dimension.collect(query, out);
+        return out.size();
+    }
+
+    @Benchmark
+    @Group("readWrite")
+    @GroupThreads(1)
+    public ChunkDataCollector.CompactChunkData put() {
+        ChunkDataCollector.CompactChunkData data = chunks.get(ThreadLocalRandom.current().nextInt(chunks.size()));
+        return dimension.put(DimensionChunks.key(data.chunkX, data.chunkZ), data);
+    }
+}
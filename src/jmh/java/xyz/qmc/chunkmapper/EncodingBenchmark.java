@@ -0,0 +1,64 @@
+package xyz.qmc.chunkmapper;
+
+import com.google.gson.Gson;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+// /api/chunks の全件応答のシリアライズ（ChunkResponseCache がキャッシュを作り直すときの処理）
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class EncodingBenchmark {
+    @Param({"100", "500", "5000"})
+    public int chunks;
+
+    private final Gson gson = new Gson();
+    private ChunkDataCollector.ChunkDelta delta;
+
+    @Setup
+    public void setup() {
+        delta = new ChunkDataCollector.ChunkDelta();
+        delta.chunks = SyntheticChunks.chunkData(chunks, true, true);
+        delta.removed = new ArrayList<>();
+        delta.full = true;
+        delta.seq = chunks;
+    }
+
+    // ChunkResponseCache と同じく String を経由せずに書き出す
+    private byte[] toJson() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(8192);
+        try (Writer writer = new OutputStreamWriter(bytes, StandardCharsets.UTF_8)) {
+            gson.toJson(delta, writer);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    @Benchmark
+    public byte[] json() {
+        return toJson();
+    }
+
+    @Benchmark
+    public byte[] jsonGzip() {
+        return ChunkResponseCache.gzip(toJson());
+    }
+
+    @Benchmark
+    public byte[] binary() {
+        return ChunkBinaryEncoder.encode(delta);
+    }
+
+    @Benchmark
+    public byte[] binaryGzip() {
+        return ChunkResponseCache.gzip(ChunkBinaryEncoder.encode(delta));
+    }
+}
@@ -0,0 +1,32 @@
+package xyz.qmc.chunkmapper;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+// 1チャンク分の抽出（セクションの走査と PackedBlocks への書き込み）
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ExtractionBenchmark {
+    @Param({"FLAT", "MOUNTAINS", "OCEAN", "NETHER"})
+    public SyntheticChunks.Terrain terrain;
+
+    @Param({"all", "visible"})
+    public String mode;
+
+    private ChunkExtractor extractor;
+    private ChunkSnapshot snapshot;
+
+    @Setup
+    public void setup() {
+        boolean visibleOnly = mode.equals("visible");
+        extractor = new ChunkExtractor(SyntheticChunks.palette(), visibleOnly, visibleOnly);
+        snapshot = SyntheticChunks.snapshot(terrain, 3, 7, visibleOnly);
+    }
+
+    @Benchmark
+    public int[] extract() {
+        return extractor.extract(snapshot).build();
+    }
+}
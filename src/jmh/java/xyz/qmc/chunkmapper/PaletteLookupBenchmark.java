@@ -0,0 +1,64 @@
+package xyz.qmc.chunkmapper;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * セクション1個分 (4096 ブロック) のタイプの引き当て
+ *
+ * bits = 4, 8 はローカルパレット、15 はグローバルパレット（パレットインデックス = ステートの raw ID）。
+ * stateTypes はステートの raw ID からタイプへの表を直接引く場合。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PaletteLookupBenchmark {
+    @Param({"4", "8", "15"})
+    public int bits;
+
+    private SectionSnapshot section;
+    private short[] stateTypes;
+    private int[] rawIds;
+
+    @Setup
+    public void setup() {
+        stateTypes = SyntheticChunks.palette().getStateTypes();
+
+        // パレットに入るステート数はビット数いっぱいまで（グローバルパレットは全ステート）
+        int paletteSize = Math.min(1 << bits, stateTypes.length);
+        Random random = new Random(42);
+        rawIds = new int[4096];
+        Map<Integer, Integer> paletteIndex = new HashMap<>();
+        for (int i = 0; i < rawIds.length; i++) {
+            rawIds[i] = random.nextInt(paletteSize);
+            paletteIndex.put(rawIds[i], rawIds[i]);
+        }
+        // グローバルパレットでは ChunkSnapshot と同じく表をそのまま使う
+        short[] types = bits == 15 ? stateTypes : Arrays.copyOf(stateTypes, paletteSize);
+        section = SectionSnapshot.packed(SyntheticChunks.pack(rawIds, paletteIndex, bits), bits, types);
+    }
+
+    @Benchmark
+    public void sectionGetType(Blackhole blackhole) {
+        for (int y = 0; y < 16; y++) {
+            for (int z = 0; z < 16; z++) {
+                for (int x = 0; x < 16; x++) {
+                    blackhole.consume(section.getType(x, y, z));
+                }
+            }
+        }
+    }
+
+    @Benchmark
+    public void stateTypes(Blackhole blackhole) {
+        for (int rawId : rawIds) {
+            blackhole.consume(stateTypes[rawId]);
+        }
+    }
+}
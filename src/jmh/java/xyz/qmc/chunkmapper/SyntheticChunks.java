@@ -0,0 +1,229 @@
+package xyz.qmc.chunkmapper;
+
+import net.minecraft.util.math.ChunkPos;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * ベンチマーク用の合成チャンク
+ *
+ * Minecraft のワールドやレジストリなしで ChunkSnapshot と BlockPalette を作る。
+ * 地形はワールド座標の関数なので、隣接チャンクも同じ地形の続きとして作れる。
+ * セクションは PalettedContainer と同じく、ローカルパレット + PackedIntegerArray の詰め方で持つ。
+ */
+final class SyntheticChunks {
+    // 合成パレットのタイプID（0 は UNKNOWN）
+    static final int STONE = 1;
+    static final int DIRT = 2;
+    static final int GRASS = 3;
+    static final int BEDROCK = 4;
+    static final int WATER = 5;
+    static final int SAND = 6;
+    static final int NETHERRACK = 7;
+    static final int LAVA = 8;
+    static final int SNOW = 9;
+    static final int COAL_ORE = 10;
+    static final int IRON_ORE = 11;
+    static final int GRAVEL = 12;
+    private static final String[] NAMES = {
+            "minecraft:air", "minecraft:stone", "minecraft:dirt", "minecraft:grass_block", "minecraft:bedrock",
+            "minecraft:water", "minecraft:sand", "minecraft:netherrack", "minecraft:lava", "minecraft:snow_block",
+            "minecraft:coal_ore", "minecraft:iron_ore", "minecraft:gravel"};
+    // 実際のレジストリに近い数のステートを持たせる（グローバルパレットの表の大きさに影響する）
+    static final int STATE_COUNT = 24_000;
+
+    enum Terrain {
+        FLAT("overworld", -4, 24),
+        MOUNTAINS("overworld", -4, 24),
+        OCEAN("overworld", -4, 24),
+        NETHER("nether", 0, 16);
+
+        final String dimension;
+        final int bottomSectionCoord;
+        final int sectionCount;
+
+        Terrain(String dimension, int bottomSectionCoord, int sectionCount) {
+            this.dimension = dimension;
+            this.bottomSectionCoord = bottomSectionCoord;
+            this.sectionCount = sectionCount;
+        }
+
+        int minY() {
+            return bottomSectionCoord << 4;
+        }
+
+        int maxY() {
+            return ((bottomSectionCoord + sectionCount) << 4) - 1;
+        }
+
+        // ワールド座標のブロックタイプ。空気は BlockPalette.AIR
+        int typeAt(int x, int y, int z) {
+            switch (this) {
+                case FLAT -> {
+                    if (y == minY()) return BEDROCK;
+                    if (y < 60) return STONE;
+                    if (y < 63) return DIRT;
+                    if (y == 63) return GRASS;
+                    return BlockPalette.AIR;
+                }
+                case MOUNTAINS -> {
+                    int height = (int) (100 + 60 * Math.sin(x * 0.045) * Math.cos(z * 0.038) + 12 * Math.sin((x + z) * 0.21));
+                    if (y == minY()) return BEDROCK;
+                    if (y > height) return BlockPalette.AIR;
+                    if (y == height) return height > 140 ? SNOW : GRASS;
+                    if (y > height - 3) return DIRT;
+                    int ore = hash(x, y, z) & 127;
+                    return ore == 0 ? IRON_ORE : ore < 3 ? COAL_ORE : STONE;
+                }
+                case OCEAN -> {
+                    int floor = 40 + (int) (4 * Math.sin(x * 0.1) + 3 * Math.cos(z * 0.13));
+                    if (y == minY()) return BEDROCK;
+                    if (y < floor - 3) return STONE;
+                    if (y < floor) return (hash(x, 0, z) & 3) == 0 ? GRAVEL : SAND;
+                    if (y <= 62) return WATER;
+                    return BlockPalette.AIR;
+                }
+                case NETHER -> {
+                    if (y == 0 || y == 127) return BEDROCK;
+                    if (y > 127) return BlockPalette.AIR;
+                    // 洞窟の多い地形
+                    double cave = Math.sin(x * 0.12) + Math.sin(y * 0.16) + Math.sin(z * 0.11) + Math.sin((x + y) * 0.07);
+                    if (cave > 0.9) return y <= 31 ? LAVA : BlockPalette.AIR;
+                    return NETHERRACK;
+                }
+            }
+            return BlockPalette.AIR;
+        }
+    }
+
+    private SyntheticChunks() {
+    }
+
+    private static int hash(int x, int y, int z) {
+        int h = x * 73_856_093 ^ y * 19_349_663 ^ z * 83_492_791;
+        return h ^ (h >>> 15);
+    }
+
+    // 合成パレット。水と溶岩以外は不透明。ステートの raw ID はタイプIDの繰り返し（0 は空気）
+    static BlockPalette palette() {
+        int blockCount = NAMES.length;
+        int[] colors = new int[blockCount];
+        boolean[] opaque = new boolean[blockCount];
+        for (int type = 1; type < blockCount; type++) {
+            colors[type] = 0x101010 * type;
+            opaque[type] = type != WATER && type != LAVA;
+        }
+        short[] stateTypes = new short[STATE_COUNT];
+        for (int i = 0; i < STATE_COUNT; i++) {
+            int type = i % blockCount;
+            stateTypes[i] = (short) (type == 0 ? BlockPalette.AIR : type);
+        }
+        return new BlockPalette(stateTypes, NAMES.clone(), colors, opaque);
+    }
+
+    static ChunkSnapshot snapshot(Terrain terrain, int chunkX, int chunkZ, boolean withNeighbours) {
+        SectionSnapshot[][] neighbours = null;
+        if (withNeighbours) {
+            neighbours = new SectionSnapshot[][]{
+                    sections(terrain, chunkX - 1, chunkZ), sections(terrain, chunkX + 1, chunkZ),
+                    sections(terrain, chunkX, chunkZ - 1), sections(terrain, chunkX, chunkZ + 1)};
+        }
+
+        // WORLD_SURFACE ハイトマップと同じく、一番上のブロックの1つ上
+        int[] surfaceHeights = new int[256];
+        for (int x = 0; x < 16; x++) {
+            for (int z = 0; z < 16; z++) {
+                int y = terrain.maxY();
+                while (y >= terrain.minY() && terrain.typeAt(chunkX * 16 + x, y, chunkZ * 16 + z) == BlockPalette.AIR) {
+                    y--;
+                }
+                surfaceHeights[x << 4 | z] = y + 1;
+            }
+        }
+        return new ChunkSnapshot(terrain.dimension, new ChunkPos(chunkX, chunkZ), terrain.bottomSectionCoord,
+                sections(terrain, chunkX, chunkZ), neighbours, surfaceHeights);
+    }
+
+    private static SectionSnapshot[] sections(Terrain terrain, int chunkX, int chunkZ) {
+        SectionSnapshot[] sections = new SectionSnapshot[terrain.sectionCount];
+        int[] values = new int[4096];
+        for (int i = 0; i < sections.length; i++) {
+            int baseY = (terrain.bottomSectionCoord + i) << 4;
+            for (int index = 0; index < 4096; index++) {
+                int x = index & 15;
+                int z = (index >> 4) & 15;
+                int y = index >> 8;
+                values[index] = terrain.typeAt(chunkX * 16 + x, baseY + y, chunkZ * 16 + z);
+            }
+            sections[i] = section(values);
+        }
+        return sections;
+    }
+
+    // values はセクション内インデックス (y << 8 | z << 4 | x) 順のタイプ。空気だけなら null（ChunkSnapshot と同じ）
+    static SectionSnapshot section(int[] values) {
+        Map<Integer, Integer> paletteIndex = new LinkedHashMap<>();
+        for (int value : values) {
+            paletteIndex.putIfAbsent(value, paletteIndex.size());
+        }
+        if (paletteIndex.size() == 1) {
+            int type = values[0];
+            return type == BlockPalette.AIR ? null : SectionSnapshot.single(type);
+        }
+
+        short[] types = new short[paletteIndex.size()];
+        paletteIndex.forEach((type, index) -> types[index] = (short) (int) type);
+        // 線形・ハッシュパレットの最小ビット数は 4
+        int bits = Math.max(4, 32 - Integer.numberOfLeadingZeros(types.length - 1));
+        return SectionSnapshot.packed(pack(values, paletteIndex, bits), bits, types);
+    }
+
+    // PackedIntegerArray と同じ詰め方（要素は long をまたがない）
+    static long[] pack(int[] values, Map<Integer, Integer> paletteIndex, int bits) {
+        int elementsPerLong = 64 / bits;
+        long[] data = new long[(4096 + elementsPerLong - 1) / elementsPerLong];
+        for (int index = 0; index < 4096; index++) {
+            int slot = index / elementsPerLong;
+            int shift = (index - slot * elementsPerLong) * bits;
+            data[slot] |= (long) paletteIndex.get(values[index]) << shift;
+        }
+        return data;
+    }
+
+    // 地形を順に使い、count 個の異なる位置のチャンクデータを作る（同じ地形のブロック配列は共有する）
+    static List<ChunkDataCollector.CompactChunkData> chunkData(int count, boolean visibleOnly, boolean faceMasks) {
+        BlockPalette palette = palette();
+        ChunkExtractor extractor = new ChunkExtractor(palette, visibleOnly, faceMasks);
+        Terrain[] terrains = Terrain.values();
+        int variants = 4; // 地形ごとに作るチャンクの種類
+        ChunkDataCollector.CompactChunkData[] templates = new ChunkDataCollector.CompactChunkData[terrains.length * variants];
+        for (int i = 0; i < templates.length; i++) {
+            Terrain terrain = terrains[i % terrains.length];
+            ChunkSnapshot snapshot = snapshot(terrain, i * 3, i * 5, visibleOnly);
+            PackedBlocks.Builder blocks = extractor.extract(snapshot);
+            ChunkDataCollector.CompactChunkData data = new ChunkDataCollector.CompactChunkData();
+            data.dimension = terrain.dimension;
+            data.faces = blocks.buildFaces();
+            data.blocks = blocks.build();
+            templates[i] = data;
+        }
+
+        List<ChunkDataCollector.CompactChunkData> chunks = new ArrayList<>(count);
+        int side = (int) Math.ceil(Math.sqrt(count));
+        for (int i = 0; i < count; i++) {
+            ChunkDataCollector.CompactChunkData template = templates[i % templates.length];
+            ChunkDataCollector.CompactChunkData data = new ChunkDataCollector.CompactChunkData();
+            data.chunkX = i % side;
+            data.chunkZ = i / side;
+            data.dimension = template.dimension;
+            data.version = i + 1;
+            data.blocks = template.blocks;
+            data.faces = template.faces;
+            chunks.add(data);
+        }
+        return chunks;
+    }
+}
@@ -0,0 +1,148 @@
+package xyz.qmc.chunkmapper;
+
+import net.minecraft.block.Block;
+import net.minecraft.block.BlockState;
+import net.minecraft.block.MapColor;
+import net.minecraft.registry.Registries;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.EmptyBlockView;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/*
+ * ブロックタイプIDの表
+ *
+ * タイプID = ブロックレジストリの raw ID。ブロックステートの raw ID からタイプIDへの
+ * 配列をサーバー起動時に1回だけ作るので、抽出中の変換は配列の参照だけで済む。
+ * 空気（cave_air なども含む）のステートは AIR に対応させる。
+ * 色は各ブロックの既定のマップ色。
+ * 不透明 = そのブロックのすべてのステートが不透明な立方体（隣のブロックの面を隠す）。
+ */
+public final class BlockPalette {
+    public static final int AIR = -1;
+    public static final int UNKNOWN = 0; // 通常は minecraft:air（空気は AIR になるので出現しない）
+    private static final int FALLBACK_COLOR = 0x808080; // マップ色が透明なブロック
+
+    private final short[] stateTypes;
+    private final String[] names;
+    private final int[] colors;
+    private final boolean[] opaque;
+    private final String fingerprint;
+
+    // 通常は create() を使う。ベンチマークとアグリゲーターではレジストリなしで作ったパレットを渡す
+    BlockPalette(short[] stateTypes, String[] names, int[] colors, boolean[] opaque) {
+        this.stateTypes = stateTypes;
+        this.names = names;
+        this.colors = colors;
+        this.opaque = opaque;
+        this.fingerprint = computeFingerprint(names);
+    }
+
+    // レジストリが確定した後（サーバー起動時）に呼ぶこと
+    public static BlockPalette create() {
+        int blockCount = Math.min(Registries.BLOCK.size(), PackedBlocks.MAX_TYPE + 1);
+        String[] names = new String[blockCount];
+        int[] colors = new int[blockCount];
+        int skipped = 0;
+        for (Block block : Registries.BLOCK) {
+            int type = Registries.BLOCK.getRawId(block);
+            if (type < 0 || type >= blockCount) {
+                skipped++;
+                continue;
+            }
+            names[type] = Registries.BLOCK.getId(block).toString();
+            MapColor mapColor = block.getDefaultMapColor();
+            colors[type] = mapColor == null || mapColor == MapColor.CLEAR ? FALLBACK_COLOR : mapColor.color;
+        }
+        if (skipped > 0) {
+            ChunkMapperMod.LOGGER.warn("{} blocks do not fit in the block palette and will be shown as unknown", skipped);
+        }
+
+        boolean[] opaque = new boolean[blockCount];
+        Arrays.fill(opaque, true);
+        opaque[UNKNOWN] = false;
+        short[] stateTypes = new short[Block.STATE_IDS.size()];
+        for (int i = 0; i < stateTypes.length; i++) {
+            BlockState state = Block.STATE_IDS.get(i);
+            if (state != null && state.isAir()) {
+                stateTypes[i] = AIR;
+                continue;
+            }
+            int type = state == null ? UNKNOWN : Registries.BLOCK.getRawId(state.getBlock());
+            if (type < 0 || type >= blockCount) {
+                type = UNKNOWN;
+            }
+            stateTypes[i] = (short) type;
+            // 形状はステートだけで決まるブロックがほとんどなので、空のワールドで判定する
+            if (state == null || !state.isOpaqueFullCube(EmptyBlockView.INSTANCE, BlockPos.ORIGIN)) {
+                opaque[type] = false;
+            }
+        }
+
+        ChunkMapperMod.LOGGER.info("Block palette: {} blocks, {} states", blockCount, stateTypes.length);
+        return new BlockPalette(stateTypes, names, colors, opaque);
+    }
+
+    // 空気の場合は AIR
+    public int getType(BlockState state) {
+        int raw = Block.getRawIdFromState(state);
+        return raw >= 0 && raw < stateTypes.length ? stateTypes[raw] : UNKNOWN;
+    }
+
+    // AIR は不透明ではない
+    public boolean isOpaque(int type) {
+        return type >= 0 && type < opaque.length && opaque[type];
+    }
+
+    // 0xRRGGBB
+    public int getColor(int type) {
+        return type >= 0 && type < colors.length ? colors[type] : FALLBACK_COLOR;
+    }
+
+    // ブロックステートの raw ID で引く表。グローバルパレットのセクションはこれをそのまま使う
+    short[] getStateTypes() {
+        return stateTypes;
+    }
+
+    public int size() {
+        return names.length;
+    }
+
+    // ブロックの登録内容が変わると値が変わる。ChunkStore の互換性確認と ETag に使う
+    public String getFingerprint() {
+        return fingerprint;
+    }
+
+    public Map<String, Object> toJson() {
+        List<Map<String, Object>> blocks = new ArrayList<>(names.length);
+        for (int type = 0; type < names.length; type++) {
+            if (names[type] == null) {
+                continue;
+            }
+            Map<String, Object> entry = new LinkedHashMap<>();
+            entry.put("id", type);
+            entry.put("name", names[type]);
+            entry.put("color", colors[type]);
+            blocks.add(entry);
+        }
+        Map<String, Object> json = new LinkedHashMap<>();
+        json.put("fingerprint", fingerprint);
+        json.put("blocks", blocks);
+        return json;
+    }
+
+    private static String computeFingerprint(String[] names) {
+        CRC32 crc = new CRC32();
+        for (String name : names) {
+            crc.update((name == null ? "" : name).getBytes(StandardCharsets.UTF_8));
+            crc.update('\n');
+        }
+        return Long.toHexString(crc.getValue());
+    }
+}
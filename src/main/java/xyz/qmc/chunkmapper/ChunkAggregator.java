@@ -0,0 +1,449 @@
+package xyz.qmc.chunkmapper;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import net.minecraft.util.math.ChunkPos;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+
+/*
+ * 複数のサーバーのチャンクを1つのビューアーで見せるアグリゲーター
+ *
+ *   ./gradlew aggregate --args="lobby=http://localhost:8080 survival=http://localhost:8081 [--port 8090] [--config <path>]"
+ *
+ * 各ソースの /api/stream を購読し、受け取った差分を "ソース名/次元名" の次元として
+ * ChunkDataCollector に入れ、WebServer でそのまま配信する。
+ * ソースごとに受信スレッドと有界キューを持ち、反映は1本のスレッドがソースを順番に回して行う。
+ * キューが埋まったソースからは読み取りを止めるので、遅れはソース側の送信キューで吸収される
+ * （あふれたらソースが追いつき分の差分をまとめて送ってくる）。
+ * ストリームに接続できない間は /api/chunks の差分をポーリングする。
+ *
+ * パレットは起動時に取得できたソースの /api/palette を合わせて作り、ブロックタイプIDは名前で変換する。
+ * 追い出しは行わないので、ヒープは全ソースのチャンクが入る大きさにしておくこと。
+ */
+public class ChunkAggregator {
+    private static final Pattern SOURCE_NAME = Pattern.compile("[A-Za-z0-9_-]+");
+    private static final int QUEUE_CAPACITY = 8;            // ソースごとの反映待ちの差分数
+    private static final int CONNECT_TIMEOUT_MILLIS = 5000;
+    private static final int STREAM_READ_TIMEOUT_MILLIS = 45_000; // ソースは 15 秒ごとに ping を送る
+    private static final long MIN_RETRY_MILLIS = 1000;
+    private static final long MAX_RETRY_MILLIS = 30_000;
+    private static final long POLL_MILLIS = 3000;
+    private static final int POLLS_BEFORE_STREAM_RETRY = 10;
+
+    private final ChunkDataCollector collector;
+    private final List<Source> sources = new ArrayList<>();
+    private final Semaphore ready = new Semaphore(0); // 全ソースの反映待ちの差分数
+    private final Map<String, Integer> types = new HashMap<>(); // ブロック名 → 集約後のタイプID
+    private volatile boolean closed = false;
+    private Thread merger;
+
+    public ChunkAggregator(ChunkDataCollector collector, Map<String, String> sourceUrls) {
+        this.collector = collector;
+        for (Map.Entry<String, String> entry : sourceUrls.entrySet()) {
+            sources.add(new Source(entry.getKey(), entry.getValue()));
+        }
+    }
+
+    public static void main(String[] args) {
+        Map<String, String> sourceUrls = new LinkedHashMap<>();
+        Integer port = null;
+        Path configPath = Path.of("config", "chunkmapper-aggregator.properties");
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--port" -> port = Integer.parseInt(args[++i]);
+                    case "--config" -> configPath = Path.of(args[++i]);
+                    default -> {
+                        int eq = args[i].indexOf('=');
+                        if (args[i].startsWith("--") || eq < 0) {
+                            throw new IllegalArgumentException("Unknown argument: " + args[i]);
+                        }
+                        String name = args[i].substring(0, eq);
+                        if (!SOURCE_NAME.matcher(name).matches() || sourceUrls.containsKey(name)) {
+                            throw new IllegalArgumentException("Invalid or duplicate source name: " + name);
+                        }
+                        sourceUrls.put(name, stripTrailingSlash(URI.create(args[i].substring(eq + 1)).toString()));
+                    }
+                }
+            }
+            if (sourceUrls.isEmpty()) {
+                throw new IllegalArgumentException("At least one source is required");
+            }
+        } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+            System.err.println(e instanceof IllegalArgumentException ? e.getMessage() : "Missing argument value");
+            System.err.println("Usage: ChunkAggregator <name>=<url>... [--port <port>] [--config <path>]");
+            System.exit(2);
+            return;
+        }
+
+        ChunkMapperConfig config = ChunkMapperConfig.load(configPath);
+        if (port != null) {
+            config.port = port;
+        }
+        ChunkDataCollector collector = new ChunkDataCollector(config);
+        ChunkAggregator aggregator = new ChunkAggregator(collector, sourceUrls);
+        try {
+            collector.startAggregator(aggregator.createPalette());
+            WebServer webServer = new WebServer(config, collector);
+            aggregator.start();
+            webServer.start();
+            ChunkMapperMod.LOGGER.info("Aggregating {} sources on port {}", sourceUrls.size(), config.port);
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                aggregator.close();
+                webServer.stop();
+            }, "ChunkMapper-Shutdown"));
+        } catch (IOException e) {
+            ChunkMapperMod.LOGGER.error("Failed to start aggregator", e);
+            System.exit(1);
+        } catch (InterruptedException e) {
+            System.exit(1);
+        }
+    }
+
+    // 取得できたソースのパレットを合わせる。最初に取得できたソースのIDはそのまま使うので、
+    // 同じブロック構成のソースだけなら変換は不要になる。1つも取得できなければ待ち続ける
+    BlockPalette createPalette() throws InterruptedException {
+        List<String> names = new ArrayList<>();
+        List<Integer> colors = new ArrayList<>();
+        while (names.isEmpty()) {
+            for (Source source : sources) {
+                JsonArray blocks;
+                try {
+                    blocks = source.fetchPalette();
+                } catch (IOException | RuntimeException e) {
+                    ChunkMapperMod.LOGGER.warn("Could not fetch the palette of source {}: {}", source.name, e.toString());
+                    continue;
+                }
+                boolean first = names.isEmpty();
+                for (JsonElement element : blocks) {
+                    JsonObject block = element.getAsJsonObject();
+                    String name = block.get("name").getAsString();
+                    if (types.containsKey(name)) {
+                        continue;
+                    }
+                    int type = first ? block.get("id").getAsInt() : names.size();
+                    if (type > PackedBlocks.MAX_TYPE) {
+                        continue;
+                    }
+                    while (names.size() <= type) {
+                        names.add(null);
+                        colors.add(0);
+                    }
+                    names.set(type, name);
+                    colors.set(type, block.get("color").getAsInt());
+                    types.put(name, type);
+                }
+            }
+            if (names.isEmpty()) {
+                ChunkMapperMod.LOGGER.warn("No source is reachable, retrying in {} seconds", MAX_RETRY_MILLIS / 1000);
+                Thread.sleep(MAX_RETRY_MILLIS);
+            }
+        }
+        int[] colorArray = colors.stream().mapToInt(Integer::intValue).toArray();
+        return new BlockPalette(new short[0], names.toArray(new String[0]), colorArray, new boolean[names.size()]);
+    }
+
+    public void start() {
+        for (Source source : sources) {
+            source.start();
+        }
+        merger = new Thread(this::merge, "ChunkMapper-Aggregator");
+        merger.setDaemon(true);
+        merger.start();
+    }
+
+    public void close() {
+        closed = true;
+        for (Source source : sources) {
+            source.close();
+        }
+        if (merger != null) {
+            merger.interrupt();
+        }
+    }
+
+    // ソースを順番に回して1件ずつ反映し、1周ごとに公開する。更新の多いソースが他を待たせない
+    private void merge() {
+        try {
+            while (!closed) {
+                ready.acquire();
+                int applied = 0;
+                for (Source source : sources) {
+                    ChunkDataCollector.ChunkDelta delta = source.queue.poll();
+                    if (delta != null) {
+                        source.apply(delta);
+                        applied++;
+                    }
+                }
+                // 許可は差分をキューに入れた後に増えるので、先に取り出した分はここで待てばすぐに揃う
+                ready.acquire(Math.max(0, applied - 1));
+                collector.publish();
+            }
+        } catch (InterruptedException e) {
+            // 終了
+        }
+    }
+
+    private static InputStream body(HttpURLConnection conn) throws IOException {
+        int status = conn.getResponseCode();
+        if (status != 200) {
+            conn.disconnect();
+            throw new IOException("HTTP " + status + " from " + conn.getURL());
+        }
+        InputStream in = conn.getInputStream();
+        return "gzip".equalsIgnoreCase(conn.getContentEncoding()) ? new GZIPInputStream(in) : in;
+    }
+
+    private static String stripTrailingSlash(String url) {
+        return url.endsWith("/") ? url.substring(0, url.length() - 1) : url;
+    }
+
+    private final class Source implements Runnable {
+        final String name;
+        final String url;
+        final String prefix;
+        final BlockingQueue<ChunkDataCollector.ChunkDelta> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        private final Thread thread;
+        private int[] typeMap; // ソースのタイプID → 集約後のタイプID。同じなら null
+        private volatile long lastSeq = 0; // 書き込みは受信スレッドのみ
+        private String lastEtag;
+        private volatile boolean connected = false;
+        private volatile HttpURLConnection connection;
+
+        private final Metrics.Counter receivedDeltas;
+        private final Metrics.Counter receivedBytes;
+        private final Metrics.Counter reconnects;
+
+        Source(String name, String url) {
+            this.name = name;
+            this.url = url;
+            this.prefix = name + "/";
+            this.thread = new Thread(this, "ChunkMapper-Source-" + name);
+            thread.setDaemon(true);
+
+            Metrics metrics = collector.getMetrics();
+            metrics.gauge("chunkmapper_source_connected", "Whether the aggregator is receiving updates from a source",
+                    () -> connected ? 1 : 0, "source", name);
+            metrics.gauge("chunkmapper_source_sequence", "Latest sequence number received from a source",
+                    () -> lastSeq, "source", name);
+            metrics.queueDepth("source_" + name, queue::size);
+            receivedDeltas = metrics.counter("chunkmapper_source_deltas_total", "Deltas received from a source", "source", name);
+            receivedBytes = metrics.counter("chunkmapper_source_bytes_total", "Delta bytes received from a source (decoded)", "source", name);
+            reconnects = metrics.counter("chunkmapper_source_reconnects_total", "Times the connection to a source was lost", "source", name);
+        }
+
+        void start() {
+            thread.start();
+        }
+
+        void close() {
+            thread.interrupt();
+            HttpURLConnection current = connection;
+            if (current != null) {
+                current.disconnect();
+            }
+        }
+
+        @Override
+        public void run() {
+            long retryMillis = MIN_RETRY_MILLIS;
+            try {
+                while (!closed) {
+                    try {
+                        // ソースが再起動してブロック構成が変わっている場合に備えて、接続ごとに取り直す
+                        typeMap = createTypeMap(fetchPalette());
+                        if (stream()) {
+                            retryMillis = MIN_RETRY_MILLIS;
+                        } else {
+                            // 接続数の上限などでストリームを断られたので、しばらく差分をポーリングする
+                            for (int i = 0; i < POLLS_BEFORE_STREAM_RETRY && !closed; i++) {
+                                poll();
+                                Thread.sleep(POLL_MILLIS);
+                            }
+                            continue;
+                        }
+                    } catch (IOException | RuntimeException e) {
+                        if (closed) {
+                            return;
+                        }
+                        if (connected || retryMillis == MIN_RETRY_MILLIS) {
+                            ChunkMapperMod.LOGGER.warn("Lost source {} ({}): {}", name, url, e.toString());
+                        }
+                    }
+                    if (connected) {
+                        connected = false;
+                        reconnects.inc();
+                    }
+                    Thread.sleep(retryMillis);
+                    retryMillis = Math.min(retryMillis * 2, MAX_RETRY_MILLIS);
+                }
+            } catch (InterruptedException e) {
+                // 終了
+            }
+        }
+
+        JsonArray fetchPalette() throws IOException {
+            HttpURLConnection conn = open("/api/palette", CONNECT_TIMEOUT_MILLIS);
+            try (Reader reader = new InputStreamReader(body(conn), StandardCharsets.UTF_8)) {
+                return JsonParser.parseReader(reader).getAsJsonObject().getAsJsonArray("blocks");
+            }
+        }
+
+        private int[] createTypeMap(JsonArray blocks) {
+            int size = 0;
+            for (JsonElement element : blocks) {
+                size = Math.max(size, element.getAsJsonObject().get("id").getAsInt() + 1);
+            }
+            int[] map = new int[size];
+            boolean identity = true;
+            for (JsonElement element : blocks) {
+                JsonObject block = element.getAsJsonObject();
+                int id = block.get("id").getAsInt();
+                map[id] = types.getOrDefault(block.get("name").getAsString(), BlockPalette.UNKNOWN);
+                identity &= map[id] == id;
+            }
+            return identity ? null : map;
+        }
+
+        // ストリームを断られた場合は false。接続後に切れた場合は正常に戻る
+        private boolean stream() throws IOException, InterruptedException {
+            HttpURLConnection conn = open("/api/stream?since=" + lastSeq, STREAM_READ_TIMEOUT_MILLIS);
+            connection = conn;
+            try {
+                if (conn.getResponseCode() == 503) {
+                    conn.disconnect();
+                    return false;
+                }
+                try (BufferedReader reader = new BufferedReader(new InputStreamReader(body(conn), StandardCharsets.UTF_8))) {
+                    if (!connected) {
+                        ChunkMapperMod.LOGGER.info("Connected to source {} ({})", name, url);
+                        connected = true;
+                    }
+                    String event = null;
+                    StringBuilder data = new StringBuilder();
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        if (line.isEmpty()) {
+                            if ("delta".equals(event)) {
+                                receive(Base64.getDecoder().decode(data.toString()));
+                            }
+                            event = null;
+                            data.setLength(0);
+                        } else if (line.startsWith("event:")) {
+                            event = line.substring(6).trim();
+                        } else if (line.startsWith("data:")) {
+                            data.append(line.substring(5).trim());
+                        }
+                    }
+                }
+                return true;
+            } finally {
+                connection = null;
+            }
+        }
+
+        private void poll() throws IOException, InterruptedException {
+            HttpURLConnection conn = open("/api/chunks?format=bin&since=" + lastSeq, CONNECT_TIMEOUT_MILLIS);
+            conn.setRequestProperty("Accept-Encoding", "gzip");
+            if (lastEtag != null) {
+                conn.setRequestProperty("If-None-Match", lastEtag);
+            }
+            int status = conn.getResponseCode();
+            connected = status == 200 || status == 304;
+            if (status != 200) {
+                conn.disconnect();
+                return;
+            }
+            lastEtag = conn.getHeaderField("ETag");
+            try (InputStream in = body(conn)) {
+                receive(in.readAllBytes());
+            }
+        }
+
+        // 受信スレッドで次元名とタイプIDを変換してからキューに入れる。キューが埋まっていれば待つ
+        private void receive(byte[] bytes) throws InterruptedException {
+            ChunkDataCollector.ChunkDelta delta = ChunkBinaryDecoder.decode(ByteBuffer.wrap(bytes));
+            for (ChunkDataCollector.CompactChunkData data : delta.chunks) {
+                data.dimension = prefix + data.dimension;
+                if (typeMap != null) {
+                    remap(data.blocks);
+                }
+            }
+            for (ChunkDataCollector.RemovedChunk removed : delta.removed) {
+                removed.dimension = prefix + removed.dimension;
+            }
+            receivedDeltas.inc();
+            receivedBytes.add(bytes.length);
+            queue.put(delta);
+            ready.release();
+            lastSeq = delta.seq;
+        }
+
+        private void remap(int[] blocks) {
+            for (int i = 0; i < blocks.length; i++) {
+                int type = PackedBlocks.type(blocks[i]);
+                int mapped = type < typeMap.length ? typeMap[type] : BlockPalette.UNKNOWN;
+                if (mapped != type) {
+                    blocks[i] = PackedBlocks.pack(PackedBlocks.x(blocks[i]), PackedBlocks.y(blocks[i]), PackedBlocks.z(blocks[i]), mapped);
+                }
+            }
+        }
+
+        // 反映スレッドで呼ばれる
+        void apply(ChunkDataCollector.ChunkDelta delta) {
+            long now = System.nanoTime();
+            if (delta.full) {
+                // 全件の差分に含まれないチャンクは、ソース側で削除済み
+                Map<String, Set<Long>> kept = new HashMap<>();
+                for (ChunkDataCollector.CompactChunkData data : delta.chunks) {
+                    kept.computeIfAbsent(data.dimension, d -> new HashSet<>()).add(DimensionChunks.key(data.chunkX, data.chunkZ));
+                }
+                for (String dimension : collector.getDimensionNames()) {
+                    if (!dimension.startsWith(prefix)) {
+                        continue;
+                    }
+                    Set<Long> keep = kept.getOrDefault(dimension, Set.of());
+                    for (long key : collector.getChunkKeys(dimension)) {
+                        if (!keep.contains(key)) {
+                            collector.removeChunk(dimension, ChunkPos.getPackedX(key), ChunkPos.getPackedZ(key), now);
+                        }
+                    }
+                }
+            }
+            for (ChunkDataCollector.RemovedChunk removed : delta.removed) {
+                collector.removeChunk(removed.dimension, removed.chunkX, removed.chunkZ, now);
+            }
+            long accessed = System.currentTimeMillis();
+            for (ChunkDataCollector.CompactChunkData data : delta.chunks) {
+                data.capturedAt = now;
+                data.lastAccess = accessed;
+                collector.putChunk(data);
+            }
+        }
+
+        private HttpURLConnection open(String path, int readTimeoutMillis) throws IOException {
+            HttpURLConnection conn = (HttpURLConnection) URI.create(url + path).toURL().openConnection();
+            conn.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+            conn.setReadTimeout(readTimeoutMillis);
+            return conn;
+        }
+    }
+}
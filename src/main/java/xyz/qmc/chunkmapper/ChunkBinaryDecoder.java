@@ -0,0 +1,103 @@
+package xyz.qmc.chunkmapper;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+// ChunkBinaryEncoder で書いた差分・チャンク本体を読み戻す
+public final class ChunkBinaryDecoder {
+    private ChunkBinaryDecoder() {
+    }
+
+    // 形式が違う場合は IllegalArgumentException
+    public static ChunkDataCollector.ChunkDelta decode(ByteBuffer in) {
+        if (in.getInt() != ChunkBinaryEncoder.MAGIC) {
+            throw new IllegalArgumentException("Not chunkmapper binary data");
+        }
+        int version = in.get() & 0xFF;
+        if (version != ChunkBinaryEncoder.FORMAT_VERSION) {
+            throw new IllegalArgumentException("Unsupported chunk format version " + version);
+        }
+        ChunkDataCollector.ChunkDelta delta = new ChunkDataCollector.ChunkDelta();
+        delta.seq = in.getLong();
+        delta.full = (in.get() & 1) != 0;
+
+        String[] dimensions = new String[in.get() & 0xFF];
+        for (int i = 0; i < dimensions.length; i++) {
+            byte[] name = new byte[readVarInt(in)];
+            in.get(name);
+            dimensions[i] = new String(name, StandardCharsets.UTF_8);
+        }
+
+        int chunkCount = in.getInt();
+        delta.chunks = new ArrayList<>(chunkCount);
+        for (int i = 0; i < chunkCount; i++) {
+            String dimension = dimensions[in.get() & 0xFF];
+            delta.chunks.add(decodeChunk(in, dimension));
+        }
+
+        int removedCount = in.getInt();
+        List<ChunkDataCollector.RemovedChunk> removed = new ArrayList<>(removedCount);
+        for (int i = 0; i < removedCount; i++) {
+            ChunkDataCollector.RemovedChunk chunk = new ChunkDataCollector.RemovedChunk();
+            chunk.dimension = dimensions[in.get() & 0xFF];
+            chunk.chunkX = in.getInt();
+            chunk.chunkZ = in.getInt();
+            removed.add(chunk);
+        }
+        delta.removed = removed;
+        return delta;
+    }
+
+    public static ChunkDataCollector.CompactChunkData decodeChunk(ByteBuffer in, String dimension) {
+        ChunkDataCollector.CompactChunkData data = new ChunkDataCollector.CompactChunkData();
+        data.dimension = dimension;
+        data.chunkX = in.getInt();
+        data.chunkZ = in.getInt();
+        int count = in.getInt();
+        int flags = in.get() & 0xFF;
+
+        int paletteSize = in.getShort() & 0xFFFF;
+        int[] palette = new int[paletteSize];
+        for (int i = 0; i < paletteSize; i++) {
+            palette[i] = in.getShort() & 0xFFFF;
+        }
+
+        // 列・Y の昇順で書かれているので、そのまま詰めれば並び順の条件を満たす
+        int[] blocks = new int[count];
+        int n = 0;
+        for (int column = 0; column < 256; column++) {
+            int runs = readVarInt(in);
+            int y = ChunkBinaryEncoder.MIN_Y;
+            for (int r = 0; r < runs; r++) {
+                y += readVarInt(in);
+                int length = readVarInt(in);
+                int type = palette[readVarInt(in)];
+                for (int k = 0; k < length; k++) {
+                    blocks[n++] = PackedBlocks.pack(column >> 4, y + k, column & 15, type);
+                }
+                y += length;
+            }
+        }
+        data.blocks = blocks;
+
+        if ((flags & ChunkBinaryEncoder.CHUNK_FLAG_FACES) != 0) {
+            data.faces = new byte[count];
+            in.get(data.faces);
+        }
+        return data;
+    }
+
+    static int readVarInt(ByteBuffer in) {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = in.get();
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+}
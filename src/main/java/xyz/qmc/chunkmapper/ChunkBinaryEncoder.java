@@ -0,0 +1,203 @@
+package xyz.qmc.chunkmapper;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/*
+ * /api/chunks 用のバイナリ形式 (ビッグエンディアン)
+ *
+ *   u32  magic "CMAP"
+ *   u8   フォーマットバージョン
+ *   i64  シーケンス番号
+ *   u8   フラグ (bit0: 全件)
+ *   u8   次元数 D, D x (varint 長さ + UTF-8 名前)
+ *   u32  チャンク数 N
+ *   N x チャンク:
+ *     u8   次元インデックス
+ *     i32  chunkX, i32 chunkZ
+ *     u32  ブロック数 B
+ *     u8   チャンクフラグ (bit0: 面マスクあり)
+ *     u16  パレットサイズ P, P x u16 ブロックタイプID
+ *     256 x 列 (x 外側, z 内側):
+ *       varint ラン数 R
+ *       R x (varint 前のラン終端からのYギャップ, varint 長さ, varint パレットインデックス)
+ *     面マスクありの場合: B x u8 面マスク (列・Y の順, PackedBlocks.FACE_*)
+ *   u32  削除チャンク数 M
+ *   M x (u8 次元インデックス, i32 chunkX, i32 chunkZ)
+ *
+ * 列の最初のランのギャップは MIN_Y からの距離。
+ */
+public final class ChunkBinaryEncoder {
+    public static final String CONTENT_TYPE = "application/x-chunkmapper";
+    public static final int MAGIC = 0x434D4150; // "CMAP"
+    public static final int FORMAT_VERSION = 4;
+    public static final int CHUNK_FLAG_FACES = 1;
+    public static final int MIN_Y = -64;
+
+    private ChunkBinaryEncoder() {
+    }
+
+    public static byte[] encode(ChunkDataCollector.ChunkDelta delta) {
+        List<ChunkDataCollector.CompactChunkData> chunks = delta.chunks;
+        List<ChunkDataCollector.RemovedChunk> removed = delta.removed;
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(4096 + chunks.size() * 1024);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(MAGIC);
+            out.writeByte(FORMAT_VERSION);
+            out.writeLong(delta.seq);
+            out.writeByte(delta.full ? 1 : 0);
+
+            // 次元名テーブル
+            List<String> dimensions = new ArrayList<>();
+            Map<String, Integer> dimensionIndex = new HashMap<>();
+            for (ChunkDataCollector.CompactChunkData chunk : chunks) {
+                indexDimension(chunk.dimension, dimensions, dimensionIndex);
+            }
+            for (ChunkDataCollector.RemovedChunk chunk : removed) {
+                indexDimension(chunk.dimension, dimensions, dimensionIndex);
+            }
+            out.writeByte(dimensions.size());
+            for (String dimension : dimensions) {
+                byte[] name = dimension.getBytes(StandardCharsets.UTF_8);
+                // 集約時の接頭辞などで 255 バイトを超えることもあるので varint で書く
+                writeVarInt(out, name.length);
+                out.write(name);
+            }
+
+            out.writeInt(chunks.size());
+            for (ChunkDataCollector.CompactChunkData chunk : chunks) {
+                out.writeByte(dimensionIndex.get(chunk.dimension));
+                writeChunk(out, chunk);
+            }
+
+            out.writeInt(removed.size());
+            for (ChunkDataCollector.RemovedChunk chunk : removed) {
+                out.writeByte(dimensionIndex.get(chunk.dimension));
+                out.writeInt(chunk.chunkX);
+                out.writeInt(chunk.chunkZ);
+            }
+        } catch (IOException e) {
+            // ByteArrayOutputStream への書き込みは失敗しない
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    // 1チャンク分（次元インデックスを除くチャンク本体）だけをエンコードする。ChunkStore で使用
+    public static byte[] encodeChunk(ChunkDataCollector.CompactChunkData chunk) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(1024);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            writeChunk(out, chunk);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void indexDimension(String dimension, List<String> dimensions, Map<String, Integer> dimensionIndex) {
+        dimensionIndex.computeIfAbsent(dimension, d -> {
+            if (dimensions.size() >= 0xFF) {
+                throw new IllegalStateException("Too many dimensions for the binary chunk format");
+            }
+            dimensions.add(d);
+            return dimensions.size() - 1;
+        });
+    }
+
+    private static void writeChunk(DataOutputStream out, ChunkDataCollector.CompactChunkData chunk) throws IOException {
+        int[] blocks = chunk.blocks;
+        int count = blocks.length;
+
+        out.writeInt(chunk.chunkX);
+        out.writeInt(chunk.chunkZ);
+        out.writeInt(count);
+        out.writeByte(chunk.faces != null ? CHUNK_FLAG_FACES : 0);
+
+        // パレット（通常は数十種類なので線形探索で十分）
+        int[] palette = new int[16];
+        int paletteSize = 0;
+        int[] paletteIndex = new int[count];
+        int lastType = -1;
+        int lastIndex = -1;
+        for (int i = 0; i < count; i++) {
+            int type = PackedBlocks.type(blocks[i]);
+            if (type != lastType) {
+                lastType = type;
+                lastIndex = -1;
+                for (int p = 0; p < paletteSize; p++) {
+                    if (palette[p] == type) {
+                        lastIndex = p;
+                        break;
+                    }
+                }
+                if (lastIndex < 0) {
+                    if (paletteSize == palette.length) {
+                        palette = Arrays.copyOf(palette, paletteSize * 2);
+                    }
+                    lastIndex = paletteSize;
+                    palette[paletteSize++] = type;
+                }
+            }
+            paletteIndex[i] = lastIndex;
+        }
+
+        out.writeShort(paletteSize);
+        for (int i = 0; i < paletteSize; i++) {
+            out.writeShort(palette[i]);
+        }
+
+        // blocks は列・Y の昇順に並んでいる
+        int i = 0;
+        for (int c = 0; c < 256; c++) {
+            int start = i;
+            while (i < count && PackedBlocks.column(blocks[i]) == c) {
+                i++;
+            }
+            int end = i;
+
+            // 同じタイプで連続するYをランにまとめる
+            int runs = 0;
+            for (int k = start; k < end; k++) {
+                if (k == start || !continuesRun(blocks, paletteIndex, k)) {
+                    runs++;
+                }
+            }
+            writeVarInt(out, runs);
+
+            int previousEnd = MIN_Y;
+            int k = start;
+            while (k < end) {
+                int runStart = k;
+                while (k + 1 < end && continuesRun(blocks, paletteIndex, k + 1)) {
+                    k++;
+                }
+                k++;
+                int y = PackedBlocks.y(blocks[runStart]);
+                writeVarInt(out, y - previousEnd);
+                writeVarInt(out, k - runStart);
+                writeVarInt(out, paletteIndex[runStart]);
+                previousEnd = y + (k - runStart);
+            }
+        }
+
+        if (chunk.faces != null) {
+            out.write(chunk.faces, 0, count);
+        }
+    }
+
+    private static boolean continuesRun(int[] blocks, int[] paletteIndex, int i) {
+        return PackedBlocks.y(blocks[i]) == PackedBlocks.y(blocks[i - 1]) + 1 && paletteIndex[i] == paletteIndex[i - 1];
+    }
+
+    private static void writeVarInt(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+}
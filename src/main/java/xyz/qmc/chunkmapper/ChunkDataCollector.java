@@ -1,175 +1,1060 @@
 package xyz.qmc.chunkmapper;
 
-import net.minecraft.block.BlockState;
+import net.minecraft.registry.RegistryKey;
 import net.minecraft.server.MinecraftServer;
 import net.minecraft.server.network.ServerPlayerEntity;
 import net.minecraft.server.world.ServerWorld;
-import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.WorldSavePath;
 import net.minecraft.util.math.ChunkPos;
+import net.minecraft.world.World;
 import net.minecraft.world.chunk.WorldChunk;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.annotations.JsonAdapter;
 
+import java.io.IOException;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
 
 public class ChunkDataCollector {
-    private final Map<String, CompactChunkData> chunkDataMap = new ConcurrentHashMap<>();
+    // 次元ごとのチャンク。キーは次元名
+    private final Map<String, DimensionChunks> dimensions = new ConcurrentHashMap<>();
+    // ワールドから次元を引くためのキャッシュ。次元名の計算はワールドごとに1回だけ行う
+    private final Map<RegistryKey<World>, DimensionChunks> worldDimensions = new ConcurrentHashMap<>();
     private final Gson gson = new GsonBuilder().create();
-    private int tickCounter = 0;
-    private final Set<String> processedChunks = ConcurrentHashMap.newKeySet();
-    private static final int MAX_CHUNKS = 500; // 最大保持チャンク数
+    private long tick = 0;
+    private static final int REFRESH_TICKS = 20; // 公開・追い出し・収集待ちの並べ直しの間隔
+    private static final double EVICTION_TARGET = 0.9; // 追い出し後の目標使用率
+    private static final double IDLE_SECONDS_PER_CHUNK = 60.0; // 1チャンク分の距離と同等とみなす未アクセス時間
+    private static final double NO_PLAYER_DISTANCE = 100_000.0; // プレイヤーがいない次元のチャンクの距離
+    private static final int WORKER_THREADS = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2));
+    private static final int QUEUE_CAPACITY = 64; // 次元ごとの抽出待ちキューの上限
+    private static final int MAX_REMOVED_CHUNKS = 4096; // 差分配信用に保持する削除記録の上限
+    private static final int DIRTY_BATCH = 16; // 変更済みチャンクを一度に取り出す数
+    private static final long COMPRESS_INTERVAL_SECONDS = 10; // コールド層へ移すチャンクを探す間隔
 
+    private final long[] dirtyBuffer = new long[DIRTY_BATCH]; // tick スレッドのみ
+    private final CollectionScheduler scheduler;
+
+    private final Metrics metrics = new Metrics();
+    private final Metrics.Histogram tickTime;
+    private final Metrics.Histogram extractionTime;
+
+    // visible モード: 見える面があるブロックだけを抽出する
+    private final boolean visibleOnly;
+    private final boolean faceMasks;
+
+    // 更新ごとに増えるグローバルシーケンス番号。書き込みは versionLock の中で行う
+    private final Object versionLock = new Object();
+    private volatile long sequence = 0;
+    private volatile long publishedSequence = 0;
+    // 削除記録の古い順。記録そのものは次元ごとの DimensionChunks.removed に持ち、
+    // 同じチャンクが再び追加されたらそちらから消すので、ここには無効な記録も残る
+    private final ArrayDeque<RemovedChunk> removalOrder = new ArrayDeque<>();
+    private int removedCount = 0; // 有効な削除記録の数
+    private long removedHorizon = 0; // これ以前の削除記録は破棄済み
+
+    // 推定メモリ使用量。書き込みは versionLock の中で行う
+    private final long memoryBudgetBytes;
+    private volatile long estimatedBytes = 0;
+    private volatile long evictionCount = 0;
+    private boolean overBudget = false;
+
+    // コールド層: しばらく読まれず更新もされないチャンクは圧縮して持つ（ColdChunkCodec）。
+    // 件数とバイト数の書き込みは versionLock の中で行う。バイト数は estimatedBytes にも含まれる
+    private final long coldAfterMillis;
+    private volatile long coldChunks = 0;
+    private volatile long coldBytes = 0;
+    private final Deflater deflater = new Deflater(); // 圧縮スレッドのみ
+    private ScheduledExecutorService compressor;
+    private final Metrics.Counter hotReads;
+    private final Metrics.Counter coldReads;
+    private final Metrics.Counter compressions;
+    private final Metrics.Counter promotions;
+
+    private final List<ChunkListener> listeners = new CopyOnWriteArrayList<>();
+
+    private volatile BlockPalette palette;
+    private volatile ChunkExtractor extractor;
+    private volatile ChunkExtractionPipeline pipeline;
+    private volatile ChunkStore store;
+    private Thread warmupThread;
+
+    public ChunkDataCollector(ChunkMapperConfig config) {
+        this.memoryBudgetBytes = config.getMemoryBudgetBytes();
+        this.visibleOnly = config.isVisibleExtraction();
+        this.faceMasks = visibleOnly && config.faceMasks;
+        this.scheduler = new CollectionScheduler(config);
+        this.coldAfterMillis = config.coldChunkSeconds * 1000L;
+
+        tickTime = metrics.histogram("chunkmapper_tick_seconds", "Time spent in the chunk collector per server tick");
+        extractionTime = metrics.histogram("chunkmapper_extraction_seconds", "Time to extract one chunk on a worker thread");
+        metrics.gauge("chunkmapper_chunks", "Chunks held in memory", this::getChunkCount);
+        metrics.gauge("chunkmapper_estimated_bytes", "Estimated heap used by chunk data", () -> estimatedBytes);
+        metrics.gauge("chunkmapper_memory_budget_bytes", "Configured memory budget for chunk data", () -> memoryBudgetBytes);
+        metrics.counter("chunkmapper_evictions_total", "Chunks evicted to stay within the memory budget", () -> evictionCount);
+        metrics.gauge("chunkmapper_tier_chunks", "Chunks held in each in-memory tier", () -> getChunkCount() - coldChunks, "tier", "hot");
+        metrics.gauge("chunkmapper_tier_chunks", "Chunks held in each in-memory tier", () -> coldChunks, "tier", "cold");
+        metrics.gauge("chunkmapper_tier_bytes", "Estimated heap used by each in-memory tier", () -> estimatedBytes - coldBytes, "tier", "hot");
+        metrics.gauge("chunkmapper_tier_bytes", "Estimated heap used by each in-memory tier", () -> coldBytes, "tier", "cold");
+        hotReads = metrics.counter("chunkmapper_tier_reads_total", "Chunk reads by the tier that held the chunk", "tier", "hot");
+        coldReads = metrics.counter("chunkmapper_tier_reads_total", "Chunk reads by the tier that held the chunk", "tier", "cold");
+        compressions = metrics.counter("chunkmapper_tier_compressions_total", "Chunks compressed into the cold tier");
+        promotions = metrics.counter("chunkmapper_tier_promotions_total", "Cold chunks expanded back into the hot tier after repeated reads");
+        metrics.gauge("chunkmapper_sequence", "Latest update sequence number", () -> sequence);
+        metrics.queueDepth("collection", this::getPendingCount);
+        metrics.queueDepth("dirty", this::getDirtyCount);
+        metrics.queueDepth("extraction", () -> {
+            ChunkExtractionPipeline current = pipeline;
+            return current != null ? current.getQueueDepth() : 0;
+        });
+        metrics.gauge("chunkmapper_tick_budget_seconds", "Current per-tick collection budget", () -> scheduler.getBudgetNanos() / 1e9);
+        metrics.gauge("chunkmapper_collect_radius", "Current collection radius in chunks", scheduler::getRadius);
+        metrics.gauge("chunkmapper_server_mspt", "Average server tick time in milliseconds", scheduler::getMspt);
+    }
+
+    public void start(MinecraftServer server) {
+        startSequence();
+        // モッドのブロックも含めてレジストリが確定してから作る
+        palette = BlockPalette.create();
+        extractor = new ChunkExtractor(palette, visibleOnly, faceMasks);
+        pipeline = new ChunkExtractionPipeline(WORKER_THREADS, QUEUE_CAPACITY, this::extractCompactChunkData);
+        startCompressor();
+
+        // ディスクストアを開き、保存済みチャンクをバックグラウンドでメモリに読み込む
+        try {
+            store = new ChunkStore(server.getSavePath(WorldSavePath.ROOT).resolve("chunkmapper"), palette.getFingerprint());
+            warmupThread = new Thread(this::warmUpFromStore, "ChunkMapper-Warmup");
+            warmupThread.setDaemon(true);
+            warmupThread.start();
+        } catch (IOException e) {
+            ChunkMapperMod.LOGGER.error("Failed to open chunk store, chunk data will not be persisted", e);
+        }
+    }
+
+    // ChunkAggregator 用。抽出とストアは使わず、putChunk / removeChunk で受け取ったチャンクを配信する
+    public void startAggregator(BlockPalette palette) {
+        startSequence();
+        this.palette = palette;
+        startCompressor();
+    }
+
+    public void stop() {
+        if (pipeline != null) {
+            pipeline.shutdown();
+            pipeline = null;
+        }
+        if (compressor != null) {
+            // 圧縮中のチャンクが clear() の後に置き換えられないよう、終わるのを待つ
+            compressor.shutdownNow();
+            try {
+                compressor.awaitTermination(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            compressor = null;
+        }
+        if (store != null) {
+            ChunkStore closing = store;
+            store = null;
+            closing.close();
+            if (warmupThread != null) {
+                try {
+                    warmupThread.join(5000);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                warmupThread = null;
+            }
+        }
+        clear();
+    }
+
+    // 統合サーバーでは同じ JVM で別のワールドが起動することがあるので、停止したワールドの状態を残さない。
+    // 次に起動したときはストアとその時点でロードされるチャンクから集め直す。
+    // シーケンス番号は戻さず、以前の番号からの差分要求は全件送信にする（古い ETag とも一致しない）
+    private void clear() {
+        synchronized (versionLock) {
+            worldDimensions.clear();
+            dimensions.clear();
+            removalOrder.clear();
+            removedCount = 0;
+            estimatedBytes = 0;
+            coldChunks = 0;
+            coldBytes = 0;
+            overBudget = false;
+            sequence++;
+            removedHorizon = sequence;
+            publishedSequence = sequence;
+        }
+    }
+
+    // 起動ごとにシーケンス番号を現在時刻（ミリ秒 x 1000）から始める。前回の起動でクライアントが受け取った
+    // 番号は必ず removedHorizon より小さくなるので、再起動後の差分要求は全件送信になる
+    // （1ミリ秒に1000回を超える更新が続かない限り、前回の番号が今回の開始番号に追いつくことはない）
+    private void startSequence() {
+        synchronized (versionLock) {
+            sequence = Math.max(sequence + 1, System.currentTimeMillis() * 1000);
+            removedHorizon = sequence;
+            publishedSequence = sequence;
+        }
+    }
+
+    private void startCompressor() {
+        if (coldAfterMillis <= 0 || compressor != null) {
+            return;
+        }
+        compressor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "ChunkMapper-Compressor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        compressor.scheduleWithFixedDelay(this::compressColdChunks,
+                COMPRESS_INTERVAL_SECONDS, COMPRESS_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    // coldChunkSeconds の間読まれず更新もされていないチャンクを圧縮してコールド層に移す
+    private void compressColdChunks() {
+        try {
+            long threshold = System.currentTimeMillis() - coldAfterMillis;
+            for (DimensionChunks dim : dimensions.values()) {
+                List<CompactChunkData> candidates = new ArrayList<>();
+                dim.forEach(data -> {
+                    if (!data.isCold() && data.lastAccess < threshold) {
+                        candidates.add(data);
+                    }
+                });
+                for (CompactChunkData hot : candidates) {
+                    if (Thread.currentThread().isInterrupted()) {
+                        return;
+                    }
+                    // 圧縮はロックの外で行う。ブロックの少ないチャンクは圧縮しても小さくならない
+                    CompactChunkData cold = ColdChunkCodec.compress(hot, deflater);
+                    if (cold.estimatedBytes >= hot.estimatedBytes) {
+                        continue;
+                    }
+                    synchronized (versionLock) {
+                        // 圧縮中に読まれたもの・置き換えられたものはそのまま
+                        if (hot.lastAccess < threshold && dim.replace(DimensionChunks.key(hot.chunkX, hot.chunkZ), hot, cold)) {
+                            estimatedBytes += cold.estimatedBytes - hot.estimatedBytes;
+                            coldChunks++;
+                            coldBytes += cold.estimatedBytes;
+                            compressions.inc();
+                        }
+                    }
+                }
+            }
+        } catch (RuntimeException e) {
+            ChunkMapperMod.LOGGER.error("Failed to compress cold chunks", e);
+        }
+    }
+
+    // コールド層のチャンクは展開したものを返す。前回の読み込みから coldChunkSeconds 以内に
+    // また読まれたものだけをホット層に戻し、全件取得などで一度読まれただけのものは圧縮したままにする
+    private CompactChunkData read(CompactChunkData data, long now) {
+        if (!data.isCold()) {
+            hotReads.inc();
+            data.lastAccess = now;
+            return data;
+        }
+        coldReads.inc();
+        CompactChunkData hot = ColdChunkCodec.expand(data);
+        boolean promote = now - data.lastAccess < coldAfterMillis;
+        data.lastAccess = now;
+        hot.lastAccess = now;
+        if (promote) {
+            DimensionChunks dim = dimensions.get(data.dimension);
+            synchronized (versionLock) {
+                if (dim != null && dim.replace(DimensionChunks.key(data.chunkX, data.chunkZ), data, hot)) {
+                    estimatedBytes += hot.estimatedBytes - data.estimatedBytes;
+                    coldChunks--;
+                    coldBytes -= data.estimatedBytes;
+                    promotions.inc();
+                }
+            }
+        }
+        return hot;
+    }
+
+    // メモリ予算の目標値に達するまで、最近保存されたチャンクから読み込む
+    private void warmUpFromStore() {
+        ChunkStore current = store;
+        long target = (long) (memoryBudgetBytes * EVICTION_TARGET);
+        int loaded = 0;
+        try {
+            for (String dimension : current.getDimensions()) {
+                DimensionChunks dim = dimension(dimension);
+                int[] count = {0};
+                current.forEachChunk(dimension, data -> {
+                    if (store != current || estimatedBytes >= target) {
+                        return false;
+                    }
+                    if (putChunk(dim, DimensionChunks.key(data.chunkX, data.chunkZ), data)) {
+                        count[0]++;
+                    }
+                    return true;
+                });
+                loaded += count[0];
+            }
+        } catch (IOException e) {
+            if (store != null) {
+                ChunkMapperMod.LOGGER.error("Failed to load chunks from store", e);
+            }
+        }
+        ChunkMapperMod.LOGGER.info("Loaded {} chunks from chunk store", loaded);
+    }
+
+    // 毎 tick 呼ばれる。作業は tick ごとの予算の範囲で少しずつ進める
     public void collectChunkData(MinecraftServer server) {
-        // 40tick(2秒)ごとに更新
-        tickCounter++;
-        if (tickCounter < 40) {
+        if (pipeline == null) {
             return;
         }
-        tickCounter = 0;
+        long start = System.nanoTime();
+        tick++;
+
+        if (tick % REFRESH_TICKS == 0) {
+            refresh(server);
+        }
+
+        // 変更済みチャンクの再抽出はメモリ制限に関係なく行い、新規のチャンクより優先する
+        long deadline = start + scheduler.getBudgetNanos();
+        processDirtyChunks(deadline);
+        if (!overBudget) {
+            processQueue(deadline);
+        }
+        tickTime.observeNanos(System.nanoTime() - start);
+    }
+
+    private void refresh(MinecraftServer server) {
+        publish();
+
+        if (scheduler.adjust(server.getTickTime())) {
+            if (scheduler.isThrottled()) {
+                ChunkMapperMod.LOGGER.info("Server MSPT is {}, reducing chunk collection to {} µs per tick within {} chunks",
+                        String.format("%.1f", scheduler.getMspt()), scheduler.getBudgetNanos() / 1000, scheduler.getRadius());
+            } else {
+                ChunkMapperMod.LOGGER.info("Server MSPT is {}, chunk collection back to normal",
+                        String.format("%.1f", scheduler.getMspt()));
+            }
+        }
+        int radius = Math.min(scheduler.getRadius(), server.getPlayerManager().getViewDistance());
 
-        // メモリ制限チェック
-        if (chunkDataMap.size() > MAX_CHUNKS) {
-            ChunkMapperMod.LOGGER.warn("Max chunks reached ({}), skipping new chunks", MAX_CHUNKS);
+        // メモリ予算を超えていれば遠くて古いチャンクから追い出す
+        evictIfOverBudget(server, radius);
+        if (estimatedBytes > memoryBudgetBytes) {
+            // プレイヤー周辺だけで予算を使い切っている場合は新規収集を止める
+            if (!overBudget) {
+                ChunkMapperMod.LOGGER.warn("Chunk data exceeds memory budget ({} / {} bytes), pausing collection",
+                        estimatedBytes, memoryBudgetBytes);
+                overBudget = true;
+            }
+            scheduler.setQueue(new ArrayList<>());
             return;
         }
+        overBudget = false;
 
-        for (ServerPlayerEntity player : server.getPlayerManager().getPlayerList()) {
-            ServerWorld world = player.getServerWorld();
-            ChunkPos playerChunkPos = player.getChunkPos();
+        scheduler.setQueue(buildQueue(server, radius));
+    }
 
-            // 視界距離を制限（5チャンクまで）
-            int viewDistance = Math.min(5, server.getPlayerManager().getViewDistance());
+    // ロード時に収集待ちになったチャンクを、最も近いプレイヤーとの距離で並べる。
+    // MSPT が高いときはプレイヤーの周囲 radius チャンクだけにし、残りは次の並べ直しまで待たせる
+    private List<CollectionScheduler.Candidate> buildQueue(MinecraftServer server, int radius) {
+        Map<DimensionChunks, List<ChunkPos>> playerChunks = getPlayerChunks(server);
+        long limitSq = scheduler.isThrottled() ? (long) radius * radius : Long.MAX_VALUE;
+        List<CollectionScheduler.Candidate> candidates = new ArrayList<>();
+        for (DimensionChunks dim : dimensions.values()) {
+            List<ChunkPos> players = playerChunks.get(dim);
+            dim.forEachPending(key -> {
+                long distanceSq = distanceSqToNearestPlayer(ChunkPos.getPackedX(key), ChunkPos.getPackedZ(key), players);
+                if (distanceSq <= limitSq) {
+                    candidates.add(new CollectionScheduler.Candidate(dim, key, (int) Math.min(distanceSq, Integer.MAX_VALUE)));
+                }
+            });
+        }
+        return candidates;
+    }
 
-            // プレイヤーの周囲のチャンクを収集
-            for (int x = -viewDistance; x <= viewDistance; x++) {
-                for (int z = -viewDistance; z <= viewDistance; z++) {
-                    ChunkPos chunkPos = new ChunkPos(playerChunkPos.x + x, playerChunkPos.z + z);
+    // サーバースレッドで Fabric の ServerChunkEvents から呼ばれる。
+    // スポーンチャンクやチャンクローダーなど、プレイヤーの周囲以外でロードされたチャンクも含む
+    public void onChunkLoaded(ServerWorld world, WorldChunk chunk) {
+        ChunkPos pos = chunk.getPos();
+        dimension(world).addPending(DimensionChunks.key(pos.x, pos.z));
+    }
 
-                    String chunkKey = getDimensionName(world) + "_" + chunkPos.x + "_" + chunkPos.z;
+    // 停止後のアンロードで、止めたワールドの次元を作り直さないようにする
+    public void onChunkUnloaded(ServerWorld world, WorldChunk chunk) {
+        DimensionChunks dim = worldDimensions.get(world.getRegistryKey());
+        if (dim != null) {
+            ChunkPos pos = chunk.getPos();
+            dim.removePending(DimensionChunks.key(pos.x, pos.z));
+        }
+    }
 
-                    // 既に処理済みのチャンクはスキップ
-                    if (processedChunks.contains(chunkKey)) {
-                        continue;
-                    }
+    // プレイヤーに近い順に、予算がなくなるまで収集する
+    private void processQueue(long deadline) {
+        CollectionScheduler.Candidate candidate;
+        while ((candidate = scheduler.peek()) != null && System.nanoTime() < deadline) {
+            DimensionChunks dim = candidate.dimension();
+            ServerWorld world = dim.world;
+            long key = candidate.key();
+            int chunkX = ChunkPos.getPackedX(key);
+            int chunkZ = ChunkPos.getPackedZ(key);
 
-                    if (world.isChunkLoaded(chunkPos.x, chunkPos.z)) {
-                        WorldChunk chunk = world.getChunk(chunkPos.x, chunkPos.z);
-                        extractCompactChunkData(chunk, world, chunkPos);
-                        processedChunks.add(chunkKey);
-                    }
+            // 並べた後に収集済み・アンロードになったものは飛ばす
+            if (world == null || dim.isProcessed(key)) {
+                scheduler.advance();
+                continue;
+            }
+            if (!world.isChunkLoaded(chunkX, chunkZ)) {
+                dim.removePending(key);
+                scheduler.advance();
+                continue;
+            }
+
+            // tickスレッドではスナップショットの取得だけを行い、抽出はワーカーに任せる
+            WorldChunk chunk = world.getChunk(chunkX, chunkZ);
+            ChunkSnapshot snapshot = ChunkSnapshot.capture(chunk, dim.name, palette, visibleOnly);
+            if (!pipeline.submit(snapshot)) {
+                // ワーカーが追いついていないので次の tick に回す
+                return;
+            }
+            scheduler.advance();
+            dim.setProcessed(key, true);
+            trackNeighbours(dim, snapshot);
+        }
+    }
+
+    private void evictIfOverBudget(MinecraftServer server, int protectedRadius) {
+        if (estimatedBytes <= memoryBudgetBytes) {
+            return;
+        }
+
+        Map<DimensionChunks, List<ChunkPos>> playerChunks = getPlayerChunks(server);
+
+        // プレイヤーから遠く、長くアクセスされていないチャンクほどスコアが高い
+        long now = System.currentTimeMillis();
+        List<EvictionCandidate> candidates = new ArrayList<>();
+        for (DimensionChunks dim : dimensions.values()) {
+            List<ChunkPos> players = playerChunks.get(dim);
+            dim.forEach(data -> {
+                double distance = distanceToNearestPlayer(data, players);
+                if (distance <= protectedRadius) {
+                    return;
                 }
+                double idleSeconds = (now - data.lastAccess) / 1000.0;
+                candidates.add(new EvictionCandidate(dim, data, distance + idleSeconds / IDLE_SECONDS_PER_CHUNK));
+            });
+        }
+        candidates.sort(Comparator.comparingDouble(EvictionCandidate::score).reversed());
+
+        long target = (long) (memoryBudgetBytes * EVICTION_TARGET);
+        int evicted = 0;
+        for (EvictionCandidate candidate : candidates) {
+            if (estimatedBytes <= target) {
+                break;
+            }
+            if (evictChunk(candidate.dimension(), candidate.data())) {
+                evicted++;
             }
         }
+
+        if (evicted > 0) {
+            ChunkMapperMod.LOGGER.debug("Evicted {} chunks, {} chunks / {} bytes remaining",
+                    evicted, getChunkCount(), estimatedBytes);
+        }
+    }
+
+    private Map<DimensionChunks, List<ChunkPos>> getPlayerChunks(MinecraftServer server) {
+        Map<DimensionChunks, List<ChunkPos>> playerChunks = new HashMap<>();
+        for (ServerPlayerEntity player : server.getPlayerManager().getPlayerList()) {
+            playerChunks.computeIfAbsent(dimension(player.getServerWorld()), d -> new ArrayList<>())
+                    .add(player.getChunkPos());
+        }
+        return playerChunks;
     }
 
-    private void extractCompactChunkData(WorldChunk chunk, ServerWorld world, ChunkPos chunkPos) {
-        String chunkKey = getDimensionName(world) + "_" + chunkPos.x + "_" + chunkPos.z;
+    // プレイヤーがいない次元では Long.MAX_VALUE
+    private static long distanceSqToNearestPlayer(int chunkX, int chunkZ, List<ChunkPos> players) {
+        if (players == null) {
+            return Long.MAX_VALUE;
+        }
+        long nearest = Long.MAX_VALUE;
+        for (ChunkPos pos : players) {
+            long dx = chunkX - pos.x;
+            long dz = chunkZ - pos.z;
+            nearest = Math.min(nearest, dx * dx + dz * dz);
+        }
+        return nearest;
+    }
 
-        List<BlockInfo> blocks = new ArrayList<>();
+    private static double distanceToNearestPlayer(CompactChunkData data, List<ChunkPos> players) {
+        if (players == null) {
+            return NO_PLAYER_DISTANCE;
+        }
+        double nearest = Double.MAX_VALUE;
+        for (ChunkPos pos : players) {
+            double dx = data.chunkX - pos.x;
+            double dz = data.chunkZ - pos.z;
+            nearest = Math.min(nearest, Math.sqrt(dx * dx + dz * dz));
+        }
+        return nearest;
+    }
 
-        for (int x = 0; x < 16; x++) {
-            for (int z = 0; z < 16; z++) {
-                int worldX = chunkPos.getStartX() + x;
-                int worldZ = chunkPos.getStartZ() + z;
+    // ブロック変更時に mixin から呼ばれる（x, z はワールド座標）
+    public void markBlockChanged(ServerWorld world, int x, int z) {
+        int chunkX = x >> 4;
+        int chunkZ = z >> 4;
+        markDirty(world, chunkX, chunkZ);
 
-                // 地表の高さを取得
-                int surfaceY = chunk.getHeightmap(net.minecraft.world.Heightmap.Type.WORLD_SURFACE).get(x, z);
+        // visible モードでは、境界のブロックの変更で隣接チャンクの面の見え方も変わる
+        if (visibleOnly) {
+            int localX = x & 15;
+            int localZ = z & 15;
+            if (localX == 0) {
+                markDirty(world, chunkX - 1, chunkZ);
+            } else if (localX == 15) {
+                markDirty(world, chunkX + 1, chunkZ);
+            }
+            if (localZ == 0) {
+                markDirty(world, chunkX, chunkZ - 1);
+            } else if (localZ == 15) {
+                markDirty(world, chunkX, chunkZ + 1);
+            }
+        }
+    }
+
+    // ブロック変更・チャンク保存時に mixin から呼ばれる
+    public void markDirty(ServerWorld world, int chunkX, int chunkZ) {
+        if (pipeline == null) {
+            return;
+        }
+        dimension(world).markDirty(DimensionChunks.key(chunkX, chunkZ));
+    }
+
+    private void processDirtyChunks(long deadline) {
+        for (DimensionChunks dim : dimensions.values()) {
+            ServerWorld world = dim.world;
+            if (world == null) {
+                continue;
+            }
 
-                // Y 51 から地表+3ブロックまでを収集（範囲を狭める）
-                for (int y = 51; y <= Math.min(319, surfaceY + 3); y++) {
-                    BlockPos pos = new BlockPos(worldX, y, worldZ);
-                    BlockState state = chunk.getBlockState(pos);
+            boolean saturated = false;
+            while (!saturated && System.nanoTime() < deadline) {
+                // スナップショット取得前に外すので、以降の変更は再びマークされる
+                int count = dim.pollDirty(dirtyBuffer, dirtyBuffer.length);
+                if (count == 0) {
+                    break;
+                }
 
-                    if (state.isAir()) {
+                int i = 0;
+                for (; i < count && System.nanoTime() < deadline; i++) {
+                    long key = dirtyBuffer[i];
+                    int chunkX = ChunkPos.getPackedX(key);
+                    int chunkZ = ChunkPos.getPackedZ(key);
+
+                    // アンロード済みなら、次にロードされたときに通常の収集で再抽出する
+                    if (!world.isChunkLoaded(chunkX, chunkZ)) {
+                        dim.setProcessed(key, false);
                         continue;
                     }
 
-                    BlockInfo block = new BlockInfo();
-                    block.x = (byte) x;  // チャンク内相対座標（0-15）
-                    block.y = (short) y;
-                    block.z = (byte) z;  // チャンク内相対座標（0-15）
-                    block.type = getBlockTypeId(state.getBlock().getTranslationKey().replace("block.minecraft.", ""));
+                    WorldChunk chunk = world.getChunk(chunkX, chunkZ);
+                    ChunkSnapshot snapshot = ChunkSnapshot.capture(chunk, dim.name, palette, visibleOnly);
+                    if (!pipeline.submit(snapshot)) {
+                        saturated = true;
+                        break;
+                    }
+                    trackNeighbours(dim, snapshot);
+                }
 
-                    blocks.add(block);
+                // 予算切れやキューが満杯で処理しなかった分は次の tick に回す
+                for (int j = i; j < count; j++) {
+                    dim.addDirty(dirtyBuffer[j]);
                 }
             }
+            if (System.nanoTime() >= deadline) {
+                return;
+            }
         }
+    }
+
+    // visible モードでは、隣接チャンクがなかったために境界の面を見えるものとして抽出したチャンクを
+    // 記録しておき、その隣接チャンクが取得されたときに再抽出する
+    private void trackNeighbours(DimensionChunks dim, ChunkSnapshot snapshot) {
+        if (visibleOnly) {
+            dim.trackNeighbours(snapshot.pos.x, snapshot.pos.z, snapshot.hasAllNeighbours());
+        }
+    }
 
-        // ブロックが1つもない場合はスキップ
-        if (blocks.isEmpty()) {
+    // ワーカースレッドで実行される
+    private void extractCompactChunkData(ChunkSnapshot snapshot) {
+        ChunkPos chunkPos = snapshot.pos;
+        DimensionChunks dim = dimension(snapshot.dimension);
+        long key = DimensionChunks.key(chunkPos.x, chunkPos.z);
+        long start = System.nanoTime();
+
+        try {
+            PackedBlocks.Builder blocks = extractor.extract(snapshot);
+
+            // ブロックが1つもない場合はスキップ（以前のデータがあれば削除）
+            if (blocks.isEmpty()) {
+                if (removeChunk(dim, key, snapshot.capturedAt)) {
+                    persistRemoval(snapshot.dimension, chunkPos.x, chunkPos.z);
+                }
+                return;
+            }
+
+            CompactChunkData data = new CompactChunkData();
+            data.chunkX = chunkPos.x;
+            data.chunkZ = chunkPos.z;
+            data.dimension = snapshot.dimension;
+            data.faces = blocks.buildFaces();
+            data.blocks = blocks.build();
+            data.capturedAt = snapshot.capturedAt;
+            data.lastAccess = System.currentTimeMillis();
+
+            if (putChunk(dim, key, data)) {
+                persist(data);
+            }
+        } catch (RuntimeException e) {
+            // 次のサイクルで再試行できるようにする
+            dim.retry(key);
+            throw e;
+        } finally {
+            extractionTime.observeNanos(System.nanoTime() - start);
+        }
+    }
+
+    private void persist(CompactChunkData data) {
+        ChunkStore current = store;
+        if (current == null) {
             return;
         }
+        try {
+            current.write(data);
+        } catch (IOException e) {
+            ChunkMapperMod.LOGGER.error("Failed to store chunk {},{} in {}", data.chunkX, data.chunkZ, data.dimension, e);
+        }
+    }
+
+    private void persistRemoval(String dimension, int chunkX, int chunkZ) {
+        ChunkStore current = store;
+        if (current == null) {
+            return;
+        }
+        try {
+            current.delete(dimension, chunkX, chunkZ);
+        } catch (IOException e) {
+            ChunkMapperMod.LOGGER.error("Failed to delete stored chunk {},{} in {}", chunkX, chunkZ, dimension, e);
+        }
+    }
+
+    // 前回以降に完了した更新をまとめて公開する
+    public void publish() {
+        publishedSequence = sequence;
+    }
+
+    // ChunkAggregator 用。capturedAt には System.nanoTime() を設定しておくこと
+    public boolean putChunk(CompactChunkData data) {
+        return putChunk(dimension(data.dimension), DimensionChunks.key(data.chunkX, data.chunkZ), data);
+    }
+
+    // capturedAt より後に更新されたチャンクは削除しない
+    public boolean removeChunk(String dimension, int chunkX, int chunkZ, long capturedAt) {
+        DimensionChunks dim = dimensions.get(dimension);
+        return dim == null || removeChunk(dim, DimensionChunks.key(chunkX, chunkZ), capturedAt);
+    }
+
+    // バージョンの採番と公開を同じロック内で行い、sequence 以下の更新が必ず見えるようにする
+    private boolean putChunk(DimensionChunks dim, long key, CompactChunkData data) {
+        if (data.surface == null) {
+            data.surface = PackedBlocks.topBlocks(data.blocks);
+        }
+        data.estimatedBytes = data.estimateBytes();
+        synchronized (versionLock) {
+            // 同じチャンクの抽出が並行した場合、古いスナップショットで上書きしない
+            // （ストアから読み込んだデータは capturedAt が Long.MIN_VALUE なので、抽出結果を上書きしない）
+            CompactChunkData existing = dim.get(key);
+            if (existing != null && existing.capturedAt >= data.capturedAt) {
+                return false;
+            }
+            data.version = sequence + 1;
+            dim.put(key, data);
+            if (existing != null && existing.isCold()) {
+                coldChunks--;
+                coldBytes -= existing.estimatedBytes;
+            }
+            if (dim.removed.remove(key) != null) {
+                removedCount--;
+            }
+            sequence = data.version;
+            estimatedBytes += data.estimatedBytes - (existing != null ? existing.estimatedBytes : 0);
+            for (ChunkListener listener : listeners) {
+                listener.onChunkUpdated(data);
+            }
+            return true;
+        }
+    }
+
+    private boolean removeChunk(DimensionChunks dim, long key, long capturedAt) {
+        synchronized (versionLock) {
+            CompactChunkData old = dim.get(key);
+            if (old == null || old.capturedAt > capturedAt) {
+                return old == null;
+            }
+            dim.remove(key, old);
+            recordRemoval(dim, key, old);
+            return true;
+        }
+    }
+
+    // 追い出したチャンクはディスクには残り、プレイヤーが戻ってきたときに再収集する
+    private boolean evictChunk(DimensionChunks dim, CompactChunkData data) {
+        long key = DimensionChunks.key(data.chunkX, data.chunkZ);
+        synchronized (versionLock) {
+            if (!dim.evict(key, data)) {
+                return false;
+            }
+            recordRemoval(dim, key, data);
+            evictionCount++;
+            return true;
+        }
+    }
+
+    // versionLock を保持した状態で呼ぶこと
+    private void recordRemoval(DimensionChunks dim, long key, CompactChunkData old) {
+        estimatedBytes -= old.estimatedBytes;
+        if (old.isCold()) {
+            coldChunks--;
+            coldBytes -= old.estimatedBytes;
+        }
 
-        CompactChunkData data = new CompactChunkData();
-        data.chunkX = chunkPos.x;
-        data.chunkZ = chunkPos.z;
-        data.dimension = getDimensionName(world);
-        data.blocks = blocks;
-
-        chunkDataMap.put(chunkKey, data);
-    }
-
-    // ブロックタイプを数値IDに変換
-    private byte getBlockTypeId(String blockId) {
-        return switch (blockId) {
-            case "grass_block" -> 1;
-            case "dirt" -> 2;
-            case "stone" -> 3;
-            case "sand" -> 4;
-            case "water" -> 5;
-            case "oak_log" -> 6;
-            case "oak_leaves" -> 7;
-            case "snow" -> 8;
-            case "ice" -> 9;
-            case "netherrack" -> 10;
-            case "end_stone" -> 11;
-            case "gravel" -> 12;
-            case "cobblestone" -> 13;
-            case "bedrock" -> 14;
-            case "clay" -> 15;
-            case "soul_sand" -> 16;
-            case "oak_planks" -> 21;
-            case "spruce_log" -> 22;
-            case "birch_log" -> 23;
-            case "jungle_log" -> 24;
-            case "spruce_leaves" -> 25;
-            case "birch_leaves" -> 26;
-            case "jungle_leaves" -> 27;
-            case "glass" -> 28;
-            case "white_wool" -> 29;
-            case "terracotta" -> 30;
-            default -> 0;
-        };
-    }
-
-    private String getDimensionName(ServerWorld world) {
-        String id = world.getRegistryKey().getValue().toString();
+        RemovedChunk removed = new RemovedChunk();
+        removed.chunkX = old.chunkX;
+        removed.chunkZ = old.chunkZ;
+        removed.dimension = old.dimension;
+        removed.version = sequence + 1;
+        if (dim.removed.put(key, removed) == null) {
+            removedCount++;
+        }
+        removalOrder.addLast(removed);
+        sequence = removed.version;
+        for (ChunkListener listener : listeners) {
+            listener.onChunkRemoved(removed);
+        }
+
+        // 古い削除記録を破棄し、それより前からの差分要求は全件送信にする
+        while (removedCount > MAX_REMOVED_CHUNKS || removalOrder.size() > MAX_REMOVED_CHUNKS * 2) {
+            RemovedChunk oldest = removalOrder.pollFirst();
+            if (isCurrentRemoval(oldest)) {
+                dimension(oldest.dimension).removed.remove(DimensionChunks.key(oldest.chunkX, oldest.chunkZ));
+                removedCount--;
+                removedHorizon = oldest.version;
+            }
+        }
+    }
+
+    // 再追加や再削除で置き換えられていない削除記録か。versionLock を保持した状態で呼ぶこと
+    private boolean isCurrentRemoval(RemovedChunk removed) {
+        DimensionChunks dim = dimensions.get(removed.dimension);
+        return dim != null && dim.removed.get(DimensionChunks.key(removed.chunkX, removed.chunkZ)) == removed;
+    }
+
+    // 次元名の計算はワールドごとに1回だけ行い、以降はレジストリキーで引く
+    private DimensionChunks dimension(ServerWorld world) {
+        DimensionChunks dim = worldDimensions.get(world.getRegistryKey());
+        if (dim == null) {
+            dim = dimension(getDimensionName(world));
+            worldDimensions.put(world.getRegistryKey(), dim);
+        }
+        // 同じレジストリキーでも、再起動後は別の ServerWorld になる
+        if (dim.world != world) {
+            dim.world = world;
+        }
+        return dim;
+    }
+
+    private DimensionChunks dimension(String name) {
+        return dimensions.computeIfAbsent(name, DimensionChunks::new);
+    }
+
+    private static String getDimensionName(ServerWorld world) {
+        return getDimensionName(world.getRegistryKey().getValue().toString());
+    }
+
+    // id は "minecraft:the_nether" などの次元の ID
+    static String getDimensionName(String id) {
         if (id.contains("overworld")) return "overworld";
         if (id.contains("nether")) return "nether";
         if (id.contains("end")) return "end";
         return id;
     }
 
-    public String getChunkDataAsJson() {
-        return gson.toJson(new ArrayList<>(chunkDataMap.values()));
+    public long getSequence() {
+        return sequence;
+    }
+
+    // 収集サイクルごとに公開されるシーケンス番号。HTTP 応答はこの時点の状態を返す
+    public long getPublishedSequence() {
+        return publishedSequence;
+    }
+
+    public void addListener(ChunkListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(ChunkListener listener) {
+        listeners.remove(listener);
+    }
+
+    public ChunkDelta getDelta(long since, long seq) {
+        return getDelta(since, seq, ChunkQuery.ALL);
+    }
+
+    // since より後、seq 以前に追加・更新・削除されたチャンクのうち、query の範囲に入るものを返す
+    public ChunkDelta getDelta(long since, long seq, ChunkQuery query) {
+        ChunkDelta delta = new ChunkDelta();
+        List<RemovedChunk> removed = new ArrayList<>();
+        synchronized (versionLock) {
+            // 削除記録が残っていない、前回の起動の番号（startSequence）、または未来の番号が来た場合は全件
+            delta.full = since <= 0 || since < removedHorizon || since > sequence;
+            // ストリームで先の更新まで受け取っているクライアントには空の差分を返す
+            delta.seq = delta.full ? seq : Math.max(seq, since);
+            if (!delta.full) {
+                for (RemovedChunk r : removalOrder) {
+                    if (r.version > since && r.version <= seq && query.matches(r.dimension, r.chunkX, r.chunkZ)
+                            && isCurrentRemoval(r)) {
+                        removed.add(r);
+                    }
+                }
+            }
+        }
+
+        // seq より新しい更新は次に公開されるスナップショットに含まれる
+        long now = System.currentTimeMillis();
+        List<CompactChunkData> chunks = new ArrayList<>();
+        List<CompactChunkData> candidates = new ArrayList<>();
+        if (query.dimension() != null) {
+            DimensionChunks dim = dimensions.get(query.dimension());
+            if (dim != null) {
+                dim.collect(query, candidates);
+            }
+        } else {
+            for (DimensionChunks dim : dimensions.values()) {
+                dim.collect(query, candidates);
+            }
+        }
+        for (CompactChunkData data : candidates) {
+            if (data.version <= seq && (delta.full || data.version > since)) {
+                chunks.add(query.clip(read(data, now)));
+            }
+        }
+        delta.chunks = chunks;
+        delta.removed = removed;
+        return delta;
+    }
+
+    // タイル用の列ごとの一番上のブロック (PackedBlocks.topBlocks)。どちらにもなければ null。
+    // コールド層のチャンクも展開せず、最終アクセス時刻も更新しない（タイルの描画でホットに戻さない）
+    public int[] getSurface(String dimension, int chunkX, int chunkZ) {
+        DimensionChunks dim = dimensions.get(dimension);
+        CompactChunkData data = dim != null ? dim.get(DimensionChunks.key(chunkX, chunkZ)) : null;
+        if (data != null) {
+            return data.surface;
+        }
+        ChunkStore current = store;
+        if (current == null) {
+            return null;
+        }
+        try {
+            CompactChunkData stored = current.read(dimension, chunkX, chunkZ);
+            return stored != null ? PackedBlocks.topBlocks(stored.blocks) : null;
+        } catch (IOException e) {
+            ChunkMapperMod.LOGGER.warn("Failed to read chunk {},{} in {} from store", chunkX, chunkZ, dimension, e);
+            return null;
+        }
+    }
+
+    // メモリになければディスクストアから読む（メモリには追加しない）。どちらにもなければ null
+    public CompactChunkData getChunk(String dimension, int chunkX, int chunkZ) {
+        DimensionChunks dim = dimensions.get(dimension);
+        CompactChunkData data = dim != null ? dim.get(DimensionChunks.key(chunkX, chunkZ)) : null;
+        if (data != null) {
+            return read(data, System.currentTimeMillis());
+        }
+        ChunkStore current = store;
+        if (current == null) {
+            return null;
+        }
+        try {
+            return current.read(dimension, chunkX, chunkZ);
+        } catch (IOException e) {
+            ChunkMapperMod.LOGGER.warn("Failed to read chunk {},{} in {} from store", chunkX, chunkZ, dimension, e);
+            return null;
+        }
+    }
+
+    // チャンクが1つ以上ある次元の名前
+    public List<String> getDimensionNames() {
+        List<String> names = new ArrayList<>();
+        for (DimensionChunks dim : dimensions.values()) {
+            if (dim.size() > 0) {
+                names.add(dim.name);
+            }
+        }
+        Collections.sort(names);
+        return names;
+    }
+
+    // 呼び出し時点のチャンクの座標の一覧 (DimensionChunks.key)。データはコールドの場合があるので渡さない
+    public List<Long> getChunkKeys(String dimension) {
+        List<Long> keys = new ArrayList<>();
+        DimensionChunks dim = dimensions.get(dimension);
+        if (dim != null) {
+            dim.forEach(data -> keys.add(DimensionChunks.key(data.chunkX, data.chunkZ)));
+        }
+        return keys;
+    }
+
+    public String getDimensionsAsJson() {
+        return gson.toJson(getDimensionNames());
     }
 
     public int getChunkCount() {
-        return chunkDataMap.size();
+        int count = 0;
+        for (DimensionChunks dim : dimensions.values()) {
+            count += dim.size();
+        }
+        return count;
+    }
+
+    private int getPendingCount() {
+        int count = 0;
+        for (DimensionChunks dim : dimensions.values()) {
+            count += dim.getPendingCount();
+        }
+        return count;
+    }
+
+    private int getDirtyCount() {
+        int count = 0;
+        for (DimensionChunks dim : dimensions.values()) {
+            count += dim.getDirtyCount();
+        }
+        return count;
+    }
+
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    public long getEstimatedBytes() {
+        return estimatedBytes;
+    }
+
+    public long getMemoryBudgetBytes() {
+        return memoryBudgetBytes;
+    }
+
+    public long getEvictionCount() {
+        return evictionCount;
+    }
+
+    public BlockPalette getPalette() {
+        return palette;
+    }
+
+    public String getPaletteAsJson() {
+        return gson.toJson(palette.toJson());
+    }
+
+    public String getStatsAsJson() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("chunks", getChunkCount());
+        stats.put("estimatedBytes", estimatedBytes);
+        stats.put("memoryBudgetBytes", memoryBudgetBytes);
+        stats.put("evictions", evictionCount);
+        stats.put("coldChunks", coldChunks);
+        stats.put("coldBytes", coldBytes);
+        long reads = hotReads.get() + coldReads.get();
+        stats.put("hotReadRatio", reads > 0 ? (double) hotReads.get() / reads : 1.0);
+        stats.put("sequence", sequence);
+        stats.put("collectionQueue", getPendingCount());
+        stats.put("tickBudgetMicros", scheduler.getBudgetNanos() / 1000);
+        stats.put("collectRadius", scheduler.getRadius());
+        stats.put("mspt", scheduler.getMspt());
+        return gson.toJson(stats);
     }
 
     public static class CompactChunkData {
         public int chunkX;
         public int chunkZ;
         public String dimension;
-        public List<BlockInfo> blocks;
+        public long version; // このチャンクが最後に更新されたときのシーケンス番号
+        @JsonAdapter(PackedBlocks.JsonAdapter.class)
+        public int[] blocks = PackedBlocks.EMPTY; // PackedBlocks 形式、列・Y の昇順。コールドの場合は null
+        public byte[] faces; // blocks と同じ順序の面マスク (PackedBlocks.FACE_*)。記録しない場合は null
+        transient byte[] compressed; // コールド層の場合の ColdChunkCodec で圧縮した blocks と faces
+        transient int[] surface; // 列ごとの一番上のブロック (PackedBlocks.topBlocks)。タイル用で、コールドでも展開せずに読める
+        transient long capturedAt; // 元になったスナップショットの取得時刻 (System.nanoTime())。ストアから読んだものは Long.MIN_VALUE
+        transient volatile long lastAccess; // 最後に更新・配信された時刻
+        transient long estimatedBytes;
+
+        // コールドの場合はその都度展開する（ホットに戻すのは ChunkDataCollector.read だけ）
+        public int getBlockCount() {
+            return hotBlocks().length;
+        }
+
+        // ブロックごとのオブジェクトを作らずに走査する
+        public void forEachBlock(PackedBlocks.BlockVisitor visitor) {
+            PackedBlocks.forEach(hotBlocks(), visitor);
+        }
+
+        private int[] hotBlocks() {
+            return compressed != null ? ColdChunkCodec.expand(this).blocks : blocks;
+        }
+
+        // コールド層のデータは blocks を持たない。ChunkDataCollector の外へは展開してから渡す
+        public boolean isCold() {
+            return compressed != null;
+        }
+
+        // ヒープ上のおおよそのサイズ（オブジェクトヘッダーと配列、1ブロック4バイト + 面マスク1バイト）
+        long estimateBytes() {
+            long surfaceBytes = surface != null ? 16 + surface.length * 4L : 0;
+            if (compressed != null) {
+                return 64 + 16 + compressed.length + surfaceBytes;
+            }
+            return 64 + 16 + blocks.length * 4L + (faces != null ? 16 + faces.length : 0) + surfaceBytes;
+        }
+    }
+
+    private record EvictionCandidate(DimensionChunks dimension, CompactChunkData data, double score) {
+    }
+
+    // 更新・削除の通知。versionLock を保持したまま呼ばれるので、ブロックしないこと
+    public interface ChunkListener {
+        void onChunkUpdated(CompactChunkData data);
+
+        void onChunkRemoved(RemovedChunk removed);
+    }
+
+    public static class RemovedChunk {
+        public int chunkX;
+        public int chunkZ;
+        public String dimension;
+        public long version;
     }
 
-    public static class BlockInfo {
-        public byte x;    // 0-15 (チャンク内相対座標)
-        public short y;   // ワールド座標
-        public byte z;    // 0-15 (チャンク内相対座標)
-        public byte type; // ブロックタイプID
+    public static class ChunkDelta {
+        public long seq;       // この応答に含まれる最新のシーケンス番号
+        public boolean full;   // true の場合、クライアントは既存データを破棄する
+        public List<CompactChunkData> chunks;
+        public List<RemovedChunk> removed;
     }
 }
\ No newline at end of file
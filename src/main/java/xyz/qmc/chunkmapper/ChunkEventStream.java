@@ -0,0 +1,230 @@
+package xyz.qmc.chunkmapper;
+
+import com.sun.net.httpserver.HttpExchange;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * /api/stream の Server-Sent Events 配信
+ *
+ * 各イベントは ChunkBinaryEncoder 形式の差分を Base64 にしたもの:
+ *
+ *   event: delta
+ *   data: <base64>
+ *
+ * クライアントごとに送信待ちキューを持ち、同じチャンクへの更新は最新のものだけを残す。
+ * キューがあふれた遅いクライアントには、最後に送ったシーケンス番号からの差分をまとめて送り直す。
+ * /api/chunks と同じ絞り込み条件 (ChunkQuery) を指定でき、範囲外のチャンクは送らない。
+ */
+public class ChunkEventStream implements ChunkDataCollector.ChunkListener {
+    private static final int MAX_CLIENTS = 64;
+    private static final int MAX_PENDING = 1024; // クライアントごとの送信待ちチャンク数の上限
+    private static final long HEARTBEAT_MILLIS = 15_000;
+
+    private final ChunkDataCollector collector;
+    private final Set<Client> clients = ConcurrentHashMap.newKeySet();
+    private final ExecutorService senders;
+
+    private final Metrics.Counter sentBytes;
+    private final Metrics.Counter sentEvents;
+    private final Metrics.Counter resyncs;
+
+    public ChunkEventStream(ChunkDataCollector collector) {
+        this.collector = collector;
+
+        Metrics metrics = collector.getMetrics();
+        metrics.gauge("chunkmapper_stream_clients", "Connected /api/stream clients", this::getClientCount);
+        sentBytes = metrics.counter("chunkmapper_stream_bytes_total", "Bytes sent to /api/stream clients");
+        sentEvents = metrics.counter("chunkmapper_stream_events_total", "Delta events sent to /api/stream clients");
+        resyncs = metrics.counter("chunkmapper_stream_resyncs_total", "Times a slow stream client overflowed and was resent a catch-up delta");
+
+        AtomicInteger threadId = new AtomicInteger();
+        this.senders = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "ChunkMapper-Stream-" + threadId.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    // 接続数の上限に達している場合は false
+    public boolean open(HttpExchange exchange, long since, ChunkQuery query) throws IOException {
+        if (clients.size() >= MAX_CLIENTS) {
+            return false;
+        }
+
+        exchange.getResponseHeaders().set("Content-Type", "text/event-stream; charset=UTF-8");
+        exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+        exchange.getResponseHeaders().set("Access-Control-Allow-Origin", "*");
+        exchange.sendResponseHeaders(200, 0);
+
+        // 先に登録してから追いつき分を送るので、その間の更新も取りこぼさない
+        Client client = new Client(exchange, since, query);
+        clients.add(client);
+        senders.execute(client);
+        return true;
+    }
+
+    public int getClientCount() {
+        return clients.size();
+    }
+
+    @Override
+    public void onChunkUpdated(ChunkDataCollector.CompactChunkData data) {
+        for (Client client : clients) {
+            client.offer(data);
+        }
+    }
+
+    @Override
+    public void onChunkRemoved(ChunkDataCollector.RemovedChunk removed) {
+        for (Client client : clients) {
+            client.offer(removed);
+        }
+    }
+
+    public void close() {
+        for (Client client : clients) {
+            client.close();
+        }
+        senders.shutdownNow();
+    }
+
+    private record PendingKey(String dimension, long chunk) {
+    }
+
+    private final class Client implements Runnable {
+        private final HttpExchange exchange;
+        private final OutputStream out;
+        private final ChunkQuery query;
+        private final LinkedHashMap<PendingKey, Object> pending = new LinkedHashMap<>();
+        private boolean overflowed = false;
+        private boolean closed = false;
+        private long lastSentSeq;
+
+        Client(HttpExchange exchange, long since, ChunkQuery query) {
+            this.exchange = exchange;
+            this.out = exchange.getResponseBody();
+            this.query = query;
+            this.lastSentSeq = since;
+        }
+
+        void offer(ChunkDataCollector.CompactChunkData data) {
+            if (query.matches(data.dimension, data.chunkX, data.chunkZ)) {
+                offer(new PendingKey(data.dimension, DimensionChunks.key(data.chunkX, data.chunkZ)), data);
+            }
+        }
+
+        void offer(ChunkDataCollector.RemovedChunk removed) {
+            if (query.matches(removed.dimension, removed.chunkX, removed.chunkZ)) {
+                offer(new PendingKey(removed.dimension, DimensionChunks.key(removed.chunkX, removed.chunkZ)), removed);
+            }
+        }
+
+        private synchronized void offer(PendingKey chunkKey, Object event) {
+            if (closed || overflowed) {
+                return;
+            }
+            pending.remove(chunkKey);
+            pending.put(chunkKey, event);
+            if (pending.size() > MAX_PENDING) {
+                pending.clear();
+                overflowed = true;
+            }
+            notifyAll();
+        }
+
+        @Override
+        public void run() {
+            try {
+                sendCatchUp();
+                while (true) {
+                    List<Object> batch;
+                    boolean resync;
+                    synchronized (this) {
+                        if (pending.isEmpty() && !overflowed && !closed) {
+                            wait(HEARTBEAT_MILLIS);
+                        }
+                        if (closed) {
+                            return;
+                        }
+                        batch = new ArrayList<>(pending.values());
+                        pending.clear();
+                        resync = overflowed;
+                        overflowed = false;
+                    }
+
+                    if (resync) {
+                        resyncs.inc();
+                        sendCatchUp();
+                    } else if (batch.isEmpty()) {
+                        write(": ping\n\n");
+                    } else {
+                        sendBatch(batch);
+                    }
+                }
+            } catch (IOException | InterruptedException e) {
+                // クライアントが切断した
+            } finally {
+                close();
+            }
+        }
+
+        private void sendCatchUp() throws IOException {
+            ChunkDataCollector.ChunkDelta delta = collector.getDelta(lastSentSeq, collector.getSequence(), query);
+            if (delta.full || !delta.chunks.isEmpty() || !delta.removed.isEmpty()) {
+                sendDelta(delta);
+            }
+        }
+
+        private void sendBatch(List<Object> batch) throws IOException {
+            ChunkDataCollector.ChunkDelta delta = new ChunkDataCollector.ChunkDelta();
+            delta.chunks = new ArrayList<>();
+            delta.removed = new ArrayList<>();
+            delta.seq = lastSentSeq;
+            for (Object event : batch) {
+                if (event instanceof ChunkDataCollector.CompactChunkData data) {
+                    delta.chunks.add(query.clip(data));
+                    delta.seq = Math.max(delta.seq, data.version);
+                } else if (event instanceof ChunkDataCollector.RemovedChunk removed) {
+                    delta.removed.add(removed);
+                    delta.seq = Math.max(delta.seq, removed.version);
+                }
+            }
+            sendDelta(delta);
+        }
+
+        private void sendDelta(ChunkDataCollector.ChunkDelta delta) throws IOException {
+            String payload = Base64.getEncoder().encodeToString(ChunkBinaryEncoder.encode(delta));
+            write("event: delta\ndata: " + payload + "\n\n");
+            sentEvents.inc();
+            lastSentSeq = delta.seq;
+        }
+
+        private void write(String message) throws IOException {
+            byte[] bytes = message.getBytes(StandardCharsets.UTF_8);
+            out.write(bytes);
+            out.flush();
+            sentBytes.add(bytes.length);
+        }
+
+        void close() {
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                pending.clear();
+                notifyAll();
+            }
+            clients.remove(this);
+            exchange.close();
+        }
+    }
+}
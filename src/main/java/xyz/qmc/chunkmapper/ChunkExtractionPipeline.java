@@ -0,0 +1,84 @@
+package xyz.qmc.chunkmapper;
+
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+// 次元ごとの有界キューとワーカースレッドプールでチャンク抽出を実行する
+public class ChunkExtractionPipeline {
+    private final Map<String, BlockingQueue<ChunkSnapshot>> queues = new ConcurrentHashMap<>();
+    private final int queueCapacity;
+    private final ThreadPoolExecutor executor;
+    private final Consumer<ChunkSnapshot> extractor;
+
+    public ChunkExtractionPipeline(int workerThreads, int queueCapacity, Consumer<ChunkSnapshot> extractor) {
+        this.queueCapacity = queueCapacity;
+        this.extractor = extractor;
+
+        AtomicInteger threadId = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(workerThreads, workerThreads, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(), runnable -> {
+            Thread thread = new Thread(runnable, "ChunkMapper-Worker-" + threadId.incrementAndGet());
+            thread.setDaemon(true);
+            thread.setPriority(Thread.NORM_PRIORITY - 1);
+            return thread;
+        });
+    }
+
+    // キューが満杯の場合は false を返す（呼び出し側は次のサイクルで再試行する）
+    public boolean submit(ChunkSnapshot snapshot) {
+        BlockingQueue<ChunkSnapshot> queue = queues.computeIfAbsent(snapshot.dimension,
+                d -> new ArrayBlockingQueue<>(queueCapacity));
+        if (!queue.offer(snapshot)) {
+            return false;
+        }
+        try {
+            executor.execute(() -> process(queue));
+        } catch (RejectedExecutionException e) {
+            queue.remove(snapshot);
+            return false;
+        }
+        return true;
+    }
+
+    private void process(BlockingQueue<ChunkSnapshot> queue) {
+        ChunkSnapshot snapshot = queue.poll();
+        if (snapshot == null) {
+            return;
+        }
+        try {
+            extractor.accept(snapshot);
+        } catch (Exception e) {
+            ChunkMapperMod.LOGGER.error("Failed to extract chunk {} in {}", snapshot.pos, snapshot.dimension, e);
+        }
+    }
+
+    public int getQueueDepth(String dimension) {
+        BlockingQueue<ChunkSnapshot> queue = queues.get(dimension);
+        return queue == null ? 0 : queue.size();
+    }
+
+    // すべての次元の合計
+    public int getQueueDepth() {
+        int depth = 0;
+        for (BlockingQueue<ChunkSnapshot> queue : queues.values()) {
+            depth += queue.size();
+        }
+        return depth;
+    }
+
+    // 実行中の抽出は割り込まずに完了を待つ（ChunkStore への書き込みを中断させないため）
+    public void shutdown() {
+        queues.values().forEach(BlockingQueue::clear);
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
+                ChunkMapperMod.LOGGER.warn("Chunk extraction workers did not finish in time");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        queues.clear();
+    }
+}
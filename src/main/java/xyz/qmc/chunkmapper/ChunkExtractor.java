@@ -0,0 +1,119 @@
+package xyz.qmc.chunkmapper;
+
+/*
+ * スナップショットからブロックを取り出す
+ *
+ * all: Y 51 から各列の地表+3ブロックまでの、空気以外のすべてのブロック
+ * visible: そのうち6方向のどれかに不透明でないブロックがあるもの（面マスク付きにもできる）
+ *
+ * スナップショットとパレットだけを読むので、ワーカースレッドから同時に呼んでよい。
+ */
+public class ChunkExtractor {
+    private final BlockPalette palette;
+    private final boolean visibleOnly;
+    private final boolean faceMasks;
+
+    public ChunkExtractor(BlockPalette palette, boolean visibleOnly, boolean faceMasks) {
+        this.palette = palette;
+        this.visibleOnly = visibleOnly;
+        this.faceMasks = visibleOnly && faceMasks;
+    }
+
+    public PackedBlocks.Builder extract(ChunkSnapshot snapshot) {
+        PackedBlocks.Builder blocks = new PackedBlocks.Builder(256, faceMasks);
+        if (visibleOnly) {
+            collectVisibleBlocks(snapshot, blocks);
+        } else {
+            collectAllBlocks(snapshot, blocks);
+        }
+        return blocks;
+    }
+
+    private void collectAllBlocks(ChunkSnapshot snapshot, PackedBlocks.Builder blocks) {
+        for (int x = 0; x < 16; x++) {
+            for (int z = 0; z < 16; z++) {
+                // Y 51 から地表+3ブロックまでを収集（範囲を狭める）
+                int top = Math.min(319, snapshot.getSurfaceHeight(x, z) + 3);
+
+                // セクション単位で進め、空気だけのセクションや1種類だけのセクションは一度に処理する
+                int y = 51;
+                while (y <= top) {
+                    int sectionTop = Math.min(top, y | 15);
+                    SectionSnapshot section = snapshot.getSection(y >> 4);
+                    if (section == null) {
+                        y = sectionTop + 1;
+                        continue;
+                    }
+
+                    if (section.isSingleValue()) {
+                        int type = section.getSingleType();
+                        if (type != BlockPalette.AIR) {
+                            for (; y <= sectionTop; y++) {
+                                blocks.add(x, y, z, type);
+                            }
+                        }
+                        y = sectionTop + 1;
+                        continue;
+                    }
+
+                    for (; y <= sectionTop; y++) {
+                        int type = section.getType(x, y & 15, z);
+                        if (type != BlockPalette.AIR) {
+                            // x, z はチャンク内相対座標（0-15）
+                            blocks.add(x, y, z, type);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    // 6方向のどれかに不透明でないブロックがあるものだけを集める
+    private void collectVisibleBlocks(ChunkSnapshot snapshot, PackedBlocks.Builder blocks) {
+        for (int x = 0; x < 16; x++) {
+            for (int z = 0; z < 16; z++) {
+                int top = Math.min(319, snapshot.getSurfaceHeight(x, z) + 3);
+                boolean innerColumn = x > 0 && x < 15 && z > 0 && z < 15;
+
+                int y = 51;
+                while (y <= top) {
+                    int sectionTop = Math.min(top, y | 15);
+                    SectionSnapshot section = snapshot.getSection(y >> 4);
+                    if (section == null || (section.isSingleValue() && section.getSingleType() == BlockPalette.AIR)) {
+                        y = sectionTop + 1;
+                        continue;
+                    }
+
+                    // 1種類の不透明ブロックだけのセクションでは、内側のブロックは必ず隠れている
+                    boolean solid = innerColumn && section.isSingleValue() && palette.isOpaque(section.getSingleType());
+
+                    for (; y <= sectionTop; y++) {
+                        int localY = y & 15;
+                        if (solid && localY != 0 && localY != 15) {
+                            continue;
+                        }
+                        int type = section.getType(x, localY, z);
+                        if (type == BlockPalette.AIR) {
+                            continue;
+                        }
+                        int faces = visibleFaces(snapshot, palette, x, y, z);
+                        if (faces != 0) {
+                            blocks.add(x, y, z, type, faces);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private static int visibleFaces(ChunkSnapshot snapshot, BlockPalette palette, int x, int y, int z) {
+        int faces = 0;
+        if (!palette.isOpaque(snapshot.getType(x - 1, y, z))) faces |= PackedBlocks.FACE_WEST;
+        if (!palette.isOpaque(snapshot.getType(x + 1, y, z))) faces |= PackedBlocks.FACE_EAST;
+        if (!palette.isOpaque(snapshot.getType(x, y - 1, z))) faces |= PackedBlocks.FACE_DOWN;
+        if (!palette.isOpaque(snapshot.getType(x, y + 1, z))) faces |= PackedBlocks.FACE_UP;
+        if (!palette.isOpaque(snapshot.getType(x, y, z - 1))) faces |= PackedBlocks.FACE_NORTH;
+        if (!palette.isOpaque(snapshot.getType(x, y, z + 1))) faces |= PackedBlocks.FACE_SOUTH;
+        return faces;
+    }
+}
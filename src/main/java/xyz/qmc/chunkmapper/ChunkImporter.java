@@ -0,0 +1,543 @@
+package xyz.qmc.chunkmapper;
+
+import net.minecraft.Bootstrap;
+import net.minecraft.SharedConstants;
+import net.minecraft.block.Block;
+import net.minecraft.nbt.NbtCompound;
+import net.minecraft.nbt.NbtElement;
+import net.minecraft.nbt.NbtHelper;
+import net.minecraft.nbt.NbtIo;
+import net.minecraft.nbt.NbtList;
+import net.minecraft.registry.Registries;
+import net.minecraft.registry.RegistryEntryLookup;
+import net.minecraft.util.Identifier;
+import net.minecraft.util.math.ChunkPos;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/*
+ * ワールドの region ファイル (.mca) から直接チャンクを抽出してチャンクストアに書き込む
+ *
+ *   ./gradlew importWorld --args="<ワールド> [--dimension overworld] [--threads N] [--config <chunkmapper.properties>]
+ *                                  [--allow-unknown-blocks]"
+ *
+ * サーバーを止めた状態で実行する（session.lock を取れなければ中止する）。
+ * 1リージョン (32x32 チャンク) を1タスクとして ForkJoinPool で並列に処理する。
+ * リージョン内は z の行ごとに進め、visible モードの隣接チャンク用に前後の行だけをデコードしておく。
+ * リージョンの境界の隣接チャンクは隣のリージョンファイルから読む。
+ *
+ * パレットはバニラのレジストリで作る。レジストリにないブロック（モッドのブロック）を見つけたら
+ * 取り込みを中止する。そのワールドのサーバーではパレットのフィンガープリントが一致せず、
+ * 起動時にストアが作り直されるため。--allow-unknown-blocks を付けると不明なブロックとして取り込む。
+ */
+public class ChunkImporter {
+    private static final Pattern REGION_NAME = Pattern.compile("r\\.(-?\\d+)\\.(-?\\d+)\\.mca");
+    private static final int MIN_DATA_VERSION = 2860; // 1.18 (セクションの形式が変わった)
+    private static final long PROGRESS_INTERVAL_NANOS = 10_000_000_000L;
+
+    private final ChunkStore store;
+    private final BlockPalette palette;
+    private final ChunkExtractor extractor;
+    private final boolean visibleOnly;
+    private final boolean allowUnknownBlocks;
+    private final RegistryEntryLookup<Block> blockLookup = Registries.BLOCK.getReadOnlyWrapper();
+    private final Map<String, LongAdder> unknownBlocks = new ConcurrentHashMap<>(); // ブロック名 → 出現したセクションの数
+    private volatile boolean aborted = false;
+
+    private final AtomicInteger regionsDone = new AtomicInteger();
+    private final AtomicLong imported = new AtomicLong();
+    private final AtomicLong empty = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong outdated = new AtomicLong();
+    private final AtomicLong lastProgress = new AtomicLong(System.nanoTime());
+    private int regionCount;
+    private long startedAt;
+
+    private record Region(String dimension, Path file, int regionX, int regionZ) {
+    }
+
+    // デコードしたチャンク。隣接チャンクとしては sections だけを使う
+    private record Column(int bottomSectionCoord, SectionSnapshot[] sections, int[] surfaceHeights) {
+    }
+
+    public ChunkImporter(ChunkStore store, BlockPalette palette, ChunkMapperConfig config, boolean allowUnknownBlocks) {
+        this.store = store;
+        this.palette = palette;
+        this.allowUnknownBlocks = allowUnknownBlocks;
+        this.visibleOnly = config.isVisibleExtraction();
+        this.extractor = new ChunkExtractor(palette, visibleOnly, config.faceMasks);
+    }
+
+    public static void main(String[] args) {
+        Path world = null;
+        Set<String> only = new HashSet<>();
+        int threads = Runtime.getRuntime().availableProcessors();
+        Path configPath = Path.of("config", "chunkmapper.properties");
+        boolean allowUnknownBlocks = false;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--dimension" -> only.add(args[++i]);
+                    case "--threads" -> threads = Math.max(1, Integer.parseInt(args[++i]));
+                    case "--config" -> configPath = Path.of(args[++i]);
+                    case "--allow-unknown-blocks" -> allowUnknownBlocks = true;
+                    default -> {
+                        if (args[i].startsWith("--") || world != null) {
+                            throw new IllegalArgumentException("Unknown argument: " + args[i]);
+                        }
+                        world = Path.of(args[i]);
+                    }
+                }
+            }
+            if (world == null) {
+                throw new IllegalArgumentException("World directory is required");
+            }
+        } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+            System.err.println(e instanceof IllegalArgumentException ? e.getMessage() : "Missing argument value");
+            System.err.println("Usage: ChunkImporter <world> [--dimension <name>]... [--threads <n>] [--config <path>]"
+                    + " [--allow-unknown-blocks]");
+            System.exit(2);
+            return;
+        }
+        if (!Files.isDirectory(world.resolve("region"))) {
+            System.err.println("Not a world save (no region directory): " + world);
+            System.exit(2);
+            return;
+        }
+
+        try {
+            System.exit(run(world, only, threads, ChunkMapperConfig.load(configPath), allowUnknownBlocks) ? 0 : 1);
+        } catch (IOException e) {
+            ChunkMapperMod.LOGGER.error("Import failed", e);
+            System.exit(1);
+        }
+    }
+
+    private static boolean run(Path world, Set<String> only, int threads, ChunkMapperConfig config,
+                               boolean allowUnknownBlocks) throws IOException {
+        // 稼働中のサーバーと同じストアに書き込まないよう、ワールドのロックを取る
+        try (FileChannel lockChannel = FileChannel.open(world.resolve("session.lock"),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+             FileLock lock = lockChannel.tryLock()) {
+            if (lock == null) {
+                ChunkMapperMod.LOGGER.error("World {} is in use, stop the server before importing", world);
+                return false;
+            }
+
+            List<Region> regions = new ArrayList<>();
+            for (Map.Entry<String, Path> dimension : findDimensions(world).entrySet()) {
+                if (only.isEmpty() || only.contains(dimension.getKey())) {
+                    listRegions(dimension.getKey(), dimension.getValue(), regions);
+                }
+            }
+            if (regions.isEmpty()) {
+                ChunkMapperMod.LOGGER.warn("No region files to import in {}", world);
+                return true;
+            }
+
+            SharedConstants.createGameVersion();
+            Bootstrap.initialize();
+            BlockPalette palette = BlockPalette.create();
+            try (ChunkStore store = new ChunkStore(world.resolve("chunkmapper"), palette.getFingerprint())) {
+                return new ChunkImporter(store, palette, config, allowUnknownBlocks).importRegions(regions, threads);
+            }
+        }
+    }
+
+    // 次元名 → region ディレクトリ。バニラの3次元と、データパックの次元 (dimensions/<名前空間>/<パス>/region)
+    private static Map<String, Path> findDimensions(Path world) throws IOException {
+        Map<String, Path> dimensions = new LinkedHashMap<>();
+        dimensions.put(ChunkDataCollector.getDimensionName("minecraft:overworld"), world.resolve("region"));
+        dimensions.put(ChunkDataCollector.getDimensionName("minecraft:the_nether"), world.resolve("DIM-1").resolve("region"));
+        dimensions.put(ChunkDataCollector.getDimensionName("minecraft:the_end"), world.resolve("DIM1").resolve("region"));
+
+        Path custom = world.resolve("dimensions");
+        if (Files.isDirectory(custom)) {
+            try (Stream<Path> dirs = Files.walk(custom)) {
+                for (Path dir : dirs.filter(p -> p.getFileName().toString().equals("region") && Files.isDirectory(p)).toList()) {
+                    Path relative = custom.relativize(dir.getParent());
+                    if (relative.getNameCount() < 2) {
+                        continue;
+                    }
+                    String id = relative.getName(0) + ":" + relative.subpath(1, relative.getNameCount()).toString().replace('\\', '/');
+                    dimensions.putIfAbsent(ChunkDataCollector.getDimensionName(id), dir);
+                }
+            }
+        }
+        dimensions.values().removeIf(dir -> !Files.isDirectory(dir));
+        return dimensions;
+    }
+
+    private static void listRegions(String dimension, Path dir, List<Region> out) throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            for (Path file : files.toList()) {
+                Matcher matcher = REGION_NAME.matcher(file.getFileName().toString());
+                if (matcher.matches()) {
+                    out.add(new Region(dimension, file, Integer.parseInt(matcher.group(1)), Integer.parseInt(matcher.group(2))));
+                }
+            }
+        }
+    }
+
+    // 不明なブロックで中止した場合は false
+    private boolean importRegions(List<Region> regions, int threads) {
+        regionCount = regions.size();
+        startedAt = System.nanoTime();
+        ChunkMapperMod.LOGGER.info("Importing {} regions with {} threads ({} extraction)", regionCount, threads,
+                visibleOnly ? "visible" : "all");
+
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            pool.invoke(new ImportTask(regions, 0, regions.size()));
+        } finally {
+            pool.shutdown();
+        }
+
+        double seconds = (System.nanoTime() - startedAt) / 1e9;
+        ChunkMapperMod.LOGGER.info("Imported {} chunks from {} regions in {}s ({} empty, {} failed)",
+                imported.get(), regionCount, String.format("%.1f", seconds), empty.get(), failed.get());
+        if (outdated.get() > 0) {
+            ChunkMapperMod.LOGGER.warn("Skipped {} chunks saved before 1.18, open the world in the current version first",
+                    outdated.get());
+        }
+        if (!unknownBlocks.isEmpty()) {
+            reportUnknownBlocks();
+        }
+        return !aborted;
+    }
+
+    private void reportUnknownBlocks() {
+        List<Map.Entry<String, LongAdder>> blocks = new ArrayList<>(unknownBlocks.entrySet());
+        blocks.sort(Comparator.comparingLong((Map.Entry<String, LongAdder> e) -> e.getValue().sum()).reversed());
+        StringBuilder names = new StringBuilder();
+        for (int i = 0; i < Math.min(10, blocks.size()); i++) {
+            Map.Entry<String, LongAdder> block = blocks.get(i);
+            names.append(i > 0 ? ", " : "").append(block.getKey()).append(" (").append(block.getValue().sum()).append(')');
+        }
+        if (blocks.size() > 10) {
+            names.append(", ...");
+        }
+        ChunkMapperMod.LOGGER.warn("{} block types are not in the vanilla block palette (sections using them): {}",
+                blocks.size(), names);
+        if (aborted) {
+            ChunkMapperMod.LOGGER.error("Import stopped: the world uses blocks this importer cannot resolve. A server with"
+                    + " those mods has a different palette and rebuilds the store on start; run the import with"
+                    + " --allow-unknown-blocks to store them as unknown blocks anyway");
+        } else {
+            ChunkMapperMod.LOGGER.warn("These blocks were stored as unknown blocks");
+        }
+    }
+
+    // リージョンの一覧を半分ずつに分け、1リージョンになったら処理する
+    private final class ImportTask extends RecursiveAction {
+        private final List<Region> regions;
+        private final int from;
+        private final int to;
+
+        ImportTask(List<Region> regions, int from, int to) {
+            this.regions = regions;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= 1) {
+                if (to > from) {
+                    importRegion(regions.get(from));
+                }
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new ImportTask(regions, from, mid), new ImportTask(regions, mid, to));
+        }
+    }
+
+    private void importRegion(Region region) {
+        if (aborted) {
+            return;
+        }
+        try (RegionImport work = new RegionImport(region)) {
+            work.run();
+        } catch (IOException | RuntimeException e) {
+            ChunkMapperMod.LOGGER.error("Failed to import region {}", region.file(), e);
+        } finally {
+            store.closeRegion(region.dimension(), region.regionX(), region.regionZ());
+        }
+        reportProgress(regionsDone.incrementAndGet());
+    }
+
+    private void reportProgress(int done) {
+        long now = System.nanoTime();
+        long last = lastProgress.get();
+        if (now - last < PROGRESS_INTERVAL_NANOS || !lastProgress.compareAndSet(last, now)) {
+            return;
+        }
+        double seconds = (now - startedAt) / 1e9;
+        ChunkMapperMod.LOGGER.info("{}/{} regions, {} chunks ({} chunks/s)", done, regionCount, imported.get(),
+                (long) (imported.get() / seconds));
+    }
+
+    private void importChunk(ChunkSnapshot snapshot) throws IOException {
+        if (aborted) {
+            return;
+        }
+        PackedBlocks.Builder blocks = extractor.extract(snapshot);
+        if (blocks.isEmpty()) {
+            store.delete(snapshot.dimension, snapshot.pos.x, snapshot.pos.z);
+            empty.incrementAndGet();
+            return;
+        }
+
+        ChunkDataCollector.CompactChunkData data = new ChunkDataCollector.CompactChunkData();
+        data.chunkX = snapshot.pos.x;
+        data.chunkZ = snapshot.pos.z;
+        data.dimension = snapshot.dimension;
+        data.faces = blocks.buildFaces();
+        data.blocks = blocks.build();
+        store.write(data);
+        imported.incrementAndGet();
+    }
+
+    // 1リージョン分の処理。1つのスレッドだけが使う
+    private final class RegionImport implements Closeable {
+        private final Region region;
+        private final int baseX;
+        private final int baseZ;
+        private final Map<Long, RegionFileReader> readers = new HashMap<>(); // ファイルがなければ null
+        private final Map<NbtCompound, Integer> stateTypes = new HashMap<>(); // パレットの要素 → タイプID
+
+        RegionImport(Region region) {
+            this.region = region;
+            this.baseX = region.regionX() << 5;
+            this.baseZ = region.regionZ() << 5;
+        }
+
+        void run() throws IOException {
+            // 行の配列の添字は x - baseX + 1（両端は隣のリージョンの列）
+            Column[] previous = visibleOnly ? loadRow(baseZ - 1) : null;
+            Column[] current = loadRow(baseZ);
+            for (int z = baseZ; z < baseZ + 32; z++) {
+                Column[] next = z + 1 < baseZ + 32 || visibleOnly ? loadRow(z + 1) : null;
+                for (int i = 1; i <= 32; i++) {
+                    Column column = current[i];
+                    if (column == null) {
+                        continue;
+                    }
+                    SectionSnapshot[][] neighbours = null;
+                    if (visibleOnly) {
+                        neighbours = new SectionSnapshot[][]{
+                                sections(current[i - 1]), sections(current[i + 1]), sections(previous[i]), sections(next[i])};
+                    }
+                    importChunk(new ChunkSnapshot(region.dimension(), new ChunkPos(baseX + i - 1, z),
+                            column.bottomSectionCoord(), column.sections(), neighbours, column.surfaceHeights()));
+                }
+                previous = current;
+                current = next;
+            }
+        }
+
+        // リージョン外の行と列は visible モードの隣接チャンクとしてだけ読む
+        private Column[] loadRow(int chunkZ) {
+            Column[] row = new Column[34];
+            boolean inside = chunkZ >= baseZ && chunkZ < baseZ + 32;
+            int from = inside && visibleOnly ? -1 : 0;
+            int to = inside && visibleOnly ? 32 : 31;
+            for (int i = from; i <= to; i++) {
+                int chunkX = baseX + i;
+                try {
+                    row[i + 1] = load(chunkX, chunkZ);
+                } catch (IOException | RuntimeException e) {
+                    if (inside && i >= 0 && i < 32) {
+                        ChunkMapperMod.LOGGER.warn("Failed to read chunk {},{} in {}", chunkX, chunkZ, region.file(), e);
+                        failed.incrementAndGet();
+                    }
+                }
+            }
+            return row;
+        }
+
+        private Column load(int chunkX, int chunkZ) throws IOException {
+            RegionFileReader reader = reader(chunkX >> 5, chunkZ >> 5);
+            if (reader == null || !reader.contains(chunkX & 31, chunkZ & 31)) {
+                return null;
+            }
+            NbtCompound nbt;
+            try (InputStream in = reader.open(chunkX & 31, chunkZ & 31)) {
+                nbt = NbtIo.read(new DataInputStream(new BufferedInputStream(in)));
+            }
+            return decode(nbt);
+        }
+
+        private RegionFileReader reader(int regionX, int regionZ) throws IOException {
+            long key = ChunkPos.toLong(regionX, regionZ);
+            if (readers.containsKey(key)) {
+                return readers.get(key);
+            }
+            Path file = region.file().resolveSibling("r." + regionX + "." + regionZ + ".mca");
+            RegionFileReader reader = Files.isRegularFile(file) ? new RegionFileReader(file) : null;
+            readers.put(key, reader);
+            return reader;
+        }
+
+        // 生成が終わっていないチャンクは null
+        private Column decode(NbtCompound nbt) throws IOException {
+            if (nbt.getInt("DataVersion") < MIN_DATA_VERSION) {
+                outdated.incrementAndGet();
+                return null;
+            }
+            String status = nbt.getString("Status");
+            if (!status.equals("minecraft:full") && !status.equals("full")) {
+                return null;
+            }
+
+            // 光源データだけのセクションはワールドの範囲外にもあるので、ブロックを持つものだけを使う
+            int bottomSectionCoord = nbt.getInt("yPos");
+            NbtList list = nbt.getList("sections", NbtElement.COMPOUND_TYPE);
+            int topSectionCoord = bottomSectionCoord - 1;
+            for (int i = 0; i < list.size(); i++) {
+                NbtCompound section = list.getCompound(i);
+                if (section.contains("block_states", NbtElement.COMPOUND_TYPE)) {
+                    topSectionCoord = Math.max(topSectionCoord, section.getByte("Y"));
+                }
+            }
+            SectionSnapshot[] sections = new SectionSnapshot[topSectionCoord - bottomSectionCoord + 1];
+            for (int i = 0; i < list.size(); i++) {
+                NbtCompound section = list.getCompound(i);
+                int index = section.getByte("Y") - bottomSectionCoord;
+                if (index >= 0 && index < sections.length && section.contains("block_states", NbtElement.COMPOUND_TYPE)) {
+                    sections[index] = decodeSection(section.getCompound("block_states"));
+                }
+            }
+
+            int[] surfaceHeights = decodeHeightmap(nbt.getCompound("Heightmaps").getLongArray("WORLD_SURFACE"),
+                    bottomSectionCoord << 4);
+            if (surfaceHeights == null) {
+                surfaceHeights = scanSurface(sections, bottomSectionCoord);
+            }
+            return new Column(bottomSectionCoord, sections, surfaceHeights);
+        }
+
+        // 保存形式のパレットは常にセクション内のもの（グローバルパレットは使われない）。空気だけなら null
+        private SectionSnapshot decodeSection(NbtCompound blockStates) throws IOException {
+            NbtList entries = blockStates.getList("palette", NbtElement.COMPOUND_TYPE);
+            if (entries.isEmpty()) {
+                return null;
+            }
+            short[] types = new short[entries.size()];
+            for (int i = 0; i < types.length; i++) {
+                types[i] = (short) typeOf(entries.getCompound(i));
+            }
+            if (types.length == 1) {
+                return types[0] == BlockPalette.AIR ? null : SectionSnapshot.single(types[0]);
+            }
+
+            long[] data = blockStates.getLongArray("data");
+            int bits = Math.max(4, 32 - Integer.numberOfLeadingZeros(types.length - 1));
+            while (bits < 32 && packedLength(4096, bits) != data.length) {
+                bits++;
+            }
+            if (packedLength(4096, bits) != data.length) {
+                throw new IOException("Unexpected block data length " + data.length + " for palette size " + types.length);
+            }
+            return SectionSnapshot.packed(data, bits, types);
+        }
+
+        private int typeOf(NbtCompound entry) {
+            Integer type = stateTypes.get(entry);
+            if (type == null) {
+                // NbtHelper.toBlockState は登録されていないブロックを空気にするので、先に名前を確かめる
+                String name = entry.getString("Name");
+                Identifier id = Identifier.tryParse(name);
+                if (id == null || !Registries.BLOCK.containsId(id)) {
+                    type = BlockPalette.UNKNOWN;
+                    if (!allowUnknownBlocks) {
+                        aborted = true;
+                    }
+                } else {
+                    type = palette.getType(NbtHelper.toBlockState(blockLookup, entry));
+                }
+                stateTypes.put(entry, type);
+            }
+            if (type == BlockPalette.UNKNOWN) {
+                unknownBlocks.computeIfAbsent(entry.getString("Name"), n -> new LongAdder()).increment();
+            }
+            return type;
+        }
+
+        @Override
+        public void close() throws IOException {
+            for (RegionFileReader reader : readers.values()) {
+                if (reader != null) {
+                    reader.close();
+                }
+            }
+        }
+    }
+
+    private static SectionSnapshot[] sections(Column column) {
+        return column == null ? null : column.sections();
+    }
+
+    // PackedIntegerArray と同じ詰め方（要素は long をまたがない）
+    private static int packedLength(int size, int bits) {
+        int elementsPerLong = 64 / bits;
+        return (size + elementsPerLong - 1) / elementsPerLong;
+    }
+
+    // ハイトマップの値は最下層からの高さ (一番上のブロック + 1)、添字は x + z * 16。ビット数は配列の長さから決める
+    private static int[] decodeHeightmap(long[] data, int bottomY) {
+        if (data.length == 0) {
+            return null;
+        }
+        int elementsPerLong = (256 + data.length - 1) / data.length;
+        int bits = 64 / elementsPerLong;
+        long mask = (1L << bits) - 1;
+        int[] heights = new int[256];
+        for (int i = 0; i < 256; i++) {
+            int slot = i / elementsPerLong;
+            long value = data[slot] >>> (i - slot * elementsPerLong) * bits & mask;
+            heights[(i & 15) << 4 | i >> 4] = bottomY + (int) value;
+        }
+        return heights;
+    }
+
+    // ハイトマップが保存されていない場合
+    private static int[] scanSurface(SectionSnapshot[] sections, int bottomSectionCoord) {
+        int bottomY = bottomSectionCoord << 4;
+        int[] heights = new int[256];
+        for (int x = 0; x < 16; x++) {
+            for (int z = 0; z < 16; z++) {
+                int height = bottomY;
+                for (int y = bottomY + sections.length * 16 - 1; y >= bottomY; y--) {
+                    SectionSnapshot section = sections[(y - bottomY) >> 4];
+                    if (section != null && section.getType(x, y & 15, z) != BlockPalette.AIR) {
+                        height = y + 1;
+                        break;
+                    }
+                }
+                heights[x << 4 | z] = height;
+            }
+        }
+        return heights;
+    }
+}
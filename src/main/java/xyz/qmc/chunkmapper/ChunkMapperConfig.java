@@ -0,0 +1,129 @@
+package xyz.qmc.chunkmapper;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Properties;
+
+// config/chunkmapper.properties から読み込む設定。ファイルがなければ既定値で作成する
+public class ChunkMapperConfig {
+    public int port = 8080;
+    public long memoryBudgetMb = 256; // チャンクデータに使うヒープの目安
+    public int coldChunkSeconds = 120; // この時間読まれず更新もされないチャンクはメモリ上で圧縮する（0 で無効）
+
+    // 抽出
+    public String extractionMode = "all"; // all: 地表付近のすべてのブロック / visible: 見える面があるブロックだけ
+    public boolean faceMasks = false;     // visible の場合、ブロックごとに見える面を記録する
+
+    // 収集
+    public double tickBudgetMs = 2.0; // 1 tick で収集に使う時間の上限（MSPT が高いときは自動で縮める）
+    public int collectRadius = 5;     // MSPT が高いときも収集を続け、追い出しからも守るプレイヤー周囲の範囲（チャンク）
+
+    // HTTP サーバー
+    public String httpExecutor = "auto"; // auto / virtual / pool
+    public int httpThreads = 8;          // pool の場合のスレッド数
+    public int httpQueueSize = 256;      // pool の場合の待ち行列の長さ
+    public int maxLargeResponses = 4;    // 同時に送信する大きな応答の上限
+    public int requestTimeoutSeconds = 10;
+    public int keepAliveSeconds = 30;
+    public int maxIdleConnections = 64;
+
+    public static ChunkMapperConfig load(Path path) {
+        ChunkMapperConfig config = new ChunkMapperConfig();
+        Properties props = new Properties();
+
+        if (Files.exists(path)) {
+            try (Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+                props.load(reader);
+            } catch (IOException e) {
+                ChunkMapperMod.LOGGER.error("Failed to read config {}, using defaults", path, e);
+            }
+        }
+
+        config.port = getInt(props, "port", config.port);
+        config.memoryBudgetMb = getLong(props, "memoryBudgetMb", config.memoryBudgetMb);
+        config.coldChunkSeconds = getInt(props, "coldChunkSeconds", config.coldChunkSeconds);
+        config.extractionMode = props.getProperty("extractionMode", config.extractionMode).trim();
+        config.faceMasks = Boolean.parseBoolean(props.getProperty("faceMasks", Boolean.toString(config.faceMasks)).trim());
+        config.tickBudgetMs = getDouble(props, "tickBudgetMs", config.tickBudgetMs);
+        config.collectRadius = getInt(props, "collectRadius", config.collectRadius);
+        config.httpExecutor = props.getProperty("httpExecutor", config.httpExecutor).trim();
+        config.httpThreads = getInt(props, "httpThreads", config.httpThreads);
+        config.httpQueueSize = getInt(props, "httpQueueSize", config.httpQueueSize);
+        config.maxLargeResponses = getInt(props, "maxLargeResponses", config.maxLargeResponses);
+        config.requestTimeoutSeconds = getInt(props, "requestTimeoutSeconds", config.requestTimeoutSeconds);
+        config.keepAliveSeconds = getInt(props, "keepAliveSeconds", config.keepAliveSeconds);
+        config.maxIdleConnections = getInt(props, "maxIdleConnections", config.maxIdleConnections);
+
+        config.save(path);
+        return config;
+    }
+
+    private void save(Path path) {
+        Properties props = new Properties();
+        props.setProperty("port", Integer.toString(port));
+        props.setProperty("memoryBudgetMb", Long.toString(memoryBudgetMb));
+        props.setProperty("coldChunkSeconds", Integer.toString(coldChunkSeconds));
+        props.setProperty("extractionMode", extractionMode);
+        props.setProperty("faceMasks", Boolean.toString(faceMasks));
+        props.setProperty("tickBudgetMs", Double.toString(tickBudgetMs));
+        props.setProperty("collectRadius", Integer.toString(collectRadius));
+        props.setProperty("httpExecutor", httpExecutor);
+        props.setProperty("httpThreads", Integer.toString(httpThreads));
+        props.setProperty("httpQueueSize", Integer.toString(httpQueueSize));
+        props.setProperty("maxLargeResponses", Integer.toString(maxLargeResponses));
+        props.setProperty("requestTimeoutSeconds", Integer.toString(requestTimeoutSeconds));
+        props.setProperty("keepAliveSeconds", Integer.toString(keepAliveSeconds));
+        props.setProperty("maxIdleConnections", Integer.toString(maxIdleConnections));
+
+        try {
+            Files.createDirectories(path.getParent());
+            try (Writer writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+                props.store(writer, "Chunk Mapper settings");
+            }
+        } catch (IOException e) {
+            ChunkMapperMod.LOGGER.warn("Failed to write config {}", path, e);
+        }
+    }
+
+    private static int getInt(Properties props, String key, int defaultValue) {
+        return (int) getLong(props, key, defaultValue);
+    }
+
+    private static long getLong(Properties props, String key, long defaultValue) {
+        String value = props.getProperty(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            ChunkMapperMod.LOGGER.warn("Invalid value for {}: {}", key, value);
+            return defaultValue;
+        }
+    }
+
+    private static double getDouble(Properties props, String key, double defaultValue) {
+        String value = props.getProperty(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Double.parseDouble(value.trim());
+        } catch (NumberFormatException e) {
+            ChunkMapperMod.LOGGER.warn("Invalid value for {}: {}", key, value);
+            return defaultValue;
+        }
+    }
+
+    public boolean isVisibleExtraction() {
+        return extractionMode.equalsIgnoreCase("visible");
+    }
+
+    public long getMemoryBudgetBytes() {
+        return memoryBudgetMb * 1024L * 1024L;
+    }
+}
@@ -1,8 +1,10 @@
 package xyz.qmc.chunkmapper;
 
 import net.fabricmc.api.ModInitializer;
+import net.fabricmc.fabric.api.event.lifecycle.v1.ServerChunkEvents;
 import net.fabricmc.fabric.api.event.lifecycle.v1.ServerLifecycleEvents;
 import net.fabricmc.fabric.api.event.lifecycle.v1.ServerTickEvents;
+import net.fabricmc.loader.api.FabricLoader;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -12,19 +14,22 @@ public class ChunkMapperMod implements ModInitializer {
 
     private static WebServer webServer;
     private static ChunkDataCollector dataCollector;
+    private static ChunkMapperConfig config;
 
     @Override
     public void onInitialize() {
         LOGGER.info("Chunk Mapper Mod initializing...");
 
-        dataCollector = new ChunkDataCollector();
+        config = ChunkMapperConfig.load(FabricLoader.getInstance().getConfigDir().resolve("chunkmapper.properties"));
+        dataCollector = new ChunkDataCollector(config);
 
         // サーバー起動時にWebサーバーを開始
         ServerLifecycleEvents.SERVER_STARTED.register(server -> {
+            dataCollector.start(server);
             try {
-                webServer = new WebServer(8080, dataCollector);
+                webServer = new WebServer(config, dataCollector);
                 webServer.start();
-                LOGGER.info("Web server started on http://localhost:8080");
+                LOGGER.info("Web server started on http://localhost:{}", config.port);
             } catch (Exception e) {
                 LOGGER.error("Failed to start web server", e);
             }
@@ -36,8 +41,13 @@ public class ChunkMapperMod implements ModInitializer {
                 webServer.stop();
                 LOGGER.info("Web server stopped");
             }
+            dataCollector.stop();
         });
 
+        // ロードされたチャンクを収集待ちにする（サーバーの起動中にロードされるスポーンチャンクも含む）
+        ServerChunkEvents.CHUNK_LOAD.register(dataCollector::onChunkLoaded);
+        ServerChunkEvents.CHUNK_UNLOAD.register(dataCollector::onChunkUnloaded);
+
         // 定期的にチャンクデータを収集
         ServerTickEvents.END_SERVER_TICK.register(server -> {
             dataCollector.collectChunkData(server);
@@ -45,4 +55,8 @@ public class ChunkMapperMod implements ModInitializer {
 
         LOGGER.info("Chunk Mapper Mod initialized!");
     }
+
+    public static ChunkDataCollector getDataCollector() {
+        return dataCollector;
+    }
 }
\ No newline at end of file
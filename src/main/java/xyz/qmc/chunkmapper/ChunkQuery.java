@@ -0,0 +1,122 @@
+package xyz.qmc.chunkmapper;
+
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/*
+ * /api/chunks と /api/stream の絞り込み条件
+ *
+ *   dim                     次元（省略時はすべての次元）
+ *   minX, minZ, maxX, maxZ  チャンク座標の範囲（両端を含む。省略した辺は無制限）
+ *   minY, maxY              返すブロックの高さの範囲（両端を含む）
+ *
+ * 範囲外のチャンクは送らず、高さの範囲外のブロックはサーバー側で取り除く。
+ */
+public record ChunkQuery(String dimension, int minChunkX, int minChunkZ, int maxChunkX, int maxChunkZ,
+                         int minY, int maxY) {
+    public static final ChunkQuery ALL = new ChunkQuery(null,
+            Integer.MIN_VALUE, Integer.MIN_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE,
+            Integer.MIN_VALUE, Integer.MAX_VALUE);
+
+    // 不正な値の場合は IllegalArgumentException
+    public static ChunkQuery parse(Map<String, String> params) {
+        String dimension = params.get("dim");
+        if (dimension != null && dimension.isEmpty()) {
+            dimension = null;
+        }
+        ChunkQuery query = new ChunkQuery(dimension,
+                parseInt(params, "minX", Integer.MIN_VALUE), parseInt(params, "minZ", Integer.MIN_VALUE),
+                parseInt(params, "maxX", Integer.MAX_VALUE), parseInt(params, "maxZ", Integer.MAX_VALUE),
+                parseInt(params, "minY", Integer.MIN_VALUE), parseInt(params, "maxY", Integer.MAX_VALUE));
+        if (query.minChunkX > query.maxChunkX || query.minChunkZ > query.maxChunkZ || query.minY > query.maxY) {
+            throw new IllegalArgumentException("Empty query range");
+        }
+        return query.equals(ALL) ? ALL : query;
+    }
+
+    private static int parseInt(Map<String, String> params, String name, int defaultValue) {
+        String value = params.get(name);
+        if (value == null || value.isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid " + name + " parameter");
+        }
+    }
+
+    // 同じ条件なら同じ文字列、違う条件なら違う文字列になる（ETag 用）。省略時の値の項目は書かない
+    public String toQueryString() {
+        StringBuilder sb = new StringBuilder();
+        if (dimension != null) {
+            sb.append("&dim=").append(URLEncoder.encode(dimension, StandardCharsets.UTF_8));
+        }
+        append(sb, "minX", minChunkX, Integer.MIN_VALUE);
+        append(sb, "minZ", minChunkZ, Integer.MIN_VALUE);
+        append(sb, "maxX", maxChunkX, Integer.MAX_VALUE);
+        append(sb, "maxZ", maxChunkZ, Integer.MAX_VALUE);
+        append(sb, "minY", minY, Integer.MIN_VALUE);
+        append(sb, "maxY", maxY, Integer.MAX_VALUE);
+        return sb.isEmpty() ? "" : sb.substring(1);
+    }
+
+    private static void append(StringBuilder sb, String name, int value, int defaultValue) {
+        if (value != defaultValue) {
+            sb.append('&').append(name).append('=').append(value);
+        }
+    }
+
+    public boolean hasBounds() {
+        return minChunkX != Integer.MIN_VALUE || minChunkZ != Integer.MIN_VALUE
+                || maxChunkX != Integer.MAX_VALUE || maxChunkZ != Integer.MAX_VALUE;
+    }
+
+    public boolean clipsY() {
+        return minY > ChunkBinaryEncoder.MIN_Y || maxY < ChunkBinaryEncoder.MIN_Y + 0xFFF;
+    }
+
+    public boolean matches(String dimension, int chunkX, int chunkZ) {
+        return (this.dimension == null || this.dimension.equals(dimension))
+                && chunkX >= minChunkX && chunkX <= maxChunkX
+                && chunkZ >= minChunkZ && chunkZ <= maxChunkZ;
+    }
+
+    // 高さの範囲外のブロックを除いたコピーを返す。除くものがなければそのまま返す
+    public ChunkDataCollector.CompactChunkData clip(ChunkDataCollector.CompactChunkData data) {
+        if (!clipsY()) {
+            return data;
+        }
+        int[] blocks = data.blocks;
+        int count = 0;
+        for (int packed : blocks) {
+            int y = PackedBlocks.y(packed);
+            if (y >= minY && y <= maxY) {
+                count++;
+            }
+        }
+        if (count == blocks.length) {
+            return data;
+        }
+
+        ChunkDataCollector.CompactChunkData clipped = new ChunkDataCollector.CompactChunkData();
+        clipped.chunkX = data.chunkX;
+        clipped.chunkZ = data.chunkZ;
+        clipped.dimension = data.dimension;
+        clipped.version = data.version;
+        clipped.blocks = count == 0 ? PackedBlocks.EMPTY : new int[count];
+        clipped.faces = data.faces != null ? new byte[count] : null;
+        int j = 0;
+        for (int i = 0; i < blocks.length && j < count; i++) {
+            int y = PackedBlocks.y(blocks[i]);
+            if (y >= minY && y <= maxY) {
+                if (clipped.faces != null) {
+                    clipped.faces[j] = data.faces[i];
+                }
+                clipped.blocks[j++] = blocks[i];
+            }
+        }
+        return clipped;
+    }
+}
@@ -0,0 +1,154 @@
+package xyz.qmc.chunkmapper;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.EnumMap;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.GZIPOutputStream;
+
+// 公開済みスナップショットごとに /api/chunks の応答をシリアライズ済み・gzip 済みで保持する
+public class ChunkResponseCache {
+    private static final int MAX_ENTRIES = 64; // 1スナップショットあたりのキャッシュ数の上限
+
+    public enum Format {
+        JSON_ARRAY("json", "application/json"),
+        JSON_DELTA("delta", "application/json"),
+        BINARY("bin", ChunkBinaryEncoder.CONTENT_TYPE);
+
+        private final String tag;
+        private final String contentType;
+
+        Format(String tag, String contentType) {
+            this.tag = tag;
+            this.contentType = contentType;
+        }
+    }
+
+    public record CachedResponse(String etag, String contentType, byte[] identity, byte[] gzip) {
+    }
+
+    private record Key(long seq, Format format, long since, ChunkQuery query) {
+    }
+
+    private final ChunkDataCollector collector;
+    // サーバー再起動で同じシーケンス番号に戻っても ETag が一致しないようにする
+    private final String instanceId = Long.toHexString(System.currentTimeMillis());
+    private final Gson gson = new GsonBuilder().create();
+    private final Map<Key, CompletableFuture<CachedResponse>> cache = new ConcurrentHashMap<>();
+    private final Metrics.Counter hits;
+    private final Metrics.Counter misses;
+    private final Map<Format, Metrics.Histogram> serializeTime = new EnumMap<>(Format.class);
+
+    public ChunkResponseCache(ChunkDataCollector collector) {
+        this.collector = collector;
+
+        Metrics metrics = collector.getMetrics();
+        String help = "Lookups in the /api/chunks response cache and the tile cache";
+        hits = metrics.counter("chunkmapper_cache_requests_total", help, "cache", "chunks", "result", "hit");
+        misses = metrics.counter("chunkmapper_cache_requests_total", help, "cache", "chunks", "result", "miss");
+        for (Format format : Format.values()) {
+            serializeTime.put(format, metrics.histogram("chunkmapper_serialize_seconds",
+                    "Time to build, serialize and gzip a /api/chunks response", "format", format.tag));
+        }
+    }
+
+    // 同じスナップショットを持っているクライアントには、この ETag で 304 を返せる
+    public String currentEtag(Format format, ChunkQuery query) {
+        return etag(collector.getPublishedSequence(), format, query);
+    }
+
+    // 絞り込み条件が違えば内容も違うので、条件も ETag に含める。
+    // hashCode では別の条件が衝突しうるので、正規化したクエリ文字列のダイジェストを使う
+    private String etag(long seq, Format format, ChunkQuery query) {
+        String filter = query == ChunkQuery.ALL ? "" : "-" + digest(query.toQueryString());
+        return "\"" + instanceId + "-" + seq + "-" + format.tag + filter + "\"";
+    }
+
+    private static String digest(String value) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(value.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest, 0, 16);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // since < 0 は全件。同じキーへの同時リクエストは1回の構築結果を共有する
+    public CachedResponse get(Format format, long since, ChunkQuery query) {
+        long seq = collector.getPublishedSequence();
+        Key key = new Key(seq, format, Math.max(since, -1), query);
+
+        CompletableFuture<CachedResponse> future = cache.get(key);
+        if (future == null) {
+            // 古いスナップショットの応答を捨てる
+            cache.keySet().removeIf(k -> k.seq() != seq);
+            if (cache.size() >= MAX_ENTRIES) {
+                misses.inc();
+                return build(key);
+            }
+
+            CompletableFuture<CachedResponse> created = new CompletableFuture<>();
+            future = cache.putIfAbsent(key, created);
+            if (future == null) {
+                misses.inc();
+                try {
+                    created.complete(build(key));
+                } catch (RuntimeException e) {
+                    cache.remove(key, created);
+                    created.completeExceptionally(e);
+                    throw e;
+                }
+                return created.join();
+            }
+        }
+        hits.inc();
+        return future.join();
+    }
+
+    private CachedResponse build(Key key) {
+        long start = System.nanoTime();
+        ChunkDataCollector.ChunkDelta delta = collector.getDelta(Math.max(key.since(), 0), key.seq(), key.query());
+
+        byte[] body;
+        switch (key.format()) {
+            case BINARY -> body = ChunkBinaryEncoder.encode(delta);
+            case JSON_DELTA -> body = toJson(delta);
+            default -> body = toJson(delta.chunks);
+        }
+        CachedResponse response = new CachedResponse(etag(key.seq(), key.format(), key.query()), key.format().contentType, body, gzip(body));
+        serializeTime.get(key.format()).observeNanos(System.nanoTime() - start);
+        return response;
+    }
+
+    // String を経由せずに UTF-8 のバイト列へ直接書き出す
+    private byte[] toJson(Object value) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(8192);
+        try (Writer writer = new OutputStreamWriter(bytes, StandardCharsets.UTF_8)) {
+            gson.toJson(value, writer);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    static byte[] gzip(byte[] body) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(body.length / 4 + 64);
+        try (GZIPOutputStream out = new GZIPOutputStream(bytes, 8192)) {
+            out.write(body);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+}
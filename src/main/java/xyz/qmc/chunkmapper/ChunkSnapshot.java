@@ -0,0 +1,152 @@
+package xyz.qmc.chunkmapper;
+
+import net.minecraft.block.BlockState;
+import net.minecraft.util.collection.PaletteStorage;
+import net.minecraft.util.math.ChunkPos;
+import net.minecraft.world.Heightmap;
+import net.minecraft.world.World;
+import net.minecraft.world.chunk.ChunkSection;
+import net.minecraft.world.chunk.IdListPalette;
+import net.minecraft.world.chunk.Palette;
+import net.minecraft.world.chunk.PalettedContainer;
+import net.minecraft.world.chunk.WorldChunk;
+
+// tickスレッドで取得するチャンクの軽量コピー。ワーカースレッドはこれだけを読む
+public final class ChunkSnapshot {
+    // 隣接チャンクの順序: 西 (-x), 東 (+x), 北 (-z), 南 (+z)
+    private static final int WEST = 0;
+    private static final int EAST = 1;
+    private static final int NORTH = 2;
+    private static final int SOUTH = 3;
+    private static final int[] NEIGHBOUR_DX = {-1, 1, 0, 0};
+    private static final int[] NEIGHBOUR_DZ = {0, 0, -1, 1};
+
+    public final String dimension;
+    public final ChunkPos pos;
+    public final long capturedAt = System.nanoTime();
+    private final int bottomSectionCoord;
+    private final SectionSnapshot[] sections;
+    private final SectionSnapshot[][] neighbours; // 取得しない場合は null、ロードされていない隣接チャンクは null
+    private final int[] surfaceHeights;
+
+    // 通常は capture() を使う。ベンチマークではワールドなしで合成したセクションを渡す
+    ChunkSnapshot(String dimension, ChunkPos pos, int bottomSectionCoord, SectionSnapshot[] sections,
+                  SectionSnapshot[][] neighbours, int[] surfaceHeights) {
+        this.dimension = dimension;
+        this.pos = pos;
+        this.bottomSectionCoord = bottomSectionCoord;
+        this.sections = sections;
+        this.neighbours = neighbours;
+        this.surfaceHeights = surfaceHeights;
+    }
+
+    // withNeighbours: 境界のブロックの面が見えるか判定できるよう、ロード済みの隣接チャンクもコピーする
+    public static ChunkSnapshot capture(WorldChunk chunk, String dimension, BlockPalette palette, boolean withNeighbours) {
+        SectionSnapshot[] sections = captureSections(chunk, palette);
+
+        SectionSnapshot[][] neighbours = null;
+        if (withNeighbours) {
+            neighbours = new SectionSnapshot[4][];
+            World world = chunk.getWorld();
+            ChunkPos pos = chunk.getPos();
+            for (int i = 0; i < 4; i++) {
+                int neighbourX = pos.x + NEIGHBOUR_DX[i];
+                int neighbourZ = pos.z + NEIGHBOUR_DZ[i];
+                if (world.isChunkLoaded(neighbourX, neighbourZ)) {
+                    neighbours[i] = captureSections(world.getChunk(neighbourX, neighbourZ), palette);
+                }
+            }
+        }
+
+        Heightmap heightmap = chunk.getHeightmap(Heightmap.Type.WORLD_SURFACE);
+        int[] surfaceHeights = new int[256];
+        for (int x = 0; x < 16; x++) {
+            for (int z = 0; z < 16; z++) {
+                surfaceHeights[x << 4 | z] = heightmap.get(x, z);
+            }
+        }
+
+        return new ChunkSnapshot(dimension, chunk.getPos(), chunk.getBottomSectionCoord(), sections, neighbours,
+                surfaceHeights);
+    }
+
+    private static SectionSnapshot[] captureSections(WorldChunk chunk, BlockPalette palette) {
+        ChunkSection[] chunkSections = chunk.getSectionArray();
+        SectionSnapshot[] sections = new SectionSnapshot[chunkSections.length];
+        for (int i = 0; i < chunkSections.length; i++) {
+            // 空気だけのセクションはコピーしない
+            if (chunkSections[i] != null && !chunkSections[i].isEmpty()) {
+                sections[i] = captureSection(chunkSections[i].getBlockStateContainer(), palette);
+            }
+        }
+        return sections;
+    }
+
+    // パレットインデックスの配列だけを複製し、パレットはここでタイプIDに変換しておく
+    private static SectionSnapshot captureSection(PalettedContainer<BlockState> container, BlockPalette palette) {
+        PalettedContainer.Data<BlockState> data = container.data;
+        PaletteStorage storage = data.storage();
+        Palette<BlockState> states = data.palette();
+
+        short[] types;
+        if (states instanceof IdListPalette) {
+            // グローバルパレットではパレットインデックス = ブロックステートの raw ID
+            types = palette.getStateTypes();
+        } else {
+            types = new short[states.getSize()];
+            for (int i = 0; i < types.length; i++) {
+                types[i] = (short) palette.getType(states.get(i));
+            }
+        }
+
+        if (storage.getElementBits() == 0) {
+            return SectionSnapshot.single(types.length > 0 ? types[0] : BlockPalette.AIR);
+        }
+        return SectionSnapshot.packed(storage.getData().clone(), storage.getElementBits(), types);
+    }
+
+    public int getSurfaceHeight(int x, int z) {
+        return surfaceHeights[x << 4 | z];
+    }
+
+    // セクション範囲外または空気だけのセクションは null
+    public SectionSnapshot getSection(int sectionY) {
+        return getSection(sections, sectionY);
+    }
+
+    private SectionSnapshot getSection(SectionSnapshot[] source, int sectionY) {
+        int index = sectionY - bottomSectionCoord;
+        if (index < 0 || index >= source.length) {
+            return null;
+        }
+        return source[index];
+    }
+
+    // 隣接チャンクも取得している場合、x, z は -1 から 16 まで指定できる。
+    // ワールド範囲外やロードされていない隣接チャンクは空気として扱う
+    public int getType(int x, int y, int z) {
+        SectionSnapshot[] source = sections;
+        if (x < 0 || x > 15 || z < 0 || z > 15) {
+            int side = x < 0 ? WEST : x > 15 ? EAST : z < 0 ? NORTH : SOUTH;
+            source = neighbours != null ? neighbours[side] : null;
+            if (source == null) {
+                return BlockPalette.AIR;
+            }
+        }
+        SectionSnapshot section = getSection(source, y >> 4);
+        return section == null ? BlockPalette.AIR : section.getType(x & 15, y & 15, z & 15);
+    }
+
+    // 隣接チャンクをすべて取得できたか。false なら境界の面は見えるものとして扱われている
+    public boolean hasAllNeighbours() {
+        if (neighbours == null) {
+            return false;
+        }
+        for (SectionSnapshot[] neighbour : neighbours) {
+            if (neighbour == null) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
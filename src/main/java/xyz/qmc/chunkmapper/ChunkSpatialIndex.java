@@ -0,0 +1,78 @@
+package xyz.qmc.chunkmapper;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+
+import java.util.function.Consumer;
+
+/*
+ * 1つの次元のチャンクの空間インデックス
+ *
+ * チャンクを 32x32 チャンク（リージョンファイルと同じ単位）のセルに分けて持つ。
+ * 範囲の検索は範囲にかかるセルだけを見るので、コストは検索範囲の広さに比例する。
+ * スレッドセーフではない。DimensionChunks のロックの中で使う。
+ */
+public class ChunkSpatialIndex {
+    private static final int CELL_SHIFT = 5;
+
+    private final Long2ObjectOpenHashMap<Long2ObjectOpenHashMap<ChunkDataCollector.CompactChunkData>> cells = new Long2ObjectOpenHashMap<>();
+
+    public void put(long key, ChunkDataCollector.CompactChunkData data) {
+        long cellKey = cellKey(data.chunkX >> CELL_SHIFT, data.chunkZ >> CELL_SHIFT);
+        Long2ObjectOpenHashMap<ChunkDataCollector.CompactChunkData> cell = cells.get(cellKey);
+        if (cell == null) {
+            cell = new Long2ObjectOpenHashMap<>();
+            cells.put(cellKey, cell);
+        }
+        cell.put(key, data);
+    }
+
+    public void remove(long key, ChunkDataCollector.CompactChunkData data) {
+        long cellKey = cellKey(data.chunkX >> CELL_SHIFT, data.chunkZ >> CELL_SHIFT);
+        Long2ObjectOpenHashMap<ChunkDataCollector.CompactChunkData> cell = cells.get(cellKey);
+        if (cell != null) {
+            cell.remove(key);
+            if (cell.isEmpty()) {
+                cells.remove(cellKey);
+            }
+        }
+    }
+
+    // 範囲内のチャンクを渡す（次元の一致は呼び出し側で確認する）
+    public void forEach(ChunkQuery query, Consumer<ChunkDataCollector.CompactChunkData> action) {
+        long minCellX = query.minChunkX() >> CELL_SHIFT;
+        long minCellZ = query.minChunkZ() >> CELL_SHIFT;
+        long maxCellX = query.maxChunkX() >> CELL_SHIFT;
+        long maxCellZ = query.maxChunkZ() >> CELL_SHIFT;
+        long area = (maxCellX - minCellX + 1) * (maxCellZ - minCellZ + 1);
+
+        // 範囲がデータのあるセルより広ければ、全セルを見て範囲外を除く
+        if (area > cells.size()) {
+            for (Long2ObjectOpenHashMap<ChunkDataCollector.CompactChunkData> cell : cells.values()) {
+                forEachInCell(cell, query, action);
+            }
+            return;
+        }
+        for (long cellZ = minCellZ; cellZ <= maxCellZ; cellZ++) {
+            for (long cellX = minCellX; cellX <= maxCellX; cellX++) {
+                Long2ObjectOpenHashMap<ChunkDataCollector.CompactChunkData> cell = cells.get(cellKey((int) cellX, (int) cellZ));
+                if (cell != null) {
+                    forEachInCell(cell, query, action);
+                }
+            }
+        }
+    }
+
+    private static void forEachInCell(Long2ObjectOpenHashMap<ChunkDataCollector.CompactChunkData> cell,
+                                      ChunkQuery query, Consumer<ChunkDataCollector.CompactChunkData> action) {
+        for (ChunkDataCollector.CompactChunkData data : cell.values()) {
+            if (data.chunkX >= query.minChunkX() && data.chunkX <= query.maxChunkX()
+                    && data.chunkZ >= query.minChunkZ() && data.chunkZ <= query.maxChunkZ()) {
+                action.accept(data);
+            }
+        }
+    }
+
+    private static long cellKey(int cellX, int cellZ) {
+        return (long) cellX << 32 | (cellZ & 0xFFFFFFFFL);
+    }
+}
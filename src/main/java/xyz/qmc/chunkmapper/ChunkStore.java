@@ -0,0 +1,479 @@
+package xyz.qmc.chunkmapper;
+
+import it.unimi.dsi.fastutil.longs.Long2LongOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongIterator;
+import net.minecraft.util.math.ChunkPos;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+/*
+ * 抽出済みチャンクのディスクストア
+ *
+ *   <root>/<次元名>/r.<rx>.<rz>.cmr   (1リージョン = 32x32 チャンク)
+ *
+ * ファイルは追記のみで、同じチャンクを書き直すと新しいレコードが末尾に追加される。
+ *
+ *   ファイルヘッダー: u32 magic "CMRG", u32 バージョン
+ *   レコード: i32 ペイロード長 (-1 = 削除), i32 chunkX, i32 chunkZ, i64 書き込み時刻, ペイロード
+ *
+ * ペイロードは ChunkBinaryEncoder.encodeChunk の形式。リージョンのインデックスは
+ * 最初にアクセスされたときにレコードヘッダーだけを走査して作る。
+ *
+ * タイプIDはブロックパレットに依存するので、<root>/palette に作成時のパレットの
+ * フィンガープリントを記録し、一致しなければ保存済みのチャンクをすべて破棄する。
+ */
+public class ChunkStore implements Closeable {
+    private static final int FILE_MAGIC = 0x434D5247; // "CMRG"
+    private static final int FILE_VERSION = 2; // 2: チャンク本体にフラグ（面マスク）を追加
+    private static final int FILE_HEADER_SIZE = 8;
+    private static final int RECORD_HEADER_SIZE = 20;
+    private static final int DELETED = -1;
+    private static final int MAX_RECORD_SIZE = 0xFFFFFF; // インデックスのサイズ欄が24ビットのため
+    private static final long COMPACT_MIN_GARBAGE = 1L << 20; // これ未満の無駄領域では圧縮しない
+    private static final String REGION_SUFFIX = ".cmr";
+    private static final String PALETTE_FILE = "palette";
+
+    private final Path root;
+    private final Map<String, Region> regions = new ConcurrentHashMap<>();
+    private volatile boolean closed = false;
+
+    public ChunkStore(Path root, String paletteFingerprint) throws IOException {
+        this.root = root;
+        Files.createDirectories(root);
+        checkPalette(paletteFingerprint);
+    }
+
+    private void checkPalette(String fingerprint) throws IOException {
+        Path file = root.resolve(PALETTE_FILE);
+        String stored = Files.exists(file) ? Files.readString(file, StandardCharsets.UTF_8).trim() : null;
+        if (fingerprint.equals(stored)) {
+            return;
+        }
+
+        List<String> dimensions = getDimensions();
+        if (!dimensions.isEmpty()) {
+            ChunkMapperMod.LOGGER.info("Block palette changed, clearing chunk store {}", root);
+        }
+        for (String dimension : dimensions) {
+            Path dir = dimensionDir(dimension);
+            try (Stream<Path> list = Files.list(dir)) {
+                for (Path path : list.filter(p -> p.getFileName().toString().endsWith(REGION_SUFFIX)).toList()) {
+                    Files.delete(path);
+                }
+            }
+            try {
+                Files.delete(dir);
+            } catch (DirectoryNotEmptyException e) {
+                // リージョン以外のファイルがあれば残す
+            }
+        }
+        Files.writeString(file, fingerprint, StandardCharsets.UTF_8);
+    }
+
+    public void write(ChunkDataCollector.CompactChunkData data) throws IOException {
+        byte[] payload = ChunkBinaryEncoder.encodeChunk(data);
+        append(data.dimension, data.chunkX, data.chunkZ, payload);
+    }
+
+    public void delete(String dimension, int chunkX, int chunkZ) throws IOException {
+        Region region = getRegion(dimension, chunkX >> 5, chunkZ >> 5, false);
+        if (region != null && region.contains(ChunkPos.toLong(chunkX, chunkZ))) {
+            append(dimension, chunkX, chunkZ, null);
+        }
+    }
+
+    // 保存されていなければ null
+    public ChunkDataCollector.CompactChunkData read(String dimension, int chunkX, int chunkZ) throws IOException {
+        Region region = getRegion(dimension, chunkX >> 5, chunkZ >> 5, false);
+        return region == null ? null : region.read(dimension, ChunkPos.toLong(chunkX, chunkZ));
+    }
+
+    public List<String> getDimensions() throws IOException {
+        List<String> dimensions = new ArrayList<>();
+        try (DirectoryStream<Path> dirs = Files.newDirectoryStream(root, Files::isDirectory)) {
+            for (Path dir : dirs) {
+                dimensions.add(URLDecoder.decode(dir.getFileName().toString(), StandardCharsets.UTF_8));
+            }
+        }
+        return dimensions;
+    }
+
+    // 最近書き込まれたリージョンから順に保存済みチャンクを読み出す。consumer が false を返したら終了
+    public void forEachChunk(String dimension, Predicate<ChunkDataCollector.CompactChunkData> consumer) throws IOException {
+        Path dir = dimensionDir(dimension);
+        if (!Files.isDirectory(dir)) {
+            return;
+        }
+
+        List<Path> files;
+        try (Stream<Path> list = Files.list(dir)) {
+            files = new ArrayList<>(list.filter(p -> p.getFileName().toString().endsWith(REGION_SUFFIX)).toList());
+        }
+        files.sort(Comparator.comparing(ChunkStore::lastModified).reversed());
+
+        for (Path file : files) {
+            String[] parts = file.getFileName().toString().split("\\.");
+            if (parts.length != 4) {
+                continue;
+            }
+            Region region;
+            try {
+                region = getRegion(dimension, Integer.parseInt(parts[1]), Integer.parseInt(parts[2]), false);
+            } catch (NumberFormatException e) {
+                continue;
+            }
+            if (region == null) {
+                continue;
+            }
+            for (long key : region.keys()) {
+                if (closed) {
+                    return;
+                }
+                ChunkDataCollector.CompactChunkData data = region.read(dimension, key);
+                if (data != null && !consumer.test(data)) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private void append(String dimension, int chunkX, int chunkZ, byte[] payload) throws IOException {
+        Region region = getRegion(dimension, chunkX >> 5, chunkZ >> 5, true);
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_SIZE + (payload != null ? payload.length : 0));
+        record.putInt(payload != null ? payload.length : DELETED);
+        record.putInt(chunkX);
+        record.putInt(chunkZ);
+        record.putLong(System.currentTimeMillis());
+        if (payload != null) {
+            record.put(payload);
+        }
+        record.flip();
+        if (record.remaining() > MAX_RECORD_SIZE) {
+            throw new IOException("Chunk record too large for the store: " + dimension + " " + chunkX + "," + chunkZ
+                    + " (" + record.remaining() + " bytes)");
+        }
+        region.append(ChunkPos.toLong(chunkX, chunkZ), record, payload != null);
+    }
+
+    private Region getRegion(String dimension, int regionX, int regionZ, boolean create) throws IOException {
+        if (closed) {
+            throw new IOException("Chunk store is closed");
+        }
+        Path path = regionPath(dimension, regionX, regionZ);
+        String key = path.toString();
+        Region region = regions.get(key);
+        if (region != null) {
+            return region;
+        }
+        if (!create && !Files.exists(path)) {
+            return null;
+        }
+
+        synchronized (regions) {
+            region = regions.get(key);
+            if (region == null) {
+                Files.createDirectories(path.getParent());
+                region = new Region(path);
+                regions.put(key, region);
+            }
+        }
+        return region;
+    }
+
+    // 書き終えたリージョンを閉じる。一括取り込みでリージョンを開いたままにしないため
+    public void closeRegion(String dimension, int regionX, int regionZ) {
+        Region region;
+        synchronized (regions) {
+            region = regions.remove(regionPath(dimension, regionX, regionZ).toString());
+        }
+        if (region != null) {
+            region.close();
+        }
+    }
+
+    private Path regionPath(String dimension, int regionX, int regionZ) {
+        return dimensionDir(dimension).resolve("r." + regionX + "." + regionZ + REGION_SUFFIX);
+    }
+
+    private Path dimensionDir(String dimension) {
+        return root.resolve(URLEncoder.encode(dimension, StandardCharsets.UTF_8));
+    }
+
+    private static long lastModified(Path path) {
+        try {
+            return Files.getLastModifiedTime(path).toMillis();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        synchronized (regions) {
+            for (Region region : regions.values()) {
+                region.close();
+            }
+            regions.clear();
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                throw new EOFException();
+            }
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        long offset = position;
+        while (buffer.hasRemaining()) {
+            offset += channel.write(buffer, offset);
+        }
+    }
+
+    // インデックスの値: 上位40ビット = レコードのオフセット, 下位24ビット = レコードのサイズ
+    private static long packEntry(long offset, int size) {
+        if (size < 0 || size > MAX_RECORD_SIZE) {
+            throw new IllegalArgumentException("Record size out of range: " + size);
+        }
+        return offset << 24 | size;
+    }
+
+    private static long entryOffset(long entry) {
+        return entry >>> 24;
+    }
+
+    private static int entrySize(long entry) {
+        return (int) (entry & 0xFFFFFF);
+    }
+
+    private static final class Region {
+        private final Path path;
+        private final ReadWriteLock lock = new ReentrantReadWriteLock();
+        private final Long2LongOpenHashMap index = new Long2LongOpenHashMap();
+        private FileChannel channel;
+        private long liveBytes = 0;
+        private long garbageBytes = 0;
+
+        Region(Path path) throws IOException {
+            this.path = path;
+            index.defaultReturnValue(-1);
+            channel = open(path);
+            scan();
+            if (needsCompaction()) {
+                compact();
+            }
+        }
+
+        private static FileChannel open(Path path) throws IOException {
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            if (channel.size() >= FILE_HEADER_SIZE) {
+                ByteBuffer existing = ByteBuffer.allocate(FILE_HEADER_SIZE);
+                readFully(channel, existing, 0);
+                existing.flip();
+                if (existing.getInt() != FILE_MAGIC || existing.getInt() != FILE_VERSION) {
+                    // 古い形式のファイルは読めないので空にする（内容はワールドから再抽出される）
+                    ChunkMapperMod.LOGGER.info("Discarding chunk store file in an old format: {}", path);
+                    channel.truncate(0);
+                }
+            }
+            if (channel.size() < FILE_HEADER_SIZE) {
+                ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_SIZE);
+                header.putInt(FILE_MAGIC).putInt(FILE_VERSION).flip();
+                channel.truncate(0);
+                writeFully(channel, header, 0);
+            }
+            return channel;
+        }
+
+        // レコードヘッダーだけを読んでインデックスを作る
+        private void scan() throws IOException {
+            ByteBuffer fileHeader = ByteBuffer.allocate(FILE_HEADER_SIZE);
+            readFully(channel, fileHeader, 0);
+            fileHeader.flip();
+            if (fileHeader.getInt() != FILE_MAGIC || fileHeader.getInt() != FILE_VERSION) {
+                throw new IOException("Unsupported chunk store file: " + path);
+            }
+
+            long size = channel.size();
+            long position = FILE_HEADER_SIZE;
+            ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+            while (position + RECORD_HEADER_SIZE <= size) {
+                header.clear();
+                readFully(channel, header, position);
+                header.flip();
+                int length = header.getInt();
+                int chunkX = header.getInt();
+                int chunkZ = header.getInt();
+                int recordSize = RECORD_HEADER_SIZE + Math.max(length, 0);
+                if (length < DELETED || recordSize > MAX_RECORD_SIZE || position + recordSize > size) {
+                    break;
+                }
+                put(ChunkPos.toLong(chunkX, chunkZ), length != DELETED ? packEntry(position, recordSize) : -1, recordSize);
+                position += recordSize;
+            }
+
+            // 書き込み途中で止まったレコードは捨てる
+            if (position < size) {
+                ChunkMapperMod.LOGGER.warn("Truncating incomplete record in {} at {}", path, position);
+                channel.truncate(position);
+            }
+        }
+
+        private void put(long key, long entry, int recordSize) {
+            long previous = entry >= 0 ? index.put(key, entry) : index.remove(key);
+            if (previous >= 0) {
+                liveBytes -= entrySize(previous);
+                garbageBytes += entrySize(previous);
+            }
+            if (entry >= 0) {
+                liveBytes += recordSize;
+            } else {
+                garbageBytes += recordSize;
+            }
+        }
+
+        // 無駄領域が生きているレコードより大きくなったら詰める（詰めるたびに半分以下になるので償却 O(1)）
+        private boolean needsCompaction() {
+            return garbageBytes > liveBytes && garbageBytes > COMPACT_MIN_GARBAGE;
+        }
+
+        // 生きているレコードだけを新しいファイルに書き出して置き換える
+        private void compact() throws IOException {
+            Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+            Long2LongOpenHashMap compacted = new Long2LongOpenHashMap(index.size());
+            compacted.defaultReturnValue(-1);
+
+            try (FileChannel out = open(temp)) {
+                out.truncate(FILE_HEADER_SIZE);
+                long position = FILE_HEADER_SIZE;
+                for (LongIterator it = index.keySet().iterator(); it.hasNext(); ) {
+                    long key = it.nextLong();
+                    long entry = index.get(key);
+                    ByteBuffer record = ByteBuffer.allocate(entrySize(entry));
+                    readFully(channel, record, entryOffset(entry));
+                    record.flip();
+                    writeFully(out, record, position);
+                    compacted.put(key, packEntry(position, entrySize(entry)));
+                    position += entrySize(entry);
+                }
+                out.force(true);
+            } catch (IOException e) {
+                Files.deleteIfExists(temp);
+                throw e;
+            }
+
+            // 置き換えに失敗した場合は元のファイルとインデックスのまま続ける
+            channel.close();
+            try {
+                Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                channel = open(path);
+            }
+            index.clear();
+            for (LongIterator it = compacted.keySet().iterator(); it.hasNext(); ) {
+                long key = it.nextLong();
+                index.put(key, compacted.get(key));
+            }
+            garbageBytes = 0;
+            ChunkMapperMod.LOGGER.debug("Compacted {} ({} bytes)", path, liveBytes);
+        }
+
+        boolean contains(long key) {
+            lock.readLock().lock();
+            try {
+                return index.containsKey(key);
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        long[] keys() {
+            lock.readLock().lock();
+            try {
+                long[] keys = new long[index.size()];
+                int i = 0;
+                for (LongIterator it = index.keySet().iterator(); it.hasNext(); ) {
+                    keys[i++] = it.nextLong();
+                }
+                return keys;
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        void append(long key, ByteBuffer record, boolean live) throws IOException {
+            lock.writeLock().lock();
+            try {
+                long position = channel.size();
+                int recordSize = record.remaining();
+                writeFully(channel, record, position);
+                put(key, live ? packEntry(position, recordSize) : -1, recordSize);
+                // リージョンは実行中ずっと開いたままなので、開くときだけでなく書き込みのたびに確認する
+                if (needsCompaction()) {
+                    try {
+                        compact();
+                    } catch (IOException e) {
+                        ChunkMapperMod.LOGGER.warn("Failed to compact {}", path, e);
+                    }
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        ChunkDataCollector.CompactChunkData read(String dimension, long key) throws IOException {
+            ByteBuffer record;
+            lock.readLock().lock();
+            try {
+                long entry = index.get(key);
+                if (entry < 0) {
+                    return null;
+                }
+                record = ByteBuffer.allocate(entrySize(entry));
+                readFully(channel, record, entryOffset(entry));
+            } finally {
+                lock.readLock().unlock();
+            }
+            record.flip();
+            record.position(12);
+            long writtenAt = record.getLong();
+
+            ChunkDataCollector.CompactChunkData data = ChunkBinaryDecoder.decodeChunk(record, dimension);
+            data.lastAccess = writtenAt;
+            // System.nanoTime() は負にもなるので、保存済みのデータはどのスナップショットよりも古いものとして扱う
+            data.capturedAt = Long.MIN_VALUE;
+            return data;
+        }
+
+        void close() {
+            lock.writeLock().lock();
+            try {
+                channel.force(false);
+                channel.close();
+            } catch (IOException e) {
+                ChunkMapperMod.LOGGER.warn("Failed to close {}", path, e);
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package xyz.qmc.chunkmapper;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/*
+ * メモリ上のコールド層のチャンクの圧縮と展開
+ *
+ *   i32  展開後の長さ
+ *        ChunkBinaryEncoder.encodeChunk の形式（列ごとのランとパレット）を deflate したもの
+ *
+ * ランにした時点で大きく縮むので、deflate はランとパレットの繰り返しを詰めるだけになる。
+ * 座標・次元・バージョンなどはコールドのデータにもそのまま持たせる。
+ */
+final class ColdChunkCodec {
+    // 展開は HTTP のスレッドなど複数のスレッドから呼ばれるので、スレッドごとに使い回す
+    private static final ThreadLocal<Inflater> INFLATER = ThreadLocal.withInitial(Inflater::new);
+
+    private ColdChunkCodec() {
+    }
+
+    // deflater は呼び出し側のスレッド専用のものを使い回す
+    static ChunkDataCollector.CompactChunkData compress(ChunkDataCollector.CompactChunkData hot, Deflater deflater) {
+        byte[] body = ChunkBinaryEncoder.encodeChunk(hot);
+        deflater.reset();
+        deflater.setInput(body);
+        deflater.finish();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(body.length / 4 + 64);
+        out.write(body.length >>> 24);
+        out.write(body.length >>> 16);
+        out.write(body.length >>> 8);
+        out.write(body.length);
+        byte[] buffer = new byte[4096];
+        while (!deflater.finished()) {
+            int length = deflater.deflate(buffer);
+            out.write(buffer, 0, length);
+        }
+
+        ChunkDataCollector.CompactChunkData cold = copyMetadata(hot, new ChunkDataCollector.CompactChunkData());
+        cold.blocks = null;
+        cold.compressed = out.toByteArray();
+        cold.estimatedBytes = cold.estimateBytes();
+        return cold;
+    }
+
+    // 壊れたデータの場合は IllegalStateException（メモリ上でしか作らないので通常は起きない）
+    static ChunkDataCollector.CompactChunkData expand(ChunkDataCollector.CompactChunkData cold) {
+        byte[] compressed = cold.compressed;
+        byte[] body = new byte[ByteBuffer.wrap(compressed).getInt()];
+        Inflater inflater = INFLATER.get();
+        inflater.reset();
+        try {
+            inflater.setInput(compressed, 4, compressed.length - 4);
+            int length = 0;
+            while (length < body.length) {
+                int read = inflater.inflate(body, length, body.length - length);
+                if (read == 0 && (inflater.finished() || inflater.needsInput())) {
+                    throw new IllegalStateException("Truncated cold chunk " + cold.chunkX + "," + cold.chunkZ);
+                }
+                length += read;
+            }
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Corrupt cold chunk " + cold.chunkX + "," + cold.chunkZ, e);
+        }
+
+        ChunkDataCollector.CompactChunkData hot = copyMetadata(cold,
+                ChunkBinaryDecoder.decodeChunk(ByteBuffer.wrap(body), cold.dimension));
+        hot.estimatedBytes = hot.estimateBytes();
+        return hot;
+    }
+
+    private static ChunkDataCollector.CompactChunkData copyMetadata(ChunkDataCollector.CompactChunkData from,
+                                                                    ChunkDataCollector.CompactChunkData to) {
+        to.chunkX = from.chunkX;
+        to.chunkZ = from.chunkZ;
+        to.dimension = from.dimension;
+        to.version = from.version;
+        to.capturedAt = from.capturedAt;
+        to.lastAccess = from.lastAccess;
+        to.surface = from.surface;
+        return to;
+    }
+}
@@ -0,0 +1,83 @@
+package xyz.qmc.chunkmapper;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/*
+ * チャンク収集の tick ごとの時間配分
+ *
+ * 収集の作業（スナップショットの取得と抽出キューへの投入）を毎 tick 少しずつ行い、
+ * 1 tick で使う時間を予算内に収める。収集待ち（ロードされた未収集のチャンク）はプレイヤーに近い順に並べる。
+ * サーバーの MSPT が 50ms に近づいたら、予算を比例して縮め、収集をプレイヤーの周囲だけに絞る。
+ * tick スレッドからのみ使う（統計用の値だけは volatile）。
+ */
+public class CollectionScheduler {
+    private static final double MSPT_THROTTLE = 40.0; // これを超えたら縮め始める
+    private static final double MSPT_LIMIT = 50.0;    // 20 TPS を保てる上限
+    private static final double MIN_FACTOR = 0.1;     // MSPT が上限を超えても残す割合
+
+    public record Candidate(DimensionChunks dimension, long key, int distanceSq) {
+    }
+
+    private final long baseBudgetNanos;
+    private final int baseRadius;
+    private volatile long budgetNanos;
+    private volatile int radius;
+    private volatile float mspt;
+
+    private List<Candidate> queue = new ArrayList<>();
+    private int queueHead = 0;
+
+    public CollectionScheduler(ChunkMapperConfig config) {
+        this.baseBudgetNanos = Math.max(1, (long) (config.tickBudgetMs * 1_000_000));
+        this.baseRadius = Math.max(1, config.collectRadius);
+        this.budgetNanos = baseBudgetNanos;
+        this.radius = baseRadius;
+    }
+
+    // 直近の平均 MSPT から予算と収集範囲を決め直す。絞り込み状態が変わったら true
+    public boolean adjust(float mspt) {
+        boolean wasThrottled = isThrottled();
+        this.mspt = mspt;
+        double factor = 1.0;
+        if (mspt > MSPT_THROTTLE) {
+            factor = Math.max(MIN_FACTOR, (MSPT_LIMIT - mspt) / (MSPT_LIMIT - MSPT_THROTTLE));
+        }
+        budgetNanos = Math.max(1, (long) (baseBudgetNanos * factor));
+        radius = Math.max(1, (int) Math.round(baseRadius * factor));
+        return wasThrottled != isThrottled();
+    }
+
+    public boolean isThrottled() {
+        return budgetNanos < baseBudgetNanos;
+    }
+
+    public long getBudgetNanos() {
+        return budgetNanos;
+    }
+
+    public int getRadius() {
+        return radius;
+    }
+
+    public float getMspt() {
+        return mspt;
+    }
+
+    // 収集待ちを入れ替える。同じチャンクが複数あっても、処理済みかどうかは取り出す側で確認する
+    public void setQueue(List<Candidate> candidates) {
+        candidates.sort(Comparator.comparingInt(Candidate::distanceSq));
+        queue = candidates;
+        queueHead = 0;
+    }
+
+    // 次に収集するチャンク。なければ null
+    public Candidate peek() {
+        return queueHead < queue.size() ? queue.get(queueHead) : null;
+    }
+
+    public void advance() {
+        queueHead++;
+    }
+}
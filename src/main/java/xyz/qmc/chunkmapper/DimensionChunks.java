@@ -0,0 +1,292 @@
+package xyz.qmc.chunkmapper;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongIterator;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import net.minecraft.server.world.ServerWorld;
+import net.minecraft.util.math.ChunkPos;
+
+import java.util.List;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+
+/*
+ * 1つの次元のチャンクの状態
+ *
+ * キーは ChunkPos.toLong(x, z) で詰めた long。マップとセットはオープンアドレス法の
+ * fastutil のもので、検索と走査ではオブジェクトを作らない。
+ * すべてのコレクションは lock で保護する。チャンクデータの書き込みはさらに
+ * ChunkDataCollector の versionLock の中で行う（ロックの順序は versionLock → lock）。
+ */
+public class DimensionChunks {
+    public final String name;
+    // 収集やブロック変更の通知で最初に見たワールド。ストアから読んだだけの次元では null
+    volatile ServerWorld world;
+
+    private final StampedLock lock = new StampedLock();
+    private final Long2ObjectOpenHashMap<ChunkDataCollector.CompactChunkData> chunks = new Long2ObjectOpenHashMap<>();
+    private final ChunkSpatialIndex spatialIndex = new ChunkSpatialIndex();
+    private final LongOpenHashSet processed = new LongOpenHashSet(); // 抽出に回したチャンク
+    private final LongOpenHashSet pending = new LongOpenHashSet();   // ロード済みで未収集のチャンク
+    private final LongOpenHashSet dirty = new LongOpenHashSet();     // ブロック変更があったチャンク
+    private final LongOpenHashSet partial = new LongOpenHashSet();   // 隣接チャンクなしで抽出したチャンク
+    // 差分配信用の削除記録。versionLock の中でのみ使う
+    final Long2ObjectOpenHashMap<ChunkDataCollector.RemovedChunk> removed = new Long2ObjectOpenHashMap<>();
+
+    public DimensionChunks(String name) {
+        this.name = name;
+    }
+
+    public static long key(int chunkX, int chunkZ) {
+        return ChunkPos.toLong(chunkX, chunkZ);
+    }
+
+    ChunkDataCollector.CompactChunkData get(long key) {
+        long stamp = lock.readLock();
+        try {
+            return chunks.get(key);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    // 置き換えた以前のデータを返す
+    ChunkDataCollector.CompactChunkData put(long key, ChunkDataCollector.CompactChunkData data) {
+        long stamp = lock.writeLock();
+        try {
+            ChunkDataCollector.CompactChunkData old = chunks.put(key, data);
+            if (old != null) {
+                spatialIndex.remove(key, old);
+            }
+            spatialIndex.put(key, data);
+            return old;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    // data が登録されている場合だけ削除する
+    boolean remove(long key, ChunkDataCollector.CompactChunkData data) {
+        long stamp = lock.writeLock();
+        try {
+            if (!chunks.remove(key, data)) {
+                return false;
+            }
+            spatialIndex.remove(key, data);
+            return true;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    // 追い出したチャンクは、プレイヤーが戻ってきたときに通常の収集で拾い直す
+    boolean evict(long key, ChunkDataCollector.CompactChunkData data) {
+        long stamp = lock.writeLock();
+        try {
+            if (!chunks.remove(key, data)) {
+                return false;
+            }
+            spatialIndex.remove(key, data);
+            processed.remove(key);
+            dirty.remove(key);
+            partial.remove(key);
+            return true;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    // expected が登録されている場合だけ置き換える（ホット層とコールド層の間の移動用）
+    boolean replace(long key, ChunkDataCollector.CompactChunkData expected, ChunkDataCollector.CompactChunkData replacement) {
+        long stamp = lock.writeLock();
+        try {
+            if (!chunks.replace(key, expected, replacement)) {
+                return false;
+            }
+            spatialIndex.put(key, replacement);
+            return true;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    int size() {
+        long stamp = lock.readLock();
+        try {
+            return chunks.size();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    // 読み込みロックを保持したまま呼ぶので、action の中でこの次元を更新しないこと
+    void forEach(Consumer<ChunkDataCollector.CompactChunkData> action) {
+        long stamp = lock.readLock();
+        try {
+            for (ChunkDataCollector.CompactChunkData data : chunks.values()) {
+                action.accept(data);
+            }
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    // query の範囲に入るチャンクを out に追加する（高さの切り取りは呼び出し側でロックの外で行う）
+    void collect(ChunkQuery query, List<ChunkDataCollector.CompactChunkData> out) {
+        long stamp = lock.readLock();
+        try {
+            spatialIndex.forEach(query, out::add);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    boolean isProcessed(long key) {
+        long stamp = lock.readLock();
+        try {
+            return processed.contains(key);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    void setProcessed(long key, boolean value) {
+        long stamp = lock.writeLock();
+        try {
+            if (value) {
+                processed.add(key);
+                pending.remove(key);
+            } else {
+                processed.remove(key);
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    // チャンクのロード時に収集待ちにする。収集済みのチャンクは変更があれば dirty で再抽出される
+    void addPending(long key) {
+        long stamp = lock.writeLock();
+        try {
+            if (!processed.contains(key)) {
+                pending.add(key);
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    void removePending(long key) {
+        long stamp = lock.writeLock();
+        try {
+            pending.remove(key);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    // 抽出に失敗したチャンクを収集待ちに戻す（アンロード済みなら取り出す側で捨てる）
+    void retry(long key) {
+        long stamp = lock.writeLock();
+        try {
+            processed.remove(key);
+            pending.add(key);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    int getPendingCount() {
+        long stamp = lock.readLock();
+        try {
+            return pending.size();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    // 読み込みロックを保持したまま呼ぶので、action の中でこの次元を更新しないこと
+    void forEachPending(LongConsumer action) {
+        long stamp = lock.readLock();
+        try {
+            for (LongIterator it = pending.iterator(); it.hasNext(); ) {
+                action.accept(it.nextLong());
+            }
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    // まだ収集していないチャンクは通常の収集で拾われるので記録しない
+    void markDirty(long key) {
+        long stamp = lock.writeLock();
+        try {
+            if (processed.contains(key)) {
+                dirty.add(key);
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    void addDirty(long key) {
+        long stamp = lock.writeLock();
+        try {
+            dirty.add(key);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    int getDirtyCount() {
+        long stamp = lock.readLock();
+        try {
+            return dirty.size();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    // 最大 max 件を取り出して out の先頭から入れ、件数を返す
+    int pollDirty(long[] out, int max) {
+        long stamp = lock.writeLock();
+        try {
+            int count = 0;
+            LongIterator it = dirty.iterator();
+            while (count < max && it.hasNext()) {
+                out[count++] = it.nextLong();
+                it.remove();
+            }
+            return count;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    // visible モード: 抽出したチャンクの隣接チャンクの状態を記録し、
+    // そのチャンクを待っていた隣接チャンクを変更済みにする
+    void trackNeighbours(int chunkX, int chunkZ, boolean hasAllNeighbours) {
+        long stamp = lock.writeLock();
+        try {
+            long key = key(chunkX, chunkZ);
+            if (hasAllNeighbours) {
+                partial.remove(key);
+            } else {
+                partial.add(key);
+            }
+            resolvePartial(key(chunkX - 1, chunkZ));
+            resolvePartial(key(chunkX + 1, chunkZ));
+            resolvePartial(key(chunkX, chunkZ - 1));
+            resolvePartial(key(chunkX, chunkZ + 1));
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    private void resolvePartial(long neighbourKey) {
+        if (partial.remove(neighbourKey)) {
+            dirty.add(neighbourKey);
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package xyz.qmc.chunkmapper;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+
+/*
+ * /api/metrics で公開する計測値（Prometheus テキスト形式）
+ *
+ * 依存ライブラリを増やさないよう、カウンターとヒストグラムだけを LongAdder で実装する。
+ * ゲージ（と他のクラスが数えているカウンター）は出力時に値を読む関数として登録する。
+ * ラベルは "名前", "値" の順に並べて渡す。同じ名前とラベルで登録すると同じ系列が返る。
+ */
+public class Metrics {
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+    // 秒。tick 内の処理から大きな応答のシリアライズまでを想定
+    public static final double[] TIME_BUCKETS = {
+            0.0001, 0.00025, 0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1.0, 2.5};
+
+    private final Map<String, Family> families = new LinkedHashMap<>();
+
+    public static final class Counter {
+        private final LongAdder value = new LongAdder();
+
+        public void inc() {
+            value.increment();
+        }
+
+        public void add(long amount) {
+            value.add(amount);
+        }
+
+        public long get() {
+            return value.sum();
+        }
+    }
+
+    public static final class Histogram {
+        private final double[] buckets;
+        private final LongAdder[] counts; // 各バケットに入った数（累積ではない）。最後は +Inf
+        private final LongAdder sumNanos = new LongAdder();
+
+        private Histogram(double[] buckets) {
+            this.buckets = buckets;
+            this.counts = new LongAdder[buckets.length + 1];
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = new LongAdder();
+            }
+        }
+
+        public void observeNanos(long nanos) {
+            double seconds = nanos / 1e9;
+            int i = 0;
+            while (i < buckets.length && seconds > buckets[i]) {
+                i++;
+            }
+            counts[i].increment();
+            sumNanos.add(nanos);
+        }
+    }
+
+    private record Family(String name, String type, String help, Map<String, Object> series) {
+    }
+
+    public Counter counter(String name, String help, String... labels) {
+        return (Counter) family(name, "counter", help).series().computeIfAbsent(formatLabels(labels), l -> new Counter());
+    }
+
+    // 値は他のクラスが数えている単調増加の値。同じ系列を登録し直すと新しい関数に置き換える
+    public void counter(String name, String help, DoubleSupplier value, String... labels) {
+        family(name, "counter", help).series().put(formatLabels(labels), value);
+    }
+
+    // 同じ系列を登録し直すと新しい関数に置き換える（サーバーの再起動で作り直されるオブジェクト用）
+    public void gauge(String name, String help, DoubleSupplier value, String... labels) {
+        family(name, "gauge", help).series().put(formatLabels(labels), value);
+    }
+
+    // 各段の待ち行列の長さ (collection, dirty: スナップショット待ちのチャンク / extraction: 抽出待ち / http: スレッド待ち)
+    public void queueDepth(String queue, DoubleSupplier value) {
+        gauge("chunkmapper_queue_depth", "Items waiting in each queue", value, "queue", queue);
+    }
+
+    public Histogram histogram(String name, String help, String... labels) {
+        return (Histogram) family(name, "histogram", help).series()
+                .computeIfAbsent(formatLabels(labels), l -> new Histogram(TIME_BUCKETS));
+    }
+
+    private Family family(String name, String type, String help) {
+        Family family;
+        synchronized (families) {
+            family = families.computeIfAbsent(name, n -> new Family(n, type, help, new ConcurrentHashMap<>()));
+        }
+        if (!family.type().equals(type)) {
+            throw new IllegalArgumentException("Metric " + name + " is already registered as " + family.type());
+        }
+        return family;
+    }
+
+    private static String formatLabels(String[] labels) {
+        if (labels.length == 0) {
+            return "";
+        }
+        StringBuilder sb = new StringBuilder("{");
+        for (int i = 0; i + 1 < labels.length; i += 2) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append(labels[i]).append("=\"")
+                    .append(labels[i + 1].replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n"))
+                    .append('"');
+        }
+        return sb.append('}').toString();
+    }
+
+    public String format() {
+        List<Family> snapshot;
+        synchronized (families) {
+            snapshot = new ArrayList<>(families.values());
+        }
+        StringBuilder out = new StringBuilder(4096);
+        for (Family family : snapshot) {
+            out.append("# HELP ").append(family.name()).append(' ').append(family.help()).append('\n');
+            out.append("# TYPE ").append(family.name()).append(' ').append(family.type()).append('\n');
+            List<String> labels = new ArrayList<>(family.series().keySet());
+            labels.sort(null);
+            for (String label : labels) {
+                Object series = family.series().get(label);
+                if (series instanceof Histogram histogram) {
+                    formatHistogram(out, family.name(), label, histogram);
+                } else {
+                    double value = series instanceof Counter counter ? counter.value.sum() : ((DoubleSupplier) series).getAsDouble();
+                    out.append(family.name()).append(label).append(' ').append(formatValue(value)).append('\n');
+                }
+            }
+        }
+        return out.toString();
+    }
+
+    private static void formatHistogram(StringBuilder out, String name, String label, Histogram histogram) {
+        // le ラベルを既存のラベルの後ろに足す
+        String prefix = label.isEmpty() ? "{" : label.substring(0, label.length() - 1) + ",";
+        long cumulative = 0;
+        for (int i = 0; i <= histogram.buckets.length; i++) {
+            cumulative += histogram.counts[i].sum();
+            String le = i < histogram.buckets.length ? formatValue(histogram.buckets[i]) : "+Inf";
+            out.append(name).append("_bucket").append(prefix).append("le=\"").append(le).append("\"} ")
+                    .append(cumulative).append('\n');
+        }
+        out.append(name).append("_sum").append(label).append(' ').append(formatValue(histogram.sumNanos.sum() / 1e9)).append('\n');
+        out.append(name).append("_count").append(label).append(' ').append(cumulative).append('\n');
+    }
+
+    private static String formatValue(double value) {
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            return Long.toString((long) value);
+        }
+        return Double.isFinite(value) ? BigDecimal.valueOf(value).stripTrailingZeros().toPlainString() : Double.toString(value);
+    }
+}
@@ -0,0 +1,232 @@
+package xyz.qmc.chunkmapper;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/*
+ * 1ブロックを int 1個に詰めた表現
+ *
+ *   bit 31-28: x (0-15)
+ *   bit 27-24: z (0-15)
+ *   bit 23-12: y - MIN_Y (0-4095)
+ *   bit 11-0 : ブロックタイプID (0-4095)
+ *
+ * 配列は符号なしの昇順、つまり列 (x 外側, z 内側) ごとに Y 昇順で並べておく。
+ * エンコーダーはこの順序を前提に列を先頭から読むだけでランを作れる。
+ *
+ * 面マスク（見える面の抽出モード）は blocks と同じ順序の byte[] で、見えている面のビットを立てる。
+ */
+public final class PackedBlocks {
+    public static final int MAX_TYPE = 0xFFF;
+    public static final int[] EMPTY = new int[0];
+
+    public static final int FACE_WEST = 1;   // -x
+    public static final int FACE_EAST = 2;   // +x
+    public static final int FACE_DOWN = 4;   // -y
+    public static final int FACE_UP = 8;     // +y
+    public static final int FACE_NORTH = 16; // -z
+    public static final int FACE_SOUTH = 32; // +z
+
+    private PackedBlocks() {
+    }
+
+    public interface BlockVisitor {
+        void visit(int x, int y, int z, int type);
+    }
+
+    public static int pack(int x, int y, int z, int type) {
+        return (x & 15) << 28 | (z & 15) << 24 | ((y - ChunkBinaryEncoder.MIN_Y) & 0xFFF) << 12 | (type & MAX_TYPE);
+    }
+
+    public static int x(int packed) {
+        return packed >>> 28;
+    }
+
+    public static int z(int packed) {
+        return (packed >>> 24) & 15;
+    }
+
+    // x << 4 | z
+    public static int column(int packed) {
+        return packed >>> 24;
+    }
+
+    public static int y(int packed) {
+        return ((packed >>> 12) & 0xFFF) + ChunkBinaryEncoder.MIN_Y;
+    }
+
+    public static int type(int packed) {
+        return packed & MAX_TYPE;
+    }
+
+    public static void forEach(int[] blocks, BlockVisitor visitor) {
+        for (int packed : blocks) {
+            visitor.visit(x(packed), y(packed), z(packed), type(packed));
+        }
+    }
+
+    // 列ごとの一番上のブロックだけを残す（列・Y の昇順なので、各列の最後のブロック）。最大 256 個
+    public static int[] topBlocks(int[] blocks) {
+        int count = 0;
+        for (int i = 0; i < blocks.length; i++) {
+            if (i + 1 == blocks.length || column(blocks[i + 1]) != column(blocks[i])) {
+                count++;
+            }
+        }
+        if (count == 0) {
+            return EMPTY;
+        }
+        int[] top = new int[count];
+        int n = 0;
+        for (int i = 0; i < blocks.length; i++) {
+            if (i + 1 == blocks.length || column(blocks[i + 1]) != column(blocks[i])) {
+                top[n++] = blocks[i];
+            }
+        }
+        return top;
+    }
+
+    // 抽出中に使う伸長可能なバッファ。build() で必要な長さちょうどの配列を返す
+    public static final class Builder {
+        private int[] blocks;
+        private byte[] faces; // 面マスクを記録しない場合は null
+        private int size;
+
+        public Builder() {
+            this(256, false);
+        }
+
+        public Builder(int initialCapacity, boolean withFaces) {
+            this.blocks = new int[Math.max(16, initialCapacity)];
+            this.faces = withFaces ? new byte[blocks.length] : null;
+        }
+
+        public void add(int x, int y, int z, int type) {
+            add(x, y, z, type, 0);
+        }
+
+        public void add(int x, int y, int z, int type, int faceMask) {
+            if (size == blocks.length) {
+                blocks = Arrays.copyOf(blocks, size * 2);
+                if (faces != null) {
+                    faces = Arrays.copyOf(faces, size * 2);
+                }
+            }
+            if (faces != null) {
+                faces[size] = (byte) faceMask;
+            }
+            blocks[size++] = pack(x, y, z, type);
+        }
+
+        public boolean isEmpty() {
+            return size == 0;
+        }
+
+        // build() より前に呼ぶこと。面マスクを記録しない場合は null
+        public byte[] buildFaces() {
+            if (faces == null) {
+                return null;
+            }
+            if (!isSorted(blocks, size)) {
+                // 並べ替えが必要な場合はブロックと同じ順序に並べ直す
+                Integer[] order = new Integer[size];
+                for (int i = 0; i < size; i++) {
+                    order[i] = i;
+                }
+                Arrays.sort(order, (a, b) -> Integer.compareUnsigned(blocks[a], blocks[b]));
+                byte[] sorted = new byte[size];
+                for (int i = 0; i < size; i++) {
+                    sorted[i] = faces[order[i]];
+                }
+                return sorted;
+            }
+            return Arrays.copyOf(faces, size);
+        }
+
+        public int[] build() {
+            if (size == 0) {
+                return EMPTY;
+            }
+            int[] result = Arrays.copyOf(blocks, size);
+            sortIfNeeded(result);
+            return result;
+        }
+    }
+
+    private static boolean isSorted(int[] blocks, int size) {
+        for (int i = 1; i < size; i++) {
+            if (Integer.compareUnsigned(blocks[i - 1], blocks[i]) > 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // 通常は列・Y の順に追加されるので並べ替えは発生しない
+    static void sortIfNeeded(int[] blocks) {
+        if (isSorted(blocks, blocks.length)) {
+            return;
+        }
+        // 符号ビットを反転すれば符号付きのソートで符号なしの順序になる
+        for (int j = 0; j < blocks.length; j++) {
+            blocks[j] ^= Integer.MIN_VALUE;
+        }
+        Arrays.sort(blocks);
+        for (int j = 0; j < blocks.length; j++) {
+            blocks[j] ^= Integer.MIN_VALUE;
+        }
+    }
+
+    // JSON では従来どおり [{"x":..,"y":..,"z":..,"type":..}, ...] として読み書きする
+    public static final class JsonAdapter extends TypeAdapter<int[]> {
+        @Override
+        public void write(JsonWriter out, int[] blocks) throws IOException {
+            if (blocks == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginArray();
+            for (int packed : blocks) {
+                out.beginObject();
+                out.name("x").value(x(packed));
+                out.name("y").value(y(packed));
+                out.name("z").value(z(packed));
+                out.name("type").value(type(packed));
+                out.endObject();
+            }
+            out.endArray();
+        }
+
+        @Override
+        public int[] read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            Builder builder = new Builder();
+            in.beginArray();
+            while (in.hasNext()) {
+                int x = 0, y = 0, z = 0, type = 0;
+                in.beginObject();
+                while (in.hasNext()) {
+                    switch (in.nextName()) {
+                        case "x" -> x = in.nextInt();
+                        case "y" -> y = in.nextInt();
+                        case "z" -> z = in.nextInt();
+                        case "type" -> type = in.nextInt();
+                        default -> in.skipValue();
+                    }
+                }
+                in.endObject();
+                builder.add(x, y, z, type);
+            }
+            in.endArray();
+            return builder.build();
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package xyz.qmc.chunkmapper;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+/*
+ * ワールドの region ファイル (r.<rx>.<rz>.mca) の読み取り専用リーダー
+ *
+ *   ヘッダー: 1024 x (u24 セクターオフセット, u8 セクター数), 1024 x u32 更新時刻 (1セクター = 4096 バイト)
+ *   チャンク: u32 長さ, u8 圧縮形式 (1 = gzip, 2 = zlib, 3 = なし, +128 = 外部ファイル c.<x>.<z>.mcc), データ
+ *
+ * Minecraft の RegionFile は書き込み用に開くので、サーバーの外で読むときはこちらを使う。
+ */
+public class RegionFileReader implements Closeable {
+    private static final int SECTOR_SIZE = 4096;
+    private static final int EXTERNAL_FLAG = 128;
+
+    private final Path path;
+    private final FileChannel channel;
+    private final int[] offsets = new int[1024];
+
+    public RegionFileReader(Path path) throws IOException {
+        this.path = path;
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+        if (channel.size() < SECTOR_SIZE) {
+            // 作成途中の空のファイル
+            return;
+        }
+        ByteBuffer header = ByteBuffer.allocate(SECTOR_SIZE);
+        readFully(header, 0);
+        header.flip();
+        header.asIntBuffer().get(offsets);
+    }
+
+    // localX, localZ はリージョン内の座標 (0-31)
+    public boolean contains(int localX, int localZ) {
+        return offsets[localX | localZ << 5] != 0;
+    }
+
+    // 展開済みのチャンク NBT。チャンクがなければ null
+    public InputStream open(int localX, int localZ) throws IOException {
+        int entry = offsets[localX | localZ << 5];
+        if (entry == 0) {
+            return null;
+        }
+        long position = (long) (entry >>> 8) * SECTOR_SIZE;
+        int sectors = entry & 0xFF;
+
+        ByteBuffer header = ByteBuffer.allocate(5);
+        readFully(header, position);
+        header.flip();
+        int length = header.getInt() - 1; // 圧縮形式の1バイトを含む
+        int compression = header.get() & 0xFF;
+        if (length < 0 || length + 5 > sectors * SECTOR_SIZE) {
+            throw new IOException("Corrupt chunk " + localX + "," + localZ + " in " + path);
+        }
+
+        InputStream raw;
+        if ((compression & EXTERNAL_FLAG) != 0) {
+            compression &= ~EXTERNAL_FLAG;
+            raw = Files.newInputStream(externalPath(localX, localZ));
+        } else {
+            ByteBuffer data = ByteBuffer.allocate(length);
+            readFully(data, position + 5);
+            raw = new ByteArrayInputStream(data.array());
+        }
+
+        return switch (compression) {
+            case 1 -> new GZIPInputStream(raw);
+            case 2 -> new InflaterInputStream(raw);
+            case 3 -> raw;
+            default -> {
+                raw.close();
+                throw new IOException("Unsupported compression " + compression + " for chunk " + localX + "," + localZ + " in " + path);
+            }
+        };
+    }
+
+    // 大きすぎてリージョンに入らないチャンクは同じディレクトリの .mcc に置かれる
+    private Path externalPath(int localX, int localZ) {
+        String[] parts = path.getFileName().toString().split("\\.");
+        int chunkX = (Integer.parseInt(parts[1]) << 5) + localX;
+        int chunkZ = (Integer.parseInt(parts[2]) << 5) + localZ;
+        return path.resolveSibling("c." + chunkX + "." + chunkZ + ".mcc");
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                throw new EOFException("Unexpected end of " + path);
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
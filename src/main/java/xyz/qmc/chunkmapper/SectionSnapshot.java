@@ -0,0 +1,57 @@
+package xyz.qmc.chunkmapper;
+
+/*
+ * 16x16x16 セクション1個分のブロックタイプ。Minecraft のクラスに依存しない
+ *
+ * PalettedContainer のパレットインデックス配列（PackedIntegerArray と同じ詰め方）を
+ * そのまま持ち、パレットインデックスからタイプIDへの表で引く。
+ * 全体が1種類のブロックのセクションは配列を持たない。
+ */
+public final class SectionSnapshot {
+    private final long[] data;
+    private final int bits;
+    private final int elementsPerLong;
+    private final int mask;
+    private final short[] types; // パレットインデックス → タイプID (BlockPalette.AIR = 空気)
+
+    private SectionSnapshot(long[] data, int bits, short[] types) {
+        this.data = data;
+        this.bits = bits;
+        this.elementsPerLong = bits == 0 ? 0 : 64 / bits;
+        this.mask = (1 << bits) - 1;
+        this.types = types;
+    }
+
+    public static SectionSnapshot single(int type) {
+        return new SectionSnapshot(null, 0, new short[]{(short) type});
+    }
+
+    // data は呼び出し側でコピー済みのものを渡すこと
+    public static SectionSnapshot packed(long[] data, int bits, short[] types) {
+        if (bits == 0) {
+            return single(types.length > 0 ? types[0] : BlockPalette.AIR);
+        }
+        return new SectionSnapshot(data, bits, types);
+    }
+
+    public boolean isSingleValue() {
+        return bits == 0;
+    }
+
+    // isSingleValue() の場合のタイプ
+    public int getSingleType() {
+        return types[0];
+    }
+
+    // x, y, z はセクション内の座標 (0-15)
+    public int getType(int x, int y, int z) {
+        if (bits == 0) {
+            return types[0];
+        }
+        int index = y << 8 | z << 4 | x;
+        int slot = index / elementsPerLong;
+        int shift = (index - slot * elementsPerLong) * bits;
+        int paletteIndex = (int) (data[slot] >>> shift) & mask;
+        return paletteIndex < types.length ? types[paletteIndex] : BlockPalette.UNKNOWN;
+    }
+}
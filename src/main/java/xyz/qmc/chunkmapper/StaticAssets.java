@@ -0,0 +1,97 @@
+package xyz.qmc.chunkmapper;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.Properties;
+
+/*
+ * ビューアーの静的ファイル
+ *
+ * assets/chunkmapper/web のファイルと、mod に同梱した three.js の webjar を起動時に一度だけ読み込み、
+ * gzip したものも作っておく。index.html 以外は内容のハッシュを含む URL (/assets/viewer.<hash>.js) で
+ * 配信して長期間キャッシュさせる。index.html は毎回 ETag で確認させ、
+ * その中の {{ファイル名}} をハッシュ付きの URL に置き換えておく。
+ */
+public class StaticAssets {
+    private static final String WEB_ROOT = "/assets/chunkmapper/web/";
+    private static final String URL_PREFIX = "/assets/";
+    private static final String THREE_POM = "/META-INF/maven/org.webjars.npm/three/pom.properties";
+    private static final String IMMUTABLE = "public, max-age=31536000, immutable";
+
+    public record Asset(String contentType, byte[] body, byte[] gzipped, String etag, String cacheControl) {
+    }
+
+    private final Map<String, Asset> assets = new HashMap<>(); // URL のパス → 内容
+
+    public StaticAssets() throws IOException {
+        Map<String, String> urls = new HashMap<>();
+        add(urls, "three.min.js", read(threeJsPath()), "text/javascript; charset=utf-8");
+        add(urls, "viewer.js", read(WEB_ROOT + "viewer.js"), "text/javascript; charset=utf-8");
+        add(urls, "mesher.js", read(WEB_ROOT + "mesher.js"), "text/javascript; charset=utf-8");
+        add(urls, "viewer.css", read(WEB_ROOT + "viewer.css"), "text/css; charset=utf-8");
+
+        String html = new String(read(WEB_ROOT + "index.html"), StandardCharsets.UTF_8);
+        for (Map.Entry<String, String> url : urls.entrySet()) {
+            html = html.replace("{{" + url.getKey() + "}}", url.getValue());
+        }
+        Asset index = create("text/html; charset=utf-8", html.getBytes(StandardCharsets.UTF_8), "no-cache");
+        assets.put("/", index);
+        assets.put("/index.html", index);
+    }
+
+    // なければ null
+    public Asset get(String path) {
+        return assets.get(path);
+    }
+
+    private void add(Map<String, String> urls, String name, byte[] body, String contentType) {
+        Asset asset = create(contentType, body, IMMUTABLE);
+        int dot = name.indexOf('.');
+        String url = URL_PREFIX + name.substring(0, dot) + "." + hash(body) + name.substring(dot);
+        assets.put(url, asset);
+        urls.put(name, url);
+    }
+
+    // 圧縮しても小さくならなければ gzipped は null
+    private static Asset create(String contentType, byte[] body, String cacheControl) {
+        byte[] gzipped = ChunkResponseCache.gzip(body);
+        return new Asset(contentType, body, gzipped.length < body.length ? gzipped : null,
+                "\"" + hash(body) + "\"", cacheControl);
+    }
+
+    // webjar のバージョンはビルド時の依存関係で決まるので、同梱された pom.properties から読む
+    private static String threeJsPath() throws IOException {
+        Properties pom = new Properties();
+        try (InputStream in = StaticAssets.class.getResourceAsStream(THREE_POM)) {
+            if (in == null) {
+                throw new IOException("three.js webjar is missing from the classpath");
+            }
+            pom.load(in);
+        }
+        return "/META-INF/resources/webjars/three/" + pom.getProperty("version") + "/build/three.min.js";
+    }
+
+    private static byte[] read(String path) throws IOException {
+        try (InputStream in = StaticAssets.class.getResourceAsStream(path)) {
+            if (in == null) {
+                throw new IOException("Missing viewer resource " + path);
+            }
+            return in.readAllBytes();
+        }
+    }
+
+    private static String hash(byte[] body) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(body);
+            return HexFormat.of().formatHex(digest, 0, 6);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
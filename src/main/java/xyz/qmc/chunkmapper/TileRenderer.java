@@ -0,0 +1,218 @@
+package xyz.qmc.chunkmapper;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/*
+ * 真上から見た2Dタイル (/tiles/{dim}/{z}/{x}/{y})
+ *
+ * 1タイル = TILE_SIZE x TILE_SIZE ピクセル。ズームレベル z では 1ピクセル = 2^z x 2^z ブロックで、
+ * 16ピクセル四方に 1, 4, 16 チャンクが入る (z = 0, 1, 2)。タイル座標 (x, y) はワールドの (X, Z) 方向。
+ * 各ピクセルは担当範囲の列のうち最も高いブロックのタイプと高さ。
+ *
+ * 生データ形式 (ビッグエンディアン):
+ *   u32  magic "CMTL"
+ *   u8   バージョン, u8 ズームレベル, u16 タイルサイズ S
+ *   S x S x (u16 ブロックタイプID (0xFFFF = データなし), i16 高さ)  行 = Z, 列 = X
+ *
+ * タイルはチャンクの更新・削除の通知で破棄し、次の要求で作り直す。
+ * ETag は生データとパレットから作るので、作り直しても中身が同じなら変わらない（サーバーの再起動後も）。
+ */
+public class TileRenderer implements ChunkDataCollector.ChunkListener {
+    public static final int TILE_SIZE = 128;
+    public static final int MAX_ZOOM = 2;
+    public static final String RAW_CONTENT_TYPE = "application/x-chunkmapper-tile";
+    private static final int RAW_MAGIC = 0x434D544C; // "CMTL"
+    private static final int RAW_VERSION = 1;
+    private static final int NO_DATA = 0xFFFF;
+    private static final int MAX_TILES = 128; // キャッシュするタイル数の上限
+    public static final int MAX_AGE_SECONDS = 60; // ブラウザがタイルを確認せずに使う時間
+
+    public record TileKey(String dimension, int zoom, int tileX, int tileZ) {
+    }
+
+    public static final class Tile {
+        public final String etag;
+        public final byte[] raw;
+        private final int[] colors; // PNG 用 (0 = 透明)
+        private volatile byte[] png;
+
+        private Tile(String etag, byte[] raw, int[] colors) {
+            this.etag = etag;
+            this.raw = raw;
+            this.colors = colors;
+        }
+
+        public byte[] getPng() {
+            byte[] result = png;
+            if (result == null) {
+                result = encodePng(colors);
+                png = result;
+            }
+            return result;
+        }
+    }
+
+    private final ChunkDataCollector collector;
+    // アクセス順。作成中のタイルも future として入れておき、無効化されたら取り除く
+    private final Map<TileKey, CompletableFuture<Tile>> cache = Collections.synchronizedMap(
+            new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<TileKey, CompletableFuture<Tile>> eldest) {
+                    return size() > MAX_TILES;
+                }
+            });
+
+    private final Metrics.Counter hits;
+    private final Metrics.Counter misses;
+    private final Metrics.Histogram renderTime;
+
+    public TileRenderer(ChunkDataCollector collector) {
+        this.collector = collector;
+
+        Metrics metrics = collector.getMetrics();
+        String help = "Lookups in the /api/chunks response cache and the tile cache";
+        hits = metrics.counter("chunkmapper_cache_requests_total", help, "cache", "tiles", "result", "hit");
+        misses = metrics.counter("chunkmapper_cache_requests_total", help, "cache", "tiles", "result", "miss");
+        renderTime = metrics.histogram("chunkmapper_tile_render_seconds", "Time to render one tile from chunk data");
+    }
+
+    public Tile getTile(TileKey key) {
+        CompletableFuture<Tile> created = new CompletableFuture<>();
+        CompletableFuture<Tile> future = cache.putIfAbsent(key, created);
+        if (future != null) {
+            hits.inc();
+            return future.join();
+        }
+        misses.inc();
+        long start = System.nanoTime();
+        try {
+            created.complete(render(key));
+        } catch (RuntimeException e) {
+            cache.remove(key, created);
+            created.completeExceptionally(e);
+            throw e;
+        } finally {
+            renderTime.observeNanos(System.nanoTime() - start);
+        }
+        return created.join();
+    }
+
+    @Override
+    public void onChunkUpdated(ChunkDataCollector.CompactChunkData data) {
+        invalidate(data.dimension, data.chunkX, data.chunkZ);
+    }
+
+    @Override
+    public void onChunkRemoved(ChunkDataCollector.RemovedChunk removed) {
+        invalidate(removed.dimension, removed.chunkX, removed.chunkZ);
+    }
+
+    private void invalidate(String dimension, int chunkX, int chunkZ) {
+        for (int zoom = 0; zoom <= MAX_ZOOM; zoom++) {
+            int chunksPerTile = chunksPerTile(zoom);
+            cache.remove(new TileKey(dimension, zoom,
+                    Math.floorDiv(chunkX, chunksPerTile), Math.floorDiv(chunkZ, chunksPerTile)));
+        }
+    }
+
+    private static int chunksPerTile(int zoom) {
+        return (TILE_SIZE << zoom) / 16;
+    }
+
+    private Tile render(TileKey key) {
+        int zoom = key.zoom();
+        int chunksPerTile = chunksPerTile(zoom);
+        int chunkPixels = 16 >> zoom; // 1チャンクが占めるピクセル数（1未満にはならない）
+        int firstChunkX = key.tileX() * chunksPerTile;
+        int firstChunkZ = key.tileZ() * chunksPerTile;
+
+        int[] types = new int[TILE_SIZE * TILE_SIZE];
+        int[] heights = new int[TILE_SIZE * TILE_SIZE];
+        Arrays.fill(types, NO_DATA);
+        Arrays.fill(heights, Integer.MIN_VALUE);
+
+        for (int cz = 0; cz < chunksPerTile; cz++) {
+            for (int cx = 0; cx < chunksPerTile; cx++) {
+                // チャンクごとに持っている列の一番上のブロックだけを読む（コールドのチャンクも展開しない）
+                int[] surface = collector.getSurface(key.dimension(), firstChunkX + cx, firstChunkZ + cz);
+                if (surface == null) {
+                    continue;
+                }
+                for (int packed : surface) {
+                    int px = cx * chunkPixels + (PackedBlocks.x(packed) >> zoom);
+                    int pz = cz * chunkPixels + (PackedBlocks.z(packed) >> zoom);
+                    int index = pz * TILE_SIZE + px;
+                    int y = PackedBlocks.y(packed);
+                    if (y >= heights[index]) {
+                        heights[index] = y;
+                        types[index] = PackedBlocks.type(packed);
+                    }
+                }
+            }
+        }
+
+        ByteBuffer raw = ByteBuffer.allocate(8 + TILE_SIZE * TILE_SIZE * 4);
+        raw.putInt(RAW_MAGIC);
+        raw.put((byte) RAW_VERSION);
+        raw.put((byte) zoom);
+        raw.putShort((short) TILE_SIZE);
+
+        BlockPalette palette = collector.getPalette();
+        int[] colors = new int[TILE_SIZE * TILE_SIZE];
+        for (int i = 0; i < types.length; i++) {
+            boolean empty = types[i] == NO_DATA;
+            raw.putShort((short) types[i]);
+            raw.putShort((short) (empty ? 0 : heights[i]));
+            if (!empty) {
+                // 北側のピクセルより高ければ明るく、低ければ暗くする（地図アイテムと同じ陰影）
+                int north = i >= TILE_SIZE && types[i - TILE_SIZE] != NO_DATA ? heights[i - TILE_SIZE] : heights[i];
+                double shade = heights[i] > north ? 1.1 : heights[i] < north ? 0.82 : 1.0;
+                colors[i] = 0xFF000000 | shade(palette.getColor(types[i]), shade);
+            }
+        }
+
+        // 色はパレットで決まるので、PNG 用にパレットの指紋も含める
+        String etag = "\"" + palette.getFingerprint() + "-" + hash(raw.array()) + "\"";
+        return new Tile(etag, raw.array(), colors);
+    }
+
+    private static String hash(byte[] body) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(body);
+            return HexFormat.of().formatHex(digest, 0, 16);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static int shade(int rgb, double factor) {
+        int r = Math.min(255, (int) (((rgb >> 16) & 0xFF) * factor));
+        int g = Math.min(255, (int) (((rgb >> 8) & 0xFF) * factor));
+        int b = Math.min(255, (int) ((rgb & 0xFF) * factor));
+        return r << 16 | g << 8 | b;
+    }
+
+    private static byte[] encodePng(int[] argb) {
+        BufferedImage image = new BufferedImage(TILE_SIZE, TILE_SIZE, BufferedImage.TYPE_INT_ARGB);
+        image.setRGB(0, 0, TILE_SIZE, TILE_SIZE, argb, 0, TILE_SIZE);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(8192);
+        try {
+            ImageIO.write(image, "png", bytes);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+}
@@ -7,19 +7,85 @@ import com.sun.net.httpserver.HttpExchange;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
 import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class WebServer {
+    private static final int LARGE_RESPONSE_BYTES = 256 * 1024; // これ以上の応答は同時送信数を制限する
+    private static final long LARGE_RESPONSE_WAIT_MILLIS = 2000;
+
     private HttpServer server;
     private final ChunkDataCollector dataCollector;
+    private final ChunkResponseCache responseCache;
+    private final ChunkEventStream eventStream;
+    private final TileRenderer tileRenderer;
+    private final StaticAssets assets;
+    private final ExecutorService executor;
+    private final Semaphore largeResponses;
+    private final AtomicInteger activeRequests = new AtomicInteger();
 
-    public WebServer(int port, ChunkDataCollector dataCollector) throws IOException {
+    public WebServer(ChunkMapperConfig config, ChunkDataCollector dataCollector) throws IOException {
         this.dataCollector = dataCollector;
-        this.server = HttpServer.create(new InetSocketAddress(port), 0);
+        this.responseCache = new ChunkResponseCache(dataCollector);
+        this.eventStream = new ChunkEventStream(dataCollector);
+        this.tileRenderer = new TileRenderer(dataCollector);
+        this.assets = new StaticAssets();
+        this.largeResponses = new Semaphore(Math.max(1, config.maxLargeResponses));
+        dataCollector.addListener(eventStream);
+        dataCollector.addListener(tileRenderer);
+
+        // HttpServer 実装はこれらを最初の生成時に一度だけ読むので、作成前に設定する
+        configureConnections(config);
+        this.server = HttpServer.create(new InetSocketAddress(config.port), 0);
+
+        server.createContext("/", instrument("assets", new AssetHandler()));
+        server.createContext("/api/chunks", instrument("chunks", new ChunksApiHandler()));
+        server.createContext("/api/stats", instrument("stats", new StatsApiHandler()));
+        server.createContext("/api/palette", instrument("palette", new PaletteApiHandler()));
+        server.createContext("/api/dimensions", instrument("dimensions", new DimensionsApiHandler()));
+        server.createContext("/api/metrics", instrument("metrics", new MetricsApiHandler()));
+        server.createContext("/tiles/", instrument("tiles", new TilesHandler()));
+        server.createContext("/api/stream", instrument("stream", new StreamHandler()));
+
+        this.executor = createExecutor(config);
+        server.setExecutor(executor);
+
+        Metrics metrics = dataCollector.getMetrics();
+        metrics.gauge("chunkmapper_http_active_requests", "HTTP requests currently being handled", activeRequests::get);
+        if (executor instanceof ThreadPoolExecutor pool) {
+            metrics.queueDepth("http", () -> pool.getQueue().size());
+        }
+    }
 
-        server.createContext("/", new IndexHandler());
-        server.createContext("/api/chunks", new ChunksApiHandler());
-        server.setExecutor(null);
+    // エンドポイントごとのリクエスト数・処理時間・応答のバイト数を記録する
+    private HttpHandler instrument(String endpoint, HttpHandler handler) {
+        Metrics metrics = dataCollector.getMetrics();
+        Metrics.Histogram time = metrics.histogram("chunkmapper_http_request_seconds",
+                "Time to handle an HTTP request including sending the response", "endpoint", endpoint);
+        Metrics.Counter bytes = metrics.counter("chunkmapper_http_response_bytes_total",
+                "HTTP response body bytes as sent (after gzip)", "endpoint", endpoint);
+        return exchange -> {
+            long start = System.nanoTime();
+            activeRequests.incrementAndGet();
+            try {
+                handler.handle(exchange);
+            } finally {
+                activeRequests.decrementAndGet();
+                time.observeNanos(System.nanoTime() - start);
+                // 固定長の応答では HttpServer が Content-length を設定する（ストリームは含まない）
+                String length = exchange.getResponseHeaders().getFirst("Content-length");
+                if (length != null) {
+                    bytes.add(Long.parseLong(length));
+                }
+                metrics.counter("chunkmapper_http_requests_total", "HTTP requests by endpoint and status code",
+                        "endpoint", endpoint, "code", Integer.toString(exchange.getResponseCode())).inc();
+            }
+        };
     }
 
     public void start() {
@@ -27,16 +93,94 @@ public class WebServer {
     }
 
     public void stop() {
+        dataCollector.removeListener(eventStream);
+        dataCollector.removeListener(tileRenderer);
+        eventStream.close();
         server.stop(0);
+        executor.shutdownNow();
+    }
+
+    // リクエストの読み込みタイムアウトと keep-alive 接続の保持数・時間。
+    // maxRspTime は /api/stream の長時間接続も切ってしまうので設定しない。
+    // JVM 起動オプションで指定済みの値は上書きしない
+    private static void configureConnections(ChunkMapperConfig config) {
+        setDefaultProperty("sun.net.httpserver.maxReqTime", config.requestTimeoutSeconds);
+        setDefaultProperty("sun.net.httpserver.idleInterval", config.keepAliveSeconds);
+        setDefaultProperty("sun.net.httpserver.maxIdleConnections", config.maxIdleConnections);
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+    }
+
+    private static void setDefaultProperty(String key, int value) {
+        if (System.getProperty(key) == null && value > 0) {
+            System.setProperty(key, Integer.toString(value));
+        }
+    }
+
+    // auto: 仮想スレッドが使えれば（Java 21 以降）それを使い、なければ有界スレッドプール
+    private static ExecutorService createExecutor(ChunkMapperConfig config) {
+        String mode = config.httpExecutor.toLowerCase();
+        if (mode.equals("virtual") || mode.equals("auto")) {
+            ExecutorService virtual = newVirtualThreadExecutor();
+            if (virtual != null) {
+                ChunkMapperMod.LOGGER.info("Web server using virtual threads");
+                return virtual;
+            }
+            if (mode.equals("virtual")) {
+                ChunkMapperMod.LOGGER.warn("Virtual threads are not available on this JVM, falling back to a thread pool");
+            }
+        } else if (!mode.equals("pool")) {
+            ChunkMapperMod.LOGGER.warn("Unknown httpExecutor '{}', using a thread pool", config.httpExecutor);
+        }
+
+        int threads = Math.max(1, config.httpThreads);
+        AtomicInteger threadId = new AtomicInteger();
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, config.httpQueueSize)), runnable -> {
+            Thread thread = new Thread(runnable, "ChunkMapper-Http-" + threadId.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }, new ThreadPoolExecutor.CallerRunsPolicy()); // あふれたらディスパッチャ自身が処理し、受け付けを遅らせる
+        pool.allowCoreThreadTimeOut(true);
+        ChunkMapperMod.LOGGER.info("Web server using {} threads", threads);
+        return pool;
+    }
+
+    // Java 17 でもビルドできるようにリフレクションで呼ぶ
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
     }
 
-    private class IndexHandler implements HttpHandler {
+    // ビューアーのファイルは起動時に作ったバイト列をそのまま送る
+    private class AssetHandler implements HttpHandler {
         @Override
         public void handle(HttpExchange exchange) throws IOException {
-            String html = getHtmlPage();
-            byte[] response = html.getBytes(StandardCharsets.UTF_8);
+            StaticAssets.Asset asset = assets.get(exchange.getRequestURI().getPath());
+            if (asset == null) {
+                sendError(exchange, 404, "Not found");
+                return;
+            }
 
-            exchange.getResponseHeaders().set("Content-Type", "text/html; charset=UTF-8");
+            exchange.getResponseHeaders().set("Cache-Control", asset.cacheControl());
+            exchange.getResponseHeaders().set("ETag", asset.etag());
+            exchange.getResponseHeaders().set("Vary", "Accept-Encoding");
+            if (matchesEtag(exchange, asset.etag())) {
+                exchange.sendResponseHeaders(304, -1);
+                exchange.close();
+                return;
+            }
+
+            byte[] response = asset.body();
+            if (asset.gzipped() != null && acceptsGzip(exchange)) {
+                response = asset.gzipped();
+                exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+            }
+            exchange.getResponseHeaders().set("Content-Type", asset.contentType());
             exchange.sendResponseHeaders(200, response.length);
 
             try (OutputStream os = exchange.getResponseBody()) {
@@ -48,8 +192,116 @@ public class WebServer {
     private class ChunksApiHandler implements HttpHandler {
         @Override
         public void handle(HttpExchange exchange) throws IOException {
-            String json = dataCollector.getChunkDataAsJson();
-            byte[] response = json.getBytes(StandardCharsets.UTF_8);
+            Map<String, String> params = parseQuery(exchange.getRequestURI());
+            long since;
+            try {
+                since = Long.parseLong(params.getOrDefault("since", "-1"));
+            } catch (NumberFormatException e) {
+                sendError(exchange, 400, "Invalid since parameter");
+                return;
+            }
+            ChunkQuery query;
+            try {
+                query = ChunkQuery.parse(params);
+            } catch (IllegalArgumentException e) {
+                sendError(exchange, 400, e.getMessage());
+                return;
+            }
+
+            // since なしの JSON は従来どおりチャンクの配列を返す
+            ChunkResponseCache.Format format;
+            if (wantsBinary(exchange)) {
+                format = ChunkResponseCache.Format.BINARY;
+            } else if (since >= 0) {
+                format = ChunkResponseCache.Format.JSON_DELTA;
+            } else {
+                format = ChunkResponseCache.Format.JSON_ARRAY;
+            }
+
+            exchange.getResponseHeaders().set("Access-Control-Allow-Origin", "*");
+            exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+            exchange.getResponseHeaders().set("Vary", "Accept, Accept-Encoding");
+
+            // 公開済みスナップショットが変わっていなければシリアライズせずに 304
+            String etag = responseCache.currentEtag(format, query);
+            if (matchesEtag(exchange, etag)) {
+                exchange.getResponseHeaders().set("ETag", etag);
+                exchange.sendResponseHeaders(304, -1);
+                exchange.close();
+                return;
+            }
+
+            ChunkResponseCache.CachedResponse cached = responseCache.get(format, since, query);
+            boolean gzip = acceptsGzip(exchange);
+            byte[] response = gzip ? cached.gzip() : cached.identity();
+
+            // 遅いクライアントへの大きな応答がスレッドを占有し続けないよう同時送信数を制限する
+            boolean large = response.length >= LARGE_RESPONSE_BYTES;
+            if (large && !tryAcquireLargeResponse()) {
+                exchange.getResponseHeaders().set("Retry-After", "2");
+                sendError(exchange, 503, "Server busy");
+                return;
+            }
+
+            try {
+                exchange.getResponseHeaders().set("Content-Type", cached.contentType());
+                exchange.getResponseHeaders().set("ETag", cached.etag());
+                if (gzip) {
+                    exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+                }
+                exchange.sendResponseHeaders(200, response.length);
+
+                try (OutputStream os = exchange.getResponseBody()) {
+                    os.write(response);
+                }
+            } finally {
+                if (large) {
+                    largeResponses.release();
+                }
+            }
+        }
+
+        private boolean tryAcquireLargeResponse() {
+            try {
+                return largeResponses.tryAcquire(LARGE_RESPONSE_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+    }
+
+    // 接続を開いたままにして、以降の送信はストリーム側のスレッドが行う
+    private class StreamHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            Map<String, String> params = parseQuery(exchange.getRequestURI());
+            long since;
+            ChunkQuery query;
+            try {
+                since = Long.parseLong(params.getOrDefault("since", "0"));
+            } catch (NumberFormatException e) {
+                sendError(exchange, 400, "Invalid since parameter");
+                return;
+            }
+            try {
+                query = ChunkQuery.parse(params);
+            } catch (IllegalArgumentException e) {
+                sendError(exchange, 400, e.getMessage());
+                return;
+            }
+
+            if (!eventStream.open(exchange, since, query)) {
+                exchange.getResponseHeaders().set("Retry-After", "10");
+                sendError(exchange, 503, "Too many stream clients");
+            }
+        }
+    }
+
+    private class StatsApiHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            byte[] response = dataCollector.getStatsAsJson().getBytes(StandardCharsets.UTF_8);
 
             exchange.getResponseHeaders().set("Content-Type", "application/json");
             exchange.getResponseHeaders().set("Access-Control-Allow-Origin", "*");
@@ -61,482 +313,168 @@ public class WebServer {
         }
     }
 
-    private String getHtmlPage() {
-        return """
-<!DOCTYPE html>
-<html lang="ja">
-<head>
-    <meta charset="UTF-8">
-    <meta name="viewport" content="width=device-width, initial-scale=1.0">
-    <title>Minecraft 3D Block Mapper</title>
-    <style>
-        body { 
-            margin: 0; 
-            overflow: hidden; 
-            font-family: 'Segoe UI', Arial, sans-serif; 
-            background: #0a0a0a; 
-            color: white; 
-        }
-        #info {
-            position: absolute;
-            top: 15px;
-            left: 15px;
-            background: rgba(0,0,0,0.85);
-            padding: 20px;
-            border-radius: 8px;
-            font-size: 14px;
-            z-index: 100;
-            border: 1px solid rgba(255,255,255,0.1);
-            backdrop-filter: blur(10px);
-        }
-        #info h3 {
-            margin: 0 0 15px 0;
-            font-size: 18px;
-            color: #4a9eff;
-        }
-        #settings {
-            position: absolute;
-            bottom: 15px;
-            right: 15px;
-            background: rgba(0,0,0,0.85);
-            padding: 15px;
-            border-radius: 8px;
-            z-index: 100;
-            border: 1px solid rgba(255,255,255,0.1);
-            font-size: 12px;
-        }
-        .setting-item {
-            margin: 8px 0;
-        }
-        .setting-item label {
-            margin-bottom: 0;
-        }
-        input[type="range"] {
-            width: 150px;
-        }
-        input[type="number"] {
-            width: 60px;
-            background: #2a2a2a;
-            color: white;
-            border: 1px solid #444;
-            padding: 5px;
-            border-radius: 3px;
-        }
-        .range-inputs {
-            display: flex;
-            gap: 10px;
-            align-items: center;
-            margin-top: 5px;
-        }
-        #controls {
-            position: absolute;
-            top: 15px;
-            right: 15px;
-            background: rgba(0,0,0,0.85);
-            padding: 20px;
-            border-radius: 8px;
-            z-index: 100;
-            border: 1px solid rgba(255,255,255,0.1);
-            backdrop-filter: blur(10px);
-        }
-        #loading {
-            position: absolute;
-            top: 50%;
-            left: 50%;
-            transform: translate(-50%, -50%);
-            background: rgba(0,0,0,0.9);
-            padding: 30px 50px;
-            border-radius: 10px;
-            font-size: 18px;
-            z-index: 200;
-            border: 2px solid #4a9eff;
-        }
-        .control-group {
-            margin: 10px 0;
-        }
-        label {
-            display: block;
-            margin-bottom: 5px;
-            color: #aaa;
-            font-size: 12px;
-            text-transform: uppercase;
-        }
-        button {
-            background: linear-gradient(135deg, #667eea 0%, #764ba2 100%);
-            color: white;
-            border: none;
-            padding: 10px 20px;
-            margin: 5px;
-            cursor: pointer;
-            border-radius: 5px;
-            font-size: 14px;
-            transition: all 0.3s;
-            width: 100%;
-        }
-        button:hover { 
-            transform: translateY(-2px);
-            box-shadow: 0 5px 15px rgba(102, 126, 234, 0.4);
-        }
-        select {
-            background: #2a2a2a;
-            color: white;
-            border: 1px solid #444;
-            padding: 10px;
-            margin: 5px 0;
-            border-radius: 5px;
-            width: 100%;
-            font-size: 14px;
-        }
-        .stat {
-            margin: 8px 0;
-            padding: 8px;
-            background: rgba(74, 158, 255, 0.1);
-            border-radius: 4px;
-            border-left: 3px solid #4a9eff;
-        }
-        .stat-value {
-            color: #4a9eff;
-            font-weight: bold;
-        }
-        #progressBar {
-            width: 100%;
-            height: 4px;
-            background: rgba(255,255,255,0.1);
-            margin-top: 10px;
-            border-radius: 2px;
-            overflow: hidden;
-        }
-        #progressFill {
-            height: 100%;
-            background: linear-gradient(90deg, #667eea 0%, #764ba2 100%);
-            width: 0%;
-            transition: width 0.3s;
+    // チャンクのある次元の名前の配列。アグリゲーターでは "ソース名/次元名"
+    private class DimensionsApiHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            byte[] response = dataCollector.getDimensionsAsJson().getBytes(StandardCharsets.UTF_8);
+
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.getResponseHeaders().set("Access-Control-Allow-Origin", "*");
+            exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+            exchange.sendResponseHeaders(200, response.length);
+
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(response);
+            }
         }
-    </style>
-</head>
-<body>
-    <div id="loading">
-        <div>マップを読み込み中...</div>
-        <div id="progressBar"><div id="progressFill"></div></div>
-    </div>
-    <div id="info">
-        <h3>🗺️ Minecraft 3D Mapper</h3>
-        <div class="stat">チャンク数: <span class="stat-value" id="chunkCount">0</span></div>
-        <div class="stat">ブロック数: <span class="stat-value" id="blockCount">0</span></div>
-        <div class="stat">次元: <span class="stat-value" id="dimension">-</span></div>
-        <div class="stat">FPS: <span class="stat-value" id="fps">0</span></div>
-    </div>
-    <div id="controls">
-        <div class="control-group">
-            <label>次元</label>
-            <select id="dimensionSelect">
-                <option value="overworld">オーバーワールド</option>
-                <option value="nether">ネザー</option>
-                <option value="end">エンド</option>
-            </select>
-        </div>
-        <div class="control-group">
-            <button id="resetCamera">📷 カメラリセット</button>
-        </div>
-    </div>
-    <div id="settings">
-        <h4 style="margin-top: 0;">⚙️ 設定</h4>
-        <div class="setting-item">
-            <label>描画品質: <span id="qualityValue">中</span></label>
-            <input type="range" id="qualitySlider" min="1" max="3" value="2">
-        </div>
-        <div class="setting-item">
-            <label>視野距離: <span id="viewDistValue">300</span></label>
-            <input type="range" id="viewDistSlider" min="100" max="1000" value="300" step="50">
-        </div>
-        <div class="setting-item">
-            <label>表示高度範囲</label>
-            <div class="range-inputs">
-                <input type="number" id="minHeight" value="50" min="-64" max="319" step="1">
-                <span>～</span>
-                <input type="number" id="maxHeight" value="100" min="-64" max="319" step="1">
-            </div>
-        </div>
-        <div class="setting-item">
-            <button id="applyHeight" style="margin: 5px 0; padding: 8px;">高度適用</button>
-        </div>
-    </div>
-    <script src="https://cdnjs.cloudflare.com/ajax/libs/three.js/r128/three.min.js"></script>
-    <script>
-        let scene, camera, renderer;
-        let currentDimension = 'overworld';
-        let chunkMeshes = new Map(); // チャンクごとのメッシュグループ
-        let lastTime = performance.now();
-        let frameCount = 0;
-        let renderQuality = 2;
-        let viewDistance = 300;
-        let minHeight = 50;
-        let maxHeight = 100;
-        let totalBlockCount = 0;
-        
-        // ブロックタイプID to 色マッピング
-        const blockColors = {
-            0: 0x808080,  // unknown
-            1: 0x7cbd6b,  // grass_block
-            2: 0x8b6f47,  // dirt
-            3: 0x7f7f7f,  // stone
-            4: 0xdcd3a8,  // sand
-            5: 0x3f76e4,  // water
-            6: 0x6f5436,  // oak_log
-            7: 0x6ba82c,  // oak_leaves
-            8: 0xffffff,  // snow
-            9: 0xb0e0e6,  // ice
-            10: 0x723232, // netherrack
-            11: 0xe3e8a0, // end_stone
-            12: 0x8b8378, // gravel
-            13: 0x7a7a7a, // cobblestone
-            14: 0x565656, // bedrock
-            15: 0xa0a0a0, // clay
-            16: 0x5e4830, // soul_sand
-            17: 0x6f5f5f, // mycelium
-            18: 0x5c4c2c, // podzol
-            19: 0x7a5c3a, // coarse_dirt
-            20: 0xe0c9a0, // sandstone
-            21: 0xb8945f, // oak_planks
-            22: 0x4d3a2e, // spruce_log
-            23: 0xd7cb8d, // birch_log
-            24: 0x6f5436, // jungle_log
-            25: 0x2d5a2d, // spruce_leaves
-            26: 0x80a755, // birch_leaves
-            27: 0x22b14c, // jungle_leaves
-            28: 0xc0f0ff, // glass
-            29: 0xeeeeee, // wool
-            30: 0x985542  // terracotta
-        };
-        
-        function init() {
-            scene = new THREE.Scene();
-            scene.background = new THREE.Color(0x87ceeb);
-            scene.fog = new THREE.Fog(0x87ceeb, viewDistance * 0.5, viewDistance);
-            
-            camera = new THREE.PerspectiveCamera(75, window.innerWidth / window.innerHeight, 0.1, viewDistance * 2);
-            camera.position.set(50, 100, 50);
-            camera.lookAt(0, 50, 0);
-            
-            renderer = new THREE.WebGLRenderer({ 
-                antialias: renderQuality >= 2,
-                powerPreference: "high-performance"
-            });
-            renderer.setSize(window.innerWidth, window.innerHeight);
-            renderer.setPixelRatio(renderQuality >= 3 ? window.devicePixelRatio : 1);
-            document.body.appendChild(renderer.domElement);
-            
-            // 照明
-            const ambientLight = new THREE.AmbientLight(0xffffff, 0.7);
-            scene.add(ambientLight);
-            
-            const directionalLight = new THREE.DirectionalLight(0xffffff, 0.5);
-            directionalLight.position.set(50, 100, 50);
-            scene.add(directionalLight);
-            
-            // イベントリスナー
-            window.addEventListener('resize', onWindowResize);
-            
-            document.getElementById('dimensionSelect').addEventListener('change', (e) => {
-                currentDimension = e.target.value;
-                updateChunks();
-            });
-            
-            document.getElementById('resetCamera').addEventListener('click', () => {
-                camera.position.set(50, 100, 50);
-                camera.lookAt(0, 50, 0);
-            });
-            
-            document.getElementById('qualitySlider').addEventListener('input', (e) => {
-                renderQuality = parseInt(e.target.value);
-                const labels = ['低', '中', '高'];
-                document.getElementById('qualityValue').textContent = labels[renderQuality - 1];
-                renderer.setPixelRatio(renderQuality >= 3 ? window.devicePixelRatio : 1);
-                renderer.antialias = renderQuality >= 2;
-            });
-            
-            document.getElementById('viewDistSlider').addEventListener('input', (e) => {
-                viewDistance = parseInt(e.target.value);
-                document.getElementById('viewDistValue').textContent = viewDistance;
-                scene.fog.near = viewDistance * 0.5;
-                scene.fog.far = viewDistance;
-                camera.far = viewDistance * 2;
-                camera.updateProjectionMatrix();
-            });
-            
-            document.getElementById('applyHeight').addEventListener('click', () => {
-                minHeight = parseInt(document.getElementById('minHeight').value);
-                maxHeight = parseInt(document.getElementById('maxHeight').value);
-                
-                if (minHeight >= maxHeight) {
-                    alert('最低高度は最高高度より低くしてください');
+    }
+
+    // /tiles/{dim}/{z}/{x}/{y}.png または .raw（拡張子なしは PNG）
+    private class TilesHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            String[] parts = exchange.getRequestURI().getRawPath().split("/");
+            // "", "tiles", dim, z, x, y
+            if (parts.length != 6) {
+                sendError(exchange, 404, "Not found");
+                return;
+            }
+
+            String dimension = URLDecoder.decode(parts[2], StandardCharsets.UTF_8);
+            String last = parts[5];
+            boolean raw = last.endsWith(".raw");
+            int dot = last.indexOf('.');
+            if (dot >= 0) {
+                last = last.substring(0, dot);
+            }
+
+            TileRenderer.TileKey key;
+            try {
+                int zoom = Integer.parseInt(parts[3]);
+                if (zoom < 0 || zoom > TileRenderer.MAX_ZOOM) {
+                    sendError(exchange, 404, "Unsupported zoom level");
                     return;
                 }
-                
-                // 既存のチャンクを削除して再描画
-                chunkMeshes.forEach(group => {
-                    group.children.forEach(mesh => group.remove(mesh));
-                    scene.remove(group);
-                });
-                chunkMeshes.clear();
-                totalBlockCount = 0;
-                fetchChunks();
-            });
-            
-            setupControls();
-            
-            fetchChunks();
-            setInterval(fetchChunks, 3000);
-            animate();
+                key = new TileRenderer.TileKey(dimension, zoom, Integer.parseInt(parts[4]), Integer.parseInt(last));
+            } catch (NumberFormatException e) {
+                sendError(exchange, 400, "Invalid tile coordinates");
+                return;
+            }
+
+            TileRenderer.Tile tile = tileRenderer.getTile(key);
+            exchange.getResponseHeaders().set("Access-Control-Allow-Origin", "*");
+            // URL は固定で ETag は中身から作るので、しばらくはキャッシュをそのまま使わせる。
+            // ビューアーは更新を知ったタイルを no-cache で確認し直す
+            exchange.getResponseHeaders().set("Cache-Control", "max-age=" + TileRenderer.MAX_AGE_SECONDS);
+            exchange.getResponseHeaders().set("ETag", tile.etag);
+            if (matchesEtag(exchange, tile.etag)) {
+                exchange.sendResponseHeaders(304, -1);
+                exchange.close();
+                return;
+            }
+
+            byte[] response = raw ? tile.raw : tile.getPng();
+            exchange.getResponseHeaders().set("Content-Type", raw ? TileRenderer.RAW_CONTENT_TYPE : "image/png");
+            exchange.sendResponseHeaders(200, response.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(response);
+            }
         }
-        
-        function setupControls() {
-            let isDragging = false;
-            let previousMousePosition = { x: 0, y: 0 };
-            let velocity = { x: 0, y: 0 };
-            
-            renderer.domElement.addEventListener('mousedown', (e) => { 
-                isDragging = true;
-                velocity = { x: 0, y: 0 };
-            });
-            
-            renderer.domElement.addEventListener('mouseup', () => { 
-                isDragging = false; 
-            });
-            
-            renderer.domElement.addEventListener('mousemove', (e) => {
-                const deltaX = e.clientX - previousMousePosition.x;
-                const deltaY = e.clientY - previousMousePosition.y;
-                
-                if (isDragging) {
-                    const rotationSpeed = 0.005;
-                    
-                    const offset = new THREE.Vector3();
-                    offset.copy(camera.position);
-                    
-                    const distance = offset.length();
-                    const theta = Math.atan2(offset.x, offset.z);
-                    const phi = Math.acos(offset.y / distance);
-                    
-                    const newTheta = theta - deltaX * rotationSpeed;
-                    const newPhi = Math.max(0.1, Math.min(Math.PI - 0.1, phi - deltaY * rotationSpeed));
-                    
-                    camera.position.x = distance * Math.sin(newPhi) * Math.sin(newTheta);
-                    camera.position.y = distance * Math.cos(newPhi);
-                    camera.position.z = distance * Math.sin(newPhi) * Math.cos(newTheta);
-                    camera.lookAt(0, 50, 0);
-                }
-                
-                previousMousePosition = { x: e.clientX, y: e.clientY };
-            });
-            
-            renderer.domElement.addEventListener('wheel', (e) => {
-                e.preventDefault();
-                const zoomSpeed = 0.1;
-                const distance = camera.position.length();
-                const newDistance = Math.max(10, Math.min(500, distance + e.deltaY * zoomSpeed));
-                camera.position.multiplyScalar(newDistance / distance);
-            });
+    }
+
+    private class MetricsApiHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            byte[] response = dataCollector.getMetrics().format().getBytes(StandardCharsets.UTF_8);
+
+            exchange.getResponseHeaders().set("Content-Type", Metrics.CONTENT_TYPE);
+            exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+            exchange.sendResponseHeaders(200, response.length);
+
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(response);
+            }
         }
-        
-        function fetchChunks() {
-            fetch('/api/chunks')
-                .then(res => res.json())
-                .then(data => {
-                    updateChunks(data);
-                    document.getElementById('loading').style.display = 'none';
-                })
-                .catch(err => {
-                    console.error('Failed to fetch chunks:', err);
-                });
+    }
+
+    // パレットはサーバー起動中は変わらないので、一度だけシリアライズする
+    private class PaletteApiHandler implements HttpHandler {
+        private final byte[] response = dataCollector.getPaletteAsJson().getBytes(StandardCharsets.UTF_8);
+        private final String etag = "\"palette-" + dataCollector.getPalette().getFingerprint() + "\"";
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            exchange.getResponseHeaders().set("Access-Control-Allow-Origin", "*");
+            exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+            exchange.getResponseHeaders().set("ETag", etag);
+            if (matchesEtag(exchange, etag)) {
+                exchange.sendResponseHeaders(304, -1);
+                exchange.close();
+                return;
+            }
+
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, response.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(response);
+            }
         }
-        
-        function updateChunks(data) {
-            if (!data) return;
-            
-            const filteredData = data.filter(d => d.dimension === currentDimension);
-            
-            filteredData.forEach(chunkData => {
-                const key = `${chunkData.chunkX}_${chunkData.chunkZ}`;
-                
-                if (!chunkMeshes.has(key)) {
-                    // チャンクごとにグループを作成
-                    const chunkGroup = new THREE.Group();
-                    chunkGroup.position.set(chunkData.chunkX * 16, 0, chunkData.chunkZ * 16);
-                    
-                    // インスタンスド・メッシュを使用して効率化
-                    const blocksByType = new Map();
-                    
-                    // ブロックタイプごとに分類
-                    chunkData.blocks.forEach(block => {
-                        if (block.y >= minHeight && block.y <= maxHeight) {
-                            if (!blocksByType.has(block.type)) {
-                                blocksByType.set(block.type, []);
-                            }
-                            blocksByType.get(block.type).push(block);
-                        }
-                    });
-                    
-                    // タイプごとにインスタンスドメッシュを作成
-                    blocksByType.forEach((blocks, type) => {
-                        const geometry = new THREE.BoxGeometry(1, 1, 1);
-                        const material = new THREE.MeshLambertMaterial({
-                            color: blockColors[type] || 0x808080,
-                            flatShading: renderQuality < 3
-                        });
-                        
-                        const instancedMesh = new THREE.InstancedMesh(
-                            geometry,
-                            material,
-                            blocks.length
-                        );
-                        
-                        const matrix = new THREE.Matrix4();
-                        blocks.forEach((block, i) => {
-                            matrix.setPosition(block.x, block.y, block.z);
-                            instancedMesh.setMatrixAt(i, matrix);
-                            totalBlockCount++;
-                        });
-                        
-                        instancedMesh.instanceMatrix.needsUpdate = true;
-                        chunkGroup.add(instancedMesh);
-                    });
-                    
-                    scene.add(chunkGroup);
-                    chunkMeshes.set(key, chunkGroup);
-                }
-            });
-            
-            document.getElementById('chunkCount').textContent = chunkMeshes.size.toLocaleString();
-            document.getElementById('blockCount').textContent = totalBlockCount.toLocaleString();
-            document.getElementById('dimension').textContent = currentDimension;
+    }
+
+    private static void sendError(HttpExchange exchange, int status, String message) throws IOException {
+        byte[] response = message.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=UTF-8");
+        exchange.sendResponseHeaders(status, response.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(response);
         }
-        
-        function onWindowResize() {
-            camera.aspect = window.innerWidth / window.innerHeight;
-            camera.updateProjectionMatrix();
-            renderer.setSize(window.innerWidth, window.innerHeight);
+    }
+
+    private static boolean matchesEtag(HttpExchange exchange, String etag) {
+        String ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+        if (ifNoneMatch == null) {
+            return false;
         }
-        
-        function animate() {
-            requestAnimationFrame(animate);
-            
-            // FPS計算
-            frameCount++;
-            const currentTime = performance.now();
-            if (currentTime >= lastTime + 1000) {
-                document.getElementById('fps').textContent = frameCount;
-                frameCount = 0;
-                lastTime = currentTime;
+        for (String candidate : ifNoneMatch.split(",")) {
+            String value = candidate.trim();
+            if (value.startsWith("W/")) {
+                value = value.substring(2);
+            }
+            if (value.equals(etag) || value.equals("*")) {
+                return true;
             }
-            
-            renderer.render(scene, camera);
         }
-        
-        init();
-    </script>
-</body>
-</html>
-        """;
+        return false;
+    }
+
+    private static boolean acceptsGzip(HttpExchange exchange) {
+        String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+        return acceptEncoding != null && acceptEncoding.contains("gzip");
+    }
+
+    // ?format=bin または Accept ヘッダーでバイナリ形式を選択
+    private static boolean wantsBinary(HttpExchange exchange) {
+        String format = parseQuery(exchange.getRequestURI()).get("format");
+        if (format != null) {
+            return format.equals("bin");
+        }
+        String accept = exchange.getRequestHeaders().getFirst("Accept");
+        return accept != null && accept.contains(ChunkBinaryEncoder.CONTENT_TYPE);
+    }
+
+    private static Map<String, String> parseQuery(URI uri) {
+        Map<String, String> params = new HashMap<>();
+        String query = uri.getRawQuery();
+        if (query == null || query.isEmpty()) {
+            return params;
+        }
+        for (String pair : query.split("&")) {
+            int eq = pair.indexOf('=');
+            String key = eq >= 0 ? pair.substring(0, eq) : pair;
+            String value = eq >= 0 ? pair.substring(eq + 1) : "";
+            params.put(URLDecoder.decode(key, StandardCharsets.UTF_8), URLDecoder.decode(value, StandardCharsets.UTF_8));
+        }
+        return params;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,28 @@
+package xyz.qmc.chunkmapper.mixin;
+
+import net.minecraft.server.world.ServerWorld;
+import net.minecraft.server.world.ThreadedAnvilChunkStorage;
+import net.minecraft.world.chunk.Chunk;
+import net.minecraft.world.chunk.WorldChunk;
+import org.spongepowered.asm.mixin.Final;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.Shadow;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfoReturnable;
+import xyz.qmc.chunkmapper.ChunkMapperMod;
+
+// setBlockState を経由しない変更も拾えるよう、保存される変更済みチャンクもマークする
+@Mixin(ThreadedAnvilChunkStorage.class)
+public abstract class ThreadedAnvilChunkStorageMixin {
+    @Shadow
+    @Final
+    ServerWorld world;
+
+    @Inject(method = "save(Lnet/minecraft/world/chunk/Chunk;)Z", at = @At("HEAD"))
+    private void chunkmapper$onSave(Chunk chunk, CallbackInfoReturnable<Boolean> cir) {
+        if (chunk instanceof WorldChunk && chunk.needsSaving()) {
+            ChunkMapperMod.getDataCollector().markDirty(world, chunk.getPos().x, chunk.getPos().z);
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package xyz.qmc.chunkmapper.mixin;
+
+import net.minecraft.block.BlockState;
+import net.minecraft.server.world.ServerWorld;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.chunk.WorldChunk;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfoReturnable;
+import xyz.qmc.chunkmapper.ChunkMapperMod;
+
+// ブロックが変更されたチャンクを再抽出対象としてマークする
+@Mixin(WorldChunk.class)
+public abstract class WorldChunkMixin {
+    @Inject(method = "setBlockState", at = @At("RETURN"))
+    private void chunkmapper$onSetBlockState(BlockPos pos, BlockState state, boolean moved,
+                                             CallbackInfoReturnable<BlockState> cir) {
+        // 戻り値が null の場合は何も変わっていない
+        if (cir.getReturnValue() == null) {
+            return;
+        }
+        WorldChunk chunk = (WorldChunk) (Object) this;
+        if (chunk.getWorld() instanceof ServerWorld world) {
+            ChunkMapperMod.getDataCollector().markBlockChanged(world, pos.getX(), pos.getZ());
+        }
+    }
+}
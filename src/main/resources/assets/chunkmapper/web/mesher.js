@@ -0,0 +1,150 @@
+// チャンクのメッシュを作るワーカー (viewer.js から使う)
+//
+// チャンク内の見える面だけを1つの頂点バッファにまとめる。色はパレットの色を頂点カラーにするので、
+// メインスレッドでは全チャンクで1つのマテリアルを共有できる。
+// 面マスクがあればそれに従い、なければ同じチャンク内で隣に不透明なブロックがある面を省く。
+
+// 面の順番は面マスクのビット順 (bit0: -x, bit1: +x, bit2: -y, bit3: +y, bit4: -z, bit5: +z)
+const FACES = [
+    { dx: -1, dy: 0, dz: 0, corners: [[0, 0, 0], [0, 0, 1], [0, 1, 1], [0, 1, 0]] },
+    { dx: 1, dy: 0, dz: 0, corners: [[1, 0, 1], [1, 0, 0], [1, 1, 0], [1, 1, 1]] },
+    { dx: 0, dy: -1, dz: 0, corners: [[0, 0, 0], [1, 0, 0], [1, 0, 1], [0, 0, 1]] },
+    { dx: 0, dy: 1, dz: 0, corners: [[0, 1, 1], [1, 1, 1], [1, 1, 0], [0, 1, 0]] },
+    { dx: 0, dy: 0, dz: -1, corners: [[1, 0, 0], [0, 0, 0], [0, 1, 0], [1, 1, 0]] },
+    { dx: 0, dy: 0, dz: 1, corners: [[0, 0, 1], [1, 0, 1], [1, 1, 1], [0, 1, 1]] }
+];
+const DEFAULT_COLOR = 0x808080;
+
+let colors = new Map(); // ブロックタイプID → 色
+
+self.onmessage = (e) => {
+    const message = e.data;
+    if (message.palette) {
+        colors = new Map(message.palette);
+        return;
+    }
+    const result = buildMesh(message.chunk, message.minHeight, message.maxHeight);
+    result.token = message.token;
+    result.key = message.key;
+    self.postMessage(result, [result.positions.buffer, result.normals.buffer, result.colors.buffer, result.indices.buffer]);
+};
+
+function buildMesh(chunk, minHeight, maxHeight) {
+    // 表示する高さの範囲のブロックだけを残す
+    const blocks = [];
+    let minY = Infinity;
+    let maxY = -Infinity;
+    for (let i = 0; i < chunk.count; i++) {
+        const y = chunk.ys[i];
+        if (y >= minHeight && y <= maxHeight) {
+            blocks.push(i);
+            minY = Math.min(minY, y);
+            maxY = Math.max(maxY, y);
+        }
+    }
+    if (blocks.length === 0) {
+        return emptyMesh();
+    }
+
+    // 面マスクがないときの隣接判定用 (16 x 高さ x 16)
+    const height = maxY - minY + 1;
+    let occupied = null;
+    if (!chunk.faces) {
+        occupied = new Uint8Array(256 * height);
+        blocks.forEach(i => {
+            occupied[cell(chunk.xs[i], chunk.ys[i] - minY, chunk.zs[i])] = 1;
+        });
+    }
+
+    // 面の数を数えてからバッファを確保する
+    const masks = new Uint8Array(blocks.length);
+    let faceCount = 0;
+    blocks.forEach((i, n) => {
+        let mask = chunk.faces ? chunk.faces[i] : hiddenFaces(occupied, chunk.xs[i], chunk.ys[i] - minY, chunk.zs[i], height) ^ 0x3f;
+        // 範囲の上下端は、切り取ったブロックに隠れていた面も見せる
+        if (chunk.ys[i] === maxHeight) mask |= 1 << 3;
+        if (chunk.ys[i] === minHeight) mask |= 1 << 2;
+        masks[n] = mask;
+        faceCount += bitCount(mask);
+    });
+
+    const vertexCount = faceCount * 4;
+    const positions = new Float32Array(vertexCount * 3);
+    const normals = new Int8Array(vertexCount * 3);
+    const vertexColors = new Uint8Array(vertexCount * 3);
+    const indices = vertexCount > 0xffff ? new Uint32Array(faceCount * 6) : new Uint16Array(faceCount * 6);
+
+    let v = 0;
+    let t = 0;
+    blocks.forEach((i, n) => {
+        const mask = masks[n];
+        if (mask === 0) return;
+        // ブロックの中心を整数座標に置く
+        const x = chunk.xs[i] - 0.5;
+        const y = chunk.ys[i] - 0.5;
+        const z = chunk.zs[i] - 0.5;
+        const color = colors.has(chunk.types[i]) ? colors.get(chunk.types[i]) : DEFAULT_COLOR;
+        const r = (color >> 16) & 0xff;
+        const g = (color >> 8) & 0xff;
+        const b = color & 0xff;
+
+        for (let f = 0; f < 6; f++) {
+            if (!(mask & (1 << f))) continue;
+            const face = FACES[f];
+            indices[t++] = v;
+            indices[t++] = v + 1;
+            indices[t++] = v + 2;
+            indices[t++] = v;
+            indices[t++] = v + 2;
+            indices[t++] = v + 3;
+            for (const corner of face.corners) {
+                const p = v * 3;
+                positions[p] = x + corner[0];
+                positions[p + 1] = y + corner[1];
+                positions[p + 2] = z + corner[2];
+                normals[p] = face.dx * 127;
+                normals[p + 1] = face.dy * 127;
+                normals[p + 2] = face.dz * 127;
+                vertexColors[p] = r;
+                vertexColors[p + 1] = g;
+                vertexColors[p + 2] = b;
+                v++;
+            }
+        }
+    });
+
+    return { positions, normals, colors: vertexColors, indices, blockCount: blocks.length, minY, maxY };
+}
+
+// 隣に不透明なブロックがある面のビット。チャンクの外は見えるものとして扱う
+function hiddenFaces(occupied, x, y, z, height) {
+    let mask = 0;
+    for (let f = 0; f < 6; f++) {
+        const face = FACES[f];
+        const nx = x + face.dx;
+        const ny = y + face.dy;
+        const nz = z + face.dz;
+        if (nx < 0 || nx > 15 || nz < 0 || nz > 15 || ny < 0 || ny >= height) continue;
+        if (occupied[cell(nx, ny, nz)]) {
+            mask |= 1 << f;
+        }
+    }
+    return mask;
+}
+
+function cell(x, y, z) {
+    return (y << 8) | (z << 4) | x;
+}
+
+function bitCount(mask) {
+    let count = 0;
+    for (; mask; mask &= mask - 1) count++;
+    return count;
+}
+
+function emptyMesh() {
+    return {
+        positions: new Float32Array(0), normals: new Int8Array(0), colors: new Uint8Array(0),
+        indices: new Uint16Array(0), blockCount: 0, minY: 0, maxY: 0
+    };
+}
@@ -0,0 +1,729 @@
+let scene, camera, renderer;
+let currentDimension = 'overworld';
+let chunkMeshes = new Map(); // 視野距離内のチャンクのメッシュ（ブロックがなければ null）
+let chunkStore = new Map();  // 受信済みのチャンクデータ（表示中の次元・高さの範囲のみ）
+let lastSeq = 0;             // 最後に受信したシーケンス番号
+let lastEtag = null;
+let eventSource = null;      // 接続中はポーリングを止める
+let lastTime = performance.now();
+let frameCount = 0;
+let renderQuality = 2;
+let viewDistance = 300;
+let minHeight = 50;
+let maxHeight = 100;
+let totalBlockCount = 0;     // 作成済みのメッシュのブロック数
+
+// チャンクのメッシュは mesher.js のワーカーで作る（URL は index.html の data-mesher 属性）
+const mesherUrl = document.currentScript.dataset.mesher;
+const MESHER_COUNT = Math.max(1, Math.min(4, (navigator.hardwareConcurrency || 2) - 1));
+const UNLOAD_MARGIN = 1.25;  // 視野距離のこの倍を超えたら GPU のメモリを解放する
+const FETCH_MARGIN = 1.5;    // 3D のデータは視野距離のこの倍の範囲だけを取得する（その外はタイルだけ）
+let fetchBounds = null;      // 取得中の範囲の中心と半径（チャンク）。カメラが離れたら取得し直す
+let meshers = [];
+let nextMesher = 0;
+let buildToken = 0;
+let pendingBuilds = new Map(); // チャンクのキー → 依頼中のトークン（古い結果を捨てるため）
+let chunkMaterial;           // 全チャンクで共有する（色は頂点カラー）
+
+// 遠景用の2Dタイル（ズーム2: 1ピクセル = 4x4ブロック、1タイル = 512ブロック四方）
+const TILE_ZOOM = 2;
+const TILE_BLOCKS = 128 << TILE_ZOOM;
+let tileMeshes = new Map();
+let staleTiles = new Set();  // チャンクが更新されたタイル
+let loadingTiles = new Set();
+let lastTileRefresh = performance.now();
+let showTiles = true;
+// 3Dデータの取得範囲外のタイルは更新の通知がないので、この間隔でサーバーに確認する（変わっていなければ 304）
+const TILE_REFRESH_MS = 60000;
+
+function init() {
+    scene = new THREE.Scene();
+    scene.background = new THREE.Color(0x87ceeb);
+    scene.fog = new THREE.Fog(0x87ceeb, viewDistance * 0.5, viewDistance);
+
+    camera = new THREE.PerspectiveCamera(75, window.innerWidth / window.innerHeight, 0.1, viewDistance * 2);
+    camera.position.set(50, 100, 50);
+    camera.lookAt(0, 50, 0);
+
+    renderer = new THREE.WebGLRenderer({
+        antialias: renderQuality >= 2,
+        powerPreference: "high-performance"
+    });
+    renderer.setSize(window.innerWidth, window.innerHeight);
+    renderer.setPixelRatio(renderQuality >= 3 ? window.devicePixelRatio : 1);
+    document.body.appendChild(renderer.domElement);
+
+    // 照明
+    const ambientLight = new THREE.AmbientLight(0xffffff, 0.7);
+    scene.add(ambientLight);
+
+    const directionalLight = new THREE.DirectionalLight(0xffffff, 0.5);
+    directionalLight.position.set(50, 100, 50);
+    scene.add(directionalLight);
+
+    chunkMaterial = new THREE.MeshLambertMaterial({ vertexColors: true });
+    for (let i = 0; i < MESHER_COUNT; i++) {
+        const mesher = new Worker(mesherUrl);
+        mesher.onmessage = (e) => onChunkMeshBuilt(e.data);
+        meshers.push(mesher);
+    }
+
+    // イベントリスナー
+    window.addEventListener('resize', onWindowResize);
+
+    document.getElementById('dimensionSelect').addEventListener('change', (e) => {
+        selectDimension(e.target.value);
+    });
+
+    document.getElementById('resetCamera').addEventListener('click', () => {
+        camera.position.set(50, 100, 50);
+        camera.lookAt(0, 50, 0);
+    });
+
+    document.getElementById('qualitySlider').addEventListener('input', (e) => {
+        renderQuality = parseInt(e.target.value);
+        const labels = ['低', '中', '高'];
+        document.getElementById('qualityValue').textContent = labels[renderQuality - 1];
+        renderer.setPixelRatio(renderQuality >= 3 ? window.devicePixelRatio : 1);
+        renderer.antialias = renderQuality >= 2;
+    });
+
+    document.getElementById('viewDistSlider').addEventListener('input', (e) => {
+        viewDistance = parseInt(e.target.value);
+        document.getElementById('viewDistValue').textContent = viewDistance;
+        scene.fog.near = viewDistance * 0.5;
+        scene.fog.far = viewDistance;
+        camera.far = viewDistance * 2;
+        camera.updateProjectionMatrix();
+        updateChunkMeshes();
+        updateFetchBounds();
+    });
+
+    document.getElementById('showTiles').addEventListener('change', (e) => {
+        showTiles = e.target.checked;
+        clearTiles();
+        updateTiles();
+    });
+
+    document.getElementById('applyHeight').addEventListener('click', () => {
+        minHeight = parseInt(document.getElementById('minHeight').value);
+        maxHeight = parseInt(document.getElementById('maxHeight').value);
+
+        if (minHeight >= maxHeight) {
+            alert('最低高度は最高高度より低くしてください');
+            return;
+        }
+
+        // 高さの範囲はサーバー側で切り取るので取得し直す
+        resetChunks();
+        tileMeshes.forEach(mesh => {
+            mesh.position.y = minHeight - 1;
+        });
+    });
+
+    setupControls();
+
+    // 色がわかってからメッシュを作る（取得に失敗した場合は灰色で表示）
+    fetchPalette().finally(fetchChunks);
+    setInterval(() => {
+        if (!eventSource) {
+            fetchChunks();
+        }
+    }, 3000);
+    setInterval(updateTiles, 5000);
+    setInterval(() => {
+        updateChunkMeshes();
+        updateFetchBounds();
+    }, 500);
+    fetchDimensions(true);
+    setInterval(() => fetchDimensions(false), 30000);
+    updateTiles();
+    animate();
+}
+
+function setupControls() {
+    let isDragging = false;
+    let previousMousePosition = { x: 0, y: 0 };
+    let velocity = { x: 0, y: 0 };
+
+    renderer.domElement.addEventListener('mousedown', (e) => {
+        isDragging = true;
+        velocity = { x: 0, y: 0 };
+    });
+
+    renderer.domElement.addEventListener('mouseup', () => {
+        isDragging = false;
+    });
+
+    renderer.domElement.addEventListener('mousemove', (e) => {
+        const deltaX = e.clientX - previousMousePosition.x;
+        const deltaY = e.clientY - previousMousePosition.y;
+
+        if (isDragging) {
+            const rotationSpeed = 0.005;
+
+            const offset = new THREE.Vector3();
+            offset.copy(camera.position);
+
+            const distance = offset.length();
+            const theta = Math.atan2(offset.x, offset.z);
+            const phi = Math.acos(offset.y / distance);
+
+            const newTheta = theta - deltaX * rotationSpeed;
+            const newPhi = Math.max(0.1, Math.min(Math.PI - 0.1, phi - deltaY * rotationSpeed));
+
+            camera.position.x = distance * Math.sin(newPhi) * Math.sin(newTheta);
+            camera.position.y = distance * Math.cos(newPhi);
+            camera.position.z = distance * Math.sin(newPhi) * Math.cos(newTheta);
+            camera.lookAt(0, 50, 0);
+        }
+
+        previousMousePosition = { x: e.clientX, y: e.clientY };
+    });
+
+    renderer.domElement.addEventListener('wheel', (e) => {
+        e.preventDefault();
+        const zoomSpeed = 0.1;
+        const distance = camera.position.length();
+        const newDistance = Math.max(10, Math.min(500, distance + e.deltaY * zoomSpeed));
+        camera.position.multiplyScalar(newDistance / distance);
+    });
+}
+
+// バイナリ形式 (ChunkBinaryEncoder) を型付き配列にデコード
+function decodeChunks(buffer) {
+    const view = new DataView(buffer);
+    const bytes = new Uint8Array(buffer);
+    let pos = 0;
+
+    function readVarInt() {
+        let value = 0;
+        let shift = 0;
+        let b;
+        do {
+            b = bytes[pos++];
+            value |= (b & 0x7f) << shift;
+            shift += 7;
+        } while (b & 0x80);
+        return value >>> 0;
+    }
+
+    if (view.getUint32(0) !== 0x434d4150) {
+        throw new Error('Invalid chunk data');
+    }
+    const version = view.getUint8(4);
+    if (version !== 4) {
+        throw new Error('Unsupported chunk format version: ' + version);
+    }
+    const seq = Number(view.getBigInt64(5));
+    const full = (view.getUint8(13) & 1) !== 0;
+    pos = 14;
+
+    const decoder = new TextDecoder();
+    const dimensions = [];
+    const dimensionCount = view.getUint8(pos++);
+    for (let i = 0; i < dimensionCount; i++) {
+        const length = readVarInt();
+        dimensions.push(decoder.decode(bytes.subarray(pos, pos + length)));
+        pos += length;
+    }
+
+    const chunkCount = view.getUint32(pos);
+    pos += 4;
+    const chunks = new Array(chunkCount);
+    for (let c = 0; c < chunkCount; c++) {
+        const dimension = dimensions[view.getUint8(pos++)];
+        const chunkX = view.getInt32(pos);
+        const chunkZ = view.getInt32(pos + 4);
+        const count = view.getUint32(pos + 8);
+        const chunkFlags = view.getUint8(pos + 12);
+        pos += 13;
+
+        const paletteSize = view.getUint16(pos);
+        pos += 2;
+        const palette = new Uint16Array(paletteSize);
+        for (let i = 0; i < paletteSize; i++) {
+            palette[i] = view.getUint16(pos);
+            pos += 2;
+        }
+
+        const xs = new Uint8Array(count);
+        const ys = new Int16Array(count);
+        const zs = new Uint8Array(count);
+        const types = new Uint16Array(count);
+        let n = 0;
+        for (let column = 0; column < 256; column++) {
+            const x = column >> 4;
+            const z = column & 15;
+            const runs = readVarInt();
+            let y = -64;
+            for (let r = 0; r < runs; r++) {
+                y += readVarInt();
+                const length = readVarInt();
+                const type = palette[readVarInt()];
+                for (let k = 0; k < length; k++) {
+                    xs[n] = x;
+                    ys[n] = y + k;
+                    zs[n] = z;
+                    types[n] = type;
+                    n++;
+                }
+                y += length;
+            }
+        }
+        // 面マスク (bit0: -x, bit1: +x, bit2: -y, bit3: +y, bit4: -z, bit5: +z)
+        let faces = null;
+        if (chunkFlags & 1) {
+            faces = bytes.slice(pos, pos + count);
+            pos += count;
+        }
+        chunks[c] = { chunkX, chunkZ, dimension, count, xs, ys, zs, types, faces };
+    }
+
+    const removedCount = view.getUint32(pos);
+    pos += 4;
+    const removed = new Array(removedCount);
+    for (let i = 0; i < removedCount; i++) {
+        removed[i] = {
+            dimension: dimensions[view.getUint8(pos)],
+            chunkX: view.getInt32(pos + 1),
+            chunkZ: view.getInt32(pos + 5)
+        };
+        pos += 9;
+    }
+    return { seq, full, chunks, removed };
+}
+
+function chunkKey(dimension, chunkX, chunkZ) {
+    return `${dimension}_${chunkX}_${chunkZ}`;
+}
+
+function fetchPalette() {
+    return fetch('/api/palette')
+        .then(res => res.json())
+        .then(palette => {
+            // ブロックタイプID → 色。メッシュはワーカーで作るので、ワーカーに渡す
+            const entries = palette.blocks.map(block => [block.id, block.color]);
+            meshers.forEach(mesher => mesher.postMessage({ palette: entries }));
+        })
+        .catch(err => {
+            console.error('Failed to fetch palette:', err);
+        });
+}
+
+const DIMENSION_LABELS = { overworld: 'オーバーワールド', nether: 'ネザー', end: 'エンド' };
+
+// アグリゲーターの次元は "ソース名/次元名"
+function dimensionLabel(name) {
+    const slash = name.lastIndexOf('/');
+    const base = name.substring(slash + 1);
+    const label = DIMENSION_LABELS[base] || base;
+    return slash >= 0 ? `${name.substring(0, slash)} / ${label}` : label;
+}
+
+// チャンクのある次元を選択肢に加える。最初の取得では選択肢をサーバーの次元に置き換え、
+// 表示中の次元にチャンクがなければ先頭の次元に切り替える
+function fetchDimensions(initial) {
+    fetch('/api/dimensions')
+        .then(res => res.json())
+        .then(names => {
+            if (names.length === 0) return;
+            const select = document.getElementById('dimensionSelect');
+            if (initial) {
+                select.innerHTML = '';
+            }
+            const known = new Set(Array.from(select.options).map(option => option.value));
+            names.forEach(name => {
+                if (!known.has(name)) {
+                    select.add(new Option(dimensionLabel(name), name));
+                }
+            });
+            if (initial && !names.includes(currentDimension)) {
+                selectDimension(names[0]);
+            }
+            select.value = currentDimension;
+        })
+        .catch(err => {
+            console.error('Failed to fetch dimensions:', err);
+        });
+}
+
+function selectDimension(name) {
+    currentDimension = name;
+    resetChunks();
+    clearTiles();
+    updateTiles();
+}
+
+// 表示中の次元と高さの範囲、カメラの周りのチャンクだけをサーバーに要求する
+function chunkQuery() {
+    if (!fetchBounds) {
+        const center = cameraChunk();
+        fetchBounds = { x: center.x, z: center.z, radius: Math.ceil(viewDistance * FETCH_MARGIN / 16) };
+    }
+    const { x, z, radius } = fetchBounds;
+    return `dim=${encodeURIComponent(currentDimension)}&minY=${minHeight}&maxY=${maxHeight}` +
+        `&minX=${x - radius}&maxX=${x + radius}&minZ=${z - radius}&maxZ=${z + radius}`;
+}
+
+function cameraChunk() {
+    return { x: Math.floor(camera.position.x / 16), z: Math.floor(camera.position.z / 16) };
+}
+
+// 視野距離の範囲が取得済みの範囲からはみ出しそうになったら、カメラを中心に取得し直す。
+// 全件の差分で置き換えるので、範囲に残るチャンクのメッシュは作り直すまで表示したまま
+function updateFetchBounds() {
+    if (!fetchBounds) return;
+    const center = cameraChunk();
+    const viewRadius = Math.ceil(viewDistance * UNLOAD_MARGIN / 16);
+    const offset = Math.max(Math.abs(center.x - fetchBounds.x), Math.abs(center.z - fetchBounds.z));
+    if (offset + viewRadius <= fetchBounds.radius) return;
+
+    if (eventSource) {
+        eventSource.close();
+        eventSource = null;
+    }
+    fetchBounds = null;
+    lastSeq = 0;
+    lastEtag = null;
+    fetchChunks();
+}
+
+// 前回のシーケンス番号以降の差分だけを取得
+function fetchChunks() {
+    const query = chunkQuery();
+    const headers = lastEtag ? { 'If-None-Match': lastEtag } : {};
+    fetch('/api/chunks?format=bin&since=' + lastSeq + '&' + query, { headers, cache: 'no-store' })
+        .then(res => {
+            // 304: 前回から変更なし。条件を変えた後に届いた古い応答は捨てる
+            if (res.status === 304 || query !== chunkQuery()) {
+                return null;
+            }
+            lastEtag = res.headers.get('ETag');
+            return res.arrayBuffer().then(decodeChunks);
+        })
+        .then(delta => {
+            if (delta) {
+                applyDelta(delta);
+            }
+            document.getElementById('loading').style.display = 'none';
+            openStream();
+        })
+        .catch(err => {
+            console.error('Failed to fetch chunks:', err);
+        });
+}
+
+// 更新をサーバーからプッシュで受け取る。切断されたらポーリングに戻り、次の取得後に再接続する
+function openStream() {
+    if (eventSource || !window.EventSource) return;
+
+    eventSource = new EventSource('/api/stream?since=' + lastSeq + '&' + chunkQuery());
+    eventSource.addEventListener('delta', (e) => {
+        const bytes = Uint8Array.from(atob(e.data), c => c.charCodeAt(0));
+        applyDelta(decodeChunks(bytes.buffer));
+    });
+    eventSource.onerror = () => {
+        eventSource.close();
+        eventSource = null;
+    };
+}
+
+function applyDelta(delta) {
+    if (delta.full) {
+        // 全件に含まれないチャンクは削除済みか範囲外
+        const kept = new Set(delta.chunks.map(c => chunkKey(c.dimension, c.chunkX, c.chunkZ)));
+        Array.from(chunkStore.keys()).forEach(key => {
+            if (!kept.has(key)) {
+                chunkStore.delete(key);
+                removeChunkMesh(key);
+            }
+        });
+    }
+
+    delta.removed.forEach(r => {
+        markTileStale(r.dimension, r.chunkX, r.chunkZ);
+        const key = chunkKey(r.dimension, r.chunkX, r.chunkZ);
+        chunkStore.delete(key);
+        removeChunkMesh(key);
+    });
+
+    delta.chunks.forEach(chunkData => {
+        markTileStale(chunkData.dimension, chunkData.chunkX, chunkData.chunkZ);
+        const key = chunkKey(chunkData.dimension, chunkData.chunkX, chunkData.chunkZ);
+        chunkStore.set(key, chunkData);
+        if (chunkData.dimension !== currentDimension) return;
+        // 視野距離の外のチャンクは近づいたときに作る
+        if (chunkDistance(chunkData) <= viewDistance) {
+            requestChunkMesh(key, chunkData);
+        } else {
+            removeChunkMesh(key);
+        }
+    });
+
+    lastSeq = delta.seq;
+    updateStats();
+}
+
+function tileKey(tileX, tileZ) {
+    return `${currentDimension}/${TILE_ZOOM}/${tileX}/${tileZ}`;
+}
+
+function markTileStale(dimension, chunkX, chunkZ) {
+    if (dimension !== currentDimension) return;
+    const chunksPerTile = TILE_BLOCKS / 16;
+    staleTiles.add(tileKey(Math.floor(chunkX / chunksPerTile), Math.floor(chunkZ / chunksPerTile)));
+}
+
+// カメラの描画範囲に入るタイルを読み込み、範囲外のタイルを破棄する。
+// 3Dブロックの下に置くので、近くは3Dで、遠くはタイルで見える
+function updateTiles() {
+    if (!showTiles) return;
+
+    if (performance.now() - lastTileRefresh >= TILE_REFRESH_MS) {
+        lastTileRefresh = performance.now();
+        tileMeshes.forEach((mesh, key) => staleTiles.add(key));
+    }
+
+    const radius = Math.ceil(camera.far / TILE_BLOCKS);
+    const centerX = Math.floor(camera.position.x / TILE_BLOCKS);
+    const centerZ = Math.floor(camera.position.z / TILE_BLOCKS);
+    const wanted = new Set();
+
+    for (let tz = centerZ - radius; tz <= centerZ + radius; tz++) {
+        for (let tx = centerX - radius; tx <= centerX + radius; tx++) {
+            const key = tileKey(tx, tz);
+            wanted.add(key);
+            if (!tileMeshes.has(key) || staleTiles.has(key)) {
+                loadTile(key, tx, tz, staleTiles.has(key));
+            }
+        }
+    }
+    staleTiles.clear();
+
+    Array.from(tileMeshes.keys()).forEach(key => {
+        if (!wanted.has(key)) {
+            removeTile(key);
+        }
+    });
+}
+
+// タイルの URL は固定で、ブラウザのキャッシュに任せる。更新されたタイルは no-cache で
+// ETag を確認し、内容が変わっていなければテクスチャを作り直さない
+function loadTile(key, tileX, tileZ, stale) {
+    if (loadingTiles.has(key)) return;
+    loadingTiles.add(key);
+    const url = `/tiles/${encodeURIComponent(currentDimension)}/${TILE_ZOOM}/${tileX}/${tileZ}.png`;
+    fetch(url, { cache: stale ? 'no-cache' : 'default' })
+        .then(response => {
+            if (!response.ok) throw new Error('HTTP ' + response.status);
+            const etag = response.headers.get('ETag');
+            const existing = tileMeshes.get(key);
+            if (existing && etag && existing.userData.etag === etag) {
+                return null;
+            }
+            return response.blob().then(loadImage).then(image => ({ image, etag }));
+        })
+        .then(result => {
+            if (result) {
+                addTile(key, tileX, tileZ, result.image, result.etag);
+            }
+        })
+        .catch(error => console.warn('Failed to load tile ' + key, error))
+        .finally(() => loadingTiles.delete(key));
+}
+
+function loadImage(blob) {
+    return new Promise((resolve, reject) => {
+        const image = new Image();
+        const url = URL.createObjectURL(blob);
+        image.onload = () => {
+            URL.revokeObjectURL(url);
+            resolve(image);
+        };
+        image.onerror = () => {
+            URL.revokeObjectURL(url);
+            reject(new Error('Invalid tile image'));
+        };
+        image.src = url;
+    });
+}
+
+function addTile(key, tileX, tileZ, image, etag) {
+    if (!showTiles || !key.startsWith(currentDimension + '/')) {
+        return;
+    }
+    const texture = new THREE.Texture(image);
+    texture.magFilter = THREE.NearestFilter;
+    texture.needsUpdate = true;
+
+    const existing = tileMeshes.get(key);
+    if (existing) {
+        existing.material.map.dispose();
+        existing.material.map = texture;
+        existing.material.needsUpdate = true;
+        existing.userData.etag = etag;
+        return;
+    }
+
+    const geometry = new THREE.PlaneGeometry(TILE_BLOCKS, TILE_BLOCKS);
+    const material = new THREE.MeshBasicMaterial({ map: texture, transparent: true });
+    const mesh = new THREE.Mesh(geometry, material);
+    mesh.rotation.x = -Math.PI / 2;
+    mesh.position.set((tileX + 0.5) * TILE_BLOCKS, minHeight - 1, (tileZ + 0.5) * TILE_BLOCKS);
+    mesh.userData.etag = etag;
+    scene.add(mesh);
+    tileMeshes.set(key, mesh);
+}
+
+function removeTile(key) {
+    const mesh = tileMeshes.get(key);
+    if (!mesh) return;
+    scene.remove(mesh);
+    mesh.geometry.dispose();
+    mesh.material.map.dispose();
+    mesh.material.dispose();
+    tileMeshes.delete(key);
+}
+
+function clearTiles() {
+    Array.from(tileMeshes.keys()).forEach(removeTile);
+    staleTiles.clear();
+}
+
+// 次元や高さの範囲を変えたときは、受信済みのデータを捨てて全件取得し直す
+function resetChunks() {
+    if (eventSource) {
+        eventSource.close();
+        eventSource = null;
+    }
+    fetchBounds = null;
+    lastSeq = 0;
+    lastEtag = null;
+    chunkStore.clear();
+    clearChunkMeshes();
+    updateStats();
+    fetchChunks();
+}
+
+// 古いメッシュは新しいメッシュができるまで表示しておく
+function requestChunkMesh(key, chunkData) {
+    const token = ++buildToken;
+    pendingBuilds.set(key, token);
+    meshers[nextMesher].postMessage({ token, key, chunk: chunkData, minHeight, maxHeight });
+    nextMesher = (nextMesher + 1) % meshers.length;
+}
+
+function onChunkMeshBuilt(result) {
+    // 依頼後に更新・削除されたチャンクや、条件を変える前の依頼の結果は捨てる
+    if (pendingBuilds.get(result.key) !== result.token) return;
+    pendingBuilds.delete(result.key);
+    disposeChunkMesh(result.key);
+
+    const chunkData = chunkStore.get(result.key);
+    if (result.indices.length === 0) {
+        chunkMeshes.set(result.key, null);
+        updateStats();
+        return;
+    }
+
+    const geometry = new THREE.BufferGeometry();
+    geometry.setAttribute('position', new THREE.BufferAttribute(result.positions, 3));
+    geometry.setAttribute('normal', new THREE.BufferAttribute(result.normals, 3, true));
+    geometry.setAttribute('color', new THREE.BufferAttribute(result.colors, 3, true));
+    geometry.setIndex(new THREE.BufferAttribute(result.indices, 1));
+    // 視錐台カリング用の境界球は、頂点を走査せずにチャンクの範囲から作る
+    const halfHeight = (result.maxY - result.minY + 1) / 2;
+    geometry.boundingSphere = new THREE.Sphere(
+        new THREE.Vector3(7.5, result.minY - 0.5 + halfHeight, 7.5),
+        Math.sqrt(128 + halfHeight * halfHeight));
+
+    const mesh = new THREE.Mesh(geometry, chunkMaterial);
+    mesh.position.set(chunkData.chunkX * 16, 0, chunkData.chunkZ * 16);
+    mesh.userData.blockCount = result.blockCount;
+    totalBlockCount += result.blockCount;
+    scene.add(mesh);
+    chunkMeshes.set(result.key, mesh);
+    updateStats();
+}
+
+function disposeChunkMesh(key) {
+    const mesh = chunkMeshes.get(key);
+    chunkMeshes.delete(key);
+    if (!mesh) return;
+
+    // マテリアルは共有しているので捨てない
+    scene.remove(mesh);
+    mesh.geometry.dispose();
+    totalBlockCount -= mesh.userData.blockCount;
+}
+
+function removeChunkMesh(key) {
+    pendingBuilds.delete(key);
+    disposeChunkMesh(key);
+}
+
+function clearChunkMeshes() {
+    pendingBuilds.clear();
+    Array.from(chunkMeshes.keys()).forEach(disposeChunkMesh);
+}
+
+// カメラからチャンクの中心までの距離
+function chunkDistance(chunkData) {
+    const dx = chunkData.chunkX * 16 + 8 - camera.position.x;
+    const dy = (minHeight + maxHeight) / 2 - camera.position.y;
+    const dz = chunkData.chunkZ * 16 + 8 - camera.position.z;
+    return Math.sqrt(dx * dx + dy * dy + dz * dz);
+}
+
+// 視野距離に入ったチャンクのメッシュを作り、遠いチャンクは隠す。さらに離れたら GPU のメモリを解放する。
+// 視錐台の外のメッシュは three.js が描画しない（frustumCulled）
+function updateChunkMeshes() {
+    const unloadDistance = viewDistance * UNLOAD_MARGIN;
+    chunkStore.forEach((chunkData, key) => {
+        if (chunkData.dimension !== currentDimension) return;
+        const distance = chunkDistance(chunkData);
+        if (distance > unloadDistance) {
+            if (chunkMeshes.has(key) || pendingBuilds.has(key)) {
+                removeChunkMesh(key);
+            }
+            return;
+        }
+        const mesh = chunkMeshes.get(key);
+        if (mesh) {
+            mesh.visible = distance <= viewDistance;
+        } else if (distance <= viewDistance && mesh === undefined && !pendingBuilds.has(key)) {
+            requestChunkMesh(key, chunkData);
+        }
+    });
+    updateStats();
+}
+
+function updateStats() {
+    document.getElementById('chunkCount').textContent = chunkMeshes.size.toLocaleString();
+    document.getElementById('blockCount').textContent = totalBlockCount.toLocaleString();
+    document.getElementById('dimension').textContent = currentDimension;
+}
+
+function onWindowResize() {
+    camera.aspect = window.innerWidth / window.innerHeight;
+    camera.updateProjectionMatrix();
+    renderer.setSize(window.innerWidth, window.innerHeight);
+}
+
+function animate() {
+    requestAnimationFrame(animate);
+
+    // FPS計算
+    frameCount++;
+    const currentTime = performance.now();
+    if (currentTime >= lastTime + 1000) {
+        document.getElementById('fps').textContent = frameCount;
+        frameCount = 0;
+        lastTime = currentTime;
+    }
+
+    renderer.render(scene, camera);
+}
+
+init();
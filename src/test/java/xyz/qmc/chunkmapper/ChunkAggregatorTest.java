@@ -0,0 +1,204 @@
+package xyz.qmc.chunkmapper;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// 実際の HTTP でソースを真似て、パレットの統合・タイプIDの変換・全件差分での削除を確かめる
+class ChunkAggregatorTest {
+    private final List<FakeSource> sources = new ArrayList<>();
+    private final ChunkDataCollector collector = new ChunkDataCollector(new ChunkMapperConfig());
+    private ChunkAggregator aggregator;
+
+    @AfterEach
+    void stop() {
+        if (aggregator != null) {
+            aggregator.close();
+        }
+        collector.stop();
+        sources.forEach(FakeSource::close);
+    }
+
+    @Test
+    void mergesPalettesKeepingTheFirstSourceIds() throws Exception {
+        start(source("minecraft:air", "minecraft:stone", "minecraft:dirt"),
+                source("minecraft:air", "minecraft:dirt", "minecraft:glass"));
+
+        BlockPalette palette = collector.getPalette();
+        assertEquals(4, palette.size());
+        assertEquals(0x12, palette.getColor(2)); // 最初のソースの dirt
+        assertEquals(0x22, palette.getColor(3)); // 2番目のソースにだけある glass
+    }
+
+    @Test
+    void remapsTypesAndPrefixesDimensions() throws Exception {
+        FakeSource a = source("minecraft:air", "minecraft:stone", "minecraft:dirt");
+        FakeSource b = source("minecraft:air", "minecraft:dirt", "minecraft:glass");
+        start(a, b);
+        aggregator.start();
+
+        a.send(delta(true, chunk(0, 0, 2)));
+        b.send(delta(true, chunk(0, 0, 1), chunk(1, 0, 2)));
+        await(() -> collector.getChunkKeys("b/overworld").size() == 2 && collector.getChunkKeys("a/overworld").size() == 1);
+
+        assertEquals(2, type(collector.getChunk("a/overworld", 0, 0)));
+        assertEquals(2, type(collector.getChunk("b/overworld", 0, 0))); // dirt: 1 → 2
+        assertEquals(3, type(collector.getChunk("b/overworld", 1, 0))); // glass: 2 → 3
+    }
+
+    @Test
+    void fullDeltaPrunesChunksTheSourceNoLongerHas() throws Exception {
+        FakeSource a = source("minecraft:air", "minecraft:stone");
+        FakeSource b = source("minecraft:air", "minecraft:stone");
+        start(a, b);
+        aggregator.start();
+
+        a.send(delta(true, chunk(0, 0, 1), chunk(1, 0, 1)));
+        b.send(delta(true, chunk(0, 0, 1)));
+        await(() -> collector.getChunkKeys("a/overworld").size() == 2 && collector.getChunkKeys("b/overworld").size() == 1);
+
+        // ソースが再起動などで全件を送り直した場合、含まれないチャンクは消す。他のソースには触れない
+        a.send(delta(true, chunk(1, 0, 1)));
+        await(() -> collector.getChunkKeys("a/overworld").size() == 1);
+        assertNull(collector.getChunk("a/overworld", 0, 0));
+        assertNotNull(collector.getChunk("a/overworld", 1, 0));
+        assertNotNull(collector.getChunk("b/overworld", 0, 0));
+
+        // 差分の削除も反映する
+        ChunkDataCollector.ChunkDelta removal = delta(false);
+        ChunkDataCollector.RemovedChunk removed = new ChunkDataCollector.RemovedChunk();
+        removed.dimension = "overworld";
+        removed.chunkX = 0;
+        removed.chunkZ = 0;
+        removal.removed = List.of(removed);
+        b.send(removal);
+        await(() -> collector.getChunkKeys("b/overworld").isEmpty());
+    }
+
+    private void start(FakeSource... fakes) throws InterruptedException {
+        Map<String, String> urls = new LinkedHashMap<>();
+        for (int i = 0; i < fakes.length; i++) {
+            urls.put(String.valueOf((char) ('a' + i)), fakes[i].url());
+        }
+        aggregator = new ChunkAggregator(collector, urls);
+        collector.startAggregator(aggregator.createPalette());
+    }
+
+    // タイプIDは names の添字。色はソースごとに 0x10, 0x20, ... + タイプID
+    private FakeSource source(String... names) throws IOException {
+        FakeSource source = new FakeSource(names, 0x10 * (sources.size() + 1));
+        sources.add(source);
+        return source;
+    }
+
+    private static ChunkDataCollector.ChunkDelta delta(boolean full, ChunkDataCollector.CompactChunkData... chunks) {
+        ChunkDataCollector.ChunkDelta delta = new ChunkDataCollector.ChunkDelta();
+        delta.full = full;
+        delta.chunks = List.of(chunks);
+        delta.removed = List.of();
+        return delta;
+    }
+
+    private static ChunkDataCollector.CompactChunkData chunk(int chunkX, int chunkZ, int type) {
+        ChunkDataCollector.CompactChunkData data = ChunkDataCollectorTest.chunk(chunkX, chunkZ);
+        data.blocks = new int[]{PackedBlocks.pack(0, 64, 0, type)};
+        return data;
+    }
+
+    private static int type(ChunkDataCollector.CompactChunkData data) {
+        return PackedBlocks.type(data.blocks[0]);
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "timed out");
+            Thread.sleep(10);
+        }
+    }
+
+    // /api/palette と /api/stream だけを持つソース
+    private static final class FakeSource {
+        private final HttpServer server;
+        private final ExecutorService executor = Executors.newCachedThreadPool();
+        private final BlockingQueue<String> events = new LinkedBlockingQueue<>();
+        private volatile boolean closed = false;
+        private long seq = 0;
+
+        FakeSource(String[] names, int colorBase) throws IOException {
+            JsonArray blocks = new JsonArray();
+            for (int id = 0; id < names.length; id++) {
+                JsonObject block = new JsonObject();
+                block.addProperty("id", id);
+                block.addProperty("name", names[id]);
+                block.addProperty("color", colorBase + id);
+                blocks.add(block);
+            }
+            JsonObject palette = new JsonObject();
+            palette.add("blocks", blocks);
+            byte[] paletteJson = palette.toString().getBytes(StandardCharsets.UTF_8);
+
+            server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+            server.createContext("/api/palette", exchange -> {
+                exchange.sendResponseHeaders(200, paletteJson.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(paletteJson);
+                }
+            });
+            server.createContext("/api/stream", this::stream);
+            server.setExecutor(executor);
+            server.start();
+        }
+
+        String url() {
+            return "http://127.0.0.1:" + server.getAddress().getPort();
+        }
+
+        synchronized void send(ChunkDataCollector.ChunkDelta delta) {
+            delta.seq = ++seq;
+            events.add("event: delta\ndata: " + Base64.getEncoder().encodeToString(ChunkBinaryEncoder.encode(delta)) + "\n\n");
+        }
+
+        private void stream(HttpExchange exchange) throws IOException {
+            exchange.sendResponseHeaders(200, 0);
+            try (OutputStream out = exchange.getResponseBody()) {
+                while (!closed) {
+                    String event = events.poll(50, TimeUnit.MILLISECONDS);
+                    if (event != null) {
+                        out.write(event.getBytes(StandardCharsets.UTF_8));
+                        out.flush();
+                    }
+                }
+            } catch (InterruptedException e) {
+                // 終了
+            }
+        }
+
+        void close() {
+            closed = true;
+            server.stop(0);
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package xyz.qmc.chunkmapper;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ChunkBinaryCodecTest {
+    @Test
+    void deltaRoundTrip() {
+        ChunkDataCollector.ChunkDelta delta = new ChunkDataCollector.ChunkDelta();
+        delta.seq = 42;
+        delta.full = true;
+        delta.chunks = List.of(chunk("overworld", -3, 7, false), chunk("the_nether", 100, -100, true),
+                chunk("overworld", 0, 0, false));
+        delta.removed = List.of(removed("the_end", 5, 6), removed("overworld", -1, -1));
+
+        ChunkDataCollector.ChunkDelta decoded = ChunkBinaryDecoder.decode(ByteBuffer.wrap(ChunkBinaryEncoder.encode(delta)));
+
+        assertEquals(42, decoded.seq);
+        assertTrue(decoded.full);
+        assertEquals(delta.chunks.size(), decoded.chunks.size());
+        for (int i = 0; i < delta.chunks.size(); i++) {
+            assertChunkEquals(delta.chunks.get(i), decoded.chunks.get(i));
+        }
+        assertEquals(2, decoded.removed.size());
+        assertEquals("the_end", decoded.removed.get(0).dimension);
+        assertEquals(5, decoded.removed.get(0).chunkX);
+        assertEquals(6, decoded.removed.get(0).chunkZ);
+        assertEquals("overworld", decoded.removed.get(1).dimension);
+        assertEquals(-1, decoded.removed.get(1).chunkZ);
+    }
+
+    @Test
+    void longDimensionNamesRoundTrip() {
+        // 集約時の接頭辞などで 255 バイトを超える名前
+        String name = "remote-" + "次元".repeat(50) + ":overworld";
+        assertTrue(name.getBytes(StandardCharsets.UTF_8).length > 255);
+        ChunkDataCollector.ChunkDelta delta = new ChunkDataCollector.ChunkDelta();
+        delta.chunks = List.of(chunk(name, 1, 2, false), chunk("overworld", 3, 4, false));
+        delta.removed = List.of(removed(name, 5, 6));
+
+        ChunkDataCollector.ChunkDelta decoded = ChunkBinaryDecoder.decode(ByteBuffer.wrap(ChunkBinaryEncoder.encode(delta)));
+
+        assertChunkEquals(delta.chunks.get(0), decoded.chunks.get(0));
+        assertEquals("overworld", decoded.chunks.get(1).dimension);
+        assertEquals(name, decoded.removed.get(0).dimension);
+    }
+
+    @Test
+    void chunkBodyRoundTrip() {
+        for (boolean faces : new boolean[]{false, true}) {
+            ChunkDataCollector.CompactChunkData chunk = chunk("overworld", 12, -34, faces);
+            ByteBuffer in = ByteBuffer.wrap(ChunkBinaryEncoder.encodeChunk(chunk));
+            assertChunkEquals(chunk, ChunkBinaryDecoder.decodeChunk(in, "overworld"));
+            assertFalse(in.hasRemaining());
+        }
+    }
+
+    @Test
+    void emptyChunkRoundTrip() {
+        ChunkDataCollector.CompactChunkData chunk = new ChunkDataCollector.CompactChunkData();
+        chunk.dimension = "overworld";
+        chunk.chunkX = 1;
+        chunk.chunkZ = 2;
+        ChunkDataCollector.CompactChunkData decoded = ChunkBinaryDecoder.decodeChunk(
+                ByteBuffer.wrap(ChunkBinaryEncoder.encodeChunk(chunk)), "overworld");
+        assertEquals(0, decoded.blocks.length);
+        assertNull(decoded.faces);
+    }
+
+    @Test
+    void rejectsOtherFormats() {
+        ChunkDataCollector.ChunkDelta delta = new ChunkDataCollector.ChunkDelta();
+        delta.chunks = List.of();
+        delta.removed = List.of();
+        byte[] bytes = ChunkBinaryEncoder.encode(delta);
+
+        byte[] wrongVersion = bytes.clone();
+        wrongVersion[4] = (byte) (ChunkBinaryEncoder.FORMAT_VERSION - 1);
+        assertThrows(IllegalArgumentException.class, () -> ChunkBinaryDecoder.decode(ByteBuffer.wrap(wrongVersion)));
+
+        byte[] wrongMagic = bytes.clone();
+        wrongMagic[0] = 'X';
+        assertThrows(IllegalArgumentException.class, () -> ChunkBinaryDecoder.decode(ByteBuffer.wrap(wrongMagic)));
+    }
+
+    // ラン（同じタイプが続く列）、途切れた列、高さの両端、空の列を含むチャンク
+    static ChunkDataCollector.CompactChunkData chunk(String dimension, int chunkX, int chunkZ, boolean withFaces) {
+        PackedBlocks.Builder blocks = new PackedBlocks.Builder(256, withFaces);
+        for (int x = 0; x < 16; x++) {
+            for (int z = 0; z < 16; z++) {
+                if ((x + z) % 5 == 0) {
+                    continue;
+                }
+                blocks.add(x, ChunkBinaryEncoder.MIN_Y, z, 7, PackedBlocks.FACE_DOWN);
+                for (int y = 40; y < 64; y++) {
+                    blocks.add(x, y, z, y < 60 ? 1 : 2 + (x & 3), y == 63 ? PackedBlocks.FACE_UP : 0);
+                }
+                if (x == z) {
+                    blocks.add(x, 200, z, PackedBlocks.MAX_TYPE, 0x3f);
+                }
+            }
+        }
+        ChunkDataCollector.CompactChunkData data = new ChunkDataCollector.CompactChunkData();
+        data.dimension = dimension;
+        data.chunkX = chunkX;
+        data.chunkZ = chunkZ;
+        data.faces = blocks.buildFaces();
+        data.blocks = blocks.build();
+        return data;
+    }
+
+    private static ChunkDataCollector.RemovedChunk removed(String dimension, int chunkX, int chunkZ) {
+        ChunkDataCollector.RemovedChunk removed = new ChunkDataCollector.RemovedChunk();
+        removed.dimension = dimension;
+        removed.chunkX = chunkX;
+        removed.chunkZ = chunkZ;
+        return removed;
+    }
+
+    static void assertChunkEquals(ChunkDataCollector.CompactChunkData expected, ChunkDataCollector.CompactChunkData actual) {
+        assertEquals(expected.dimension, actual.dimension);
+        assertEquals(expected.chunkX, actual.chunkX);
+        assertEquals(expected.chunkZ, actual.chunkZ);
+        assertArrayEquals(expected.blocks, actual.blocks);
+        assertArrayEquals(expected.faces, actual.faces);
+    }
+}
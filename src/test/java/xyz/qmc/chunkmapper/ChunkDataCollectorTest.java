@@ -0,0 +1,265 @@
+package xyz.qmc.chunkmapper;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// サーバーなしで動かせるアグリゲーター用の入口 (putChunk / removeChunk) から差分の管理を確かめる
+class ChunkDataCollectorTest {
+    private static final BlockPalette PALETTE = new BlockPalette(new short[0],
+            new String[]{"minecraft:air", "minecraft:stone"}, new int[2], new boolean[]{false, true});
+
+    private final ChunkDataCollector collector = start();
+
+    @AfterEach
+    void stop() {
+        collector.stop();
+    }
+
+    @Test
+    void sinceZeroReturnsEverythingAsFull() {
+        put(0, 0);
+        put(1, 0);
+        collector.publish();
+
+        ChunkDataCollector.ChunkDelta delta = collector.getDelta(0, collector.getPublishedSequence());
+        assertTrue(delta.full);
+        assertEquals(2, delta.chunks.size());
+        assertEquals(collector.getPublishedSequence(), delta.seq);
+    }
+
+    @Test
+    void partialDeltaContainsOnlyNewerUpdatesAndRemovals() {
+        put(0, 0);
+        put(1, 0);
+        put(2, 0);
+        collector.publish();
+        long since = collector.getPublishedSequence();
+
+        put(1, 0);
+        assertTrue(collector.removeChunk("overworld", 2, 0, System.nanoTime()));
+        put(3, 0);
+        collector.publish();
+
+        ChunkDataCollector.ChunkDelta delta = collector.getDelta(since, collector.getPublishedSequence());
+        assertFalse(delta.full);
+        assertEquals(2, delta.chunks.size());
+        assertTrue(delta.chunks.stream().allMatch(c -> c.version > since));
+        assertEquals(1, delta.removed.size());
+        assertEquals(2, delta.removed.get(0).chunkX);
+    }
+
+    @Test
+    void unpublishedUpdatesWaitForTheNextSnapshot() {
+        put(0, 0);
+        collector.publish();
+        long published = collector.getPublishedSequence();
+        put(1, 0);
+
+        assertEquals(0, collector.getDelta(published, published).chunks.size());
+        assertEquals(1, collector.getDelta(published, collector.getSequence()).chunks.size());
+    }
+
+    @Test
+    void readdedChunkIsNotReportedAsRemoved() {
+        put(0, 0);
+        collector.publish();
+        long since = collector.getPublishedSequence();
+
+        collector.removeChunk("overworld", 0, 0, System.nanoTime());
+        put(0, 0);
+        collector.publish();
+
+        ChunkDataCollector.ChunkDelta delta = collector.getDelta(since, collector.getPublishedSequence());
+        assertEquals(1, delta.chunks.size());
+        assertTrue(delta.removed.isEmpty());
+    }
+
+    @Test
+    void sinceBeforeDiscardedRemovalsIsFull() {
+        put(-1, -1);
+        collector.publish();
+        long since = collector.getPublishedSequence();
+
+        // 削除記録の上限を超えると古いものから捨てられる
+        for (int i = 0; i < 5000; i++) {
+            put(i, 1);
+            collector.removeChunk("overworld", i, 1, System.nanoTime());
+        }
+        collector.publish();
+
+        ChunkDataCollector.ChunkDelta delta = collector.getDelta(since, collector.getPublishedSequence());
+        assertTrue(delta.full);
+        assertEquals(1, delta.chunks.size());
+        assertTrue(delta.removed.isEmpty());
+
+        // 残っている記録より後からなら差分のまま
+        long recent = collector.getPublishedSequence() - 10;
+        assertFalse(collector.getDelta(recent, collector.getPublishedSequence()).full);
+    }
+
+    @Test
+    void sinceAheadOfSequenceIsFull() {
+        put(0, 0);
+        collector.publish();
+        ChunkDataCollector.ChunkDelta delta = collector.getDelta(collector.getSequence() + 100, collector.getPublishedSequence());
+        assertTrue(delta.full);
+        assertEquals(1, delta.chunks.size());
+    }
+
+    @Test
+    void sequenceFromPreviousRunGetsFullResync() throws InterruptedException {
+        // 別のプロセスで動いていた前回の起動
+        ChunkDataCollector previous = start();
+        for (int i = 0; i < 3; i++) {
+            previous.putChunk(chunk(i, 9));
+        }
+        previous.publish();
+        long oldSeq = previous.getPublishedSequence();
+        previous.stop();
+        Thread.sleep(2);
+
+        ChunkDataCollector restarted = start();
+        try {
+            for (int i = 0; i < 10; i++) {
+                restarted.putChunk(chunk(i, 0));
+            }
+            restarted.publish();
+            // 新しい番号が前回の番号を追い越していても、前回の番号からは全件
+            assertTrue(restarted.getPublishedSequence() > oldSeq);
+            ChunkDataCollector.ChunkDelta delta = restarted.getDelta(oldSeq, restarted.getPublishedSequence());
+            assertTrue(delta.full);
+            assertEquals(10, delta.chunks.size());
+        } finally {
+            restarted.stop();
+        }
+    }
+
+    @Test
+    void restartInSameProcessResyncsClients() {
+        put(0, 0);
+        collector.publish();
+        long since = collector.getPublishedSequence();
+
+        collector.stop();
+        collector.startAggregator(PALETTE);
+        put(1, 1);
+        collector.publish();
+
+        ChunkDataCollector.ChunkDelta delta = collector.getDelta(since, collector.getPublishedSequence());
+        assertTrue(delta.full);
+        assertEquals(1, delta.chunks.size());
+        assertEquals(1, delta.chunks.get(0).chunkX);
+    }
+
+    @Test
+    void queryLimitsDeltaToDimensionAndBounds() {
+        put(0, 0);
+        put(10, 0);
+        ChunkDataCollector.CompactChunkData nether = chunk(0, 0);
+        nether.dimension = "nether";
+        collector.putChunk(nether);
+        collector.publish();
+
+        ChunkQuery query = ChunkQuery.parse(Map.of("dim", "overworld", "maxX", "5"));
+        ChunkDataCollector.ChunkDelta delta = collector.getDelta(0, collector.getPublishedSequence(), query);
+        assertEquals(1, delta.chunks.size());
+        assertEquals("overworld", delta.chunks.get(0).dimension);
+        assertEquals(0, delta.chunks.get(0).chunkX);
+    }
+
+    @Test
+    void olderSnapshotDoesNotOverwriteNewerOne() {
+        ChunkDataCollector.CompactChunkData older = chunk(0, 0);
+        ChunkDataCollector.CompactChunkData newer = chunk(0, 0);
+        newer.capturedAt = older.capturedAt + 1;
+
+        assertTrue(collector.putChunk(newer));
+        assertFalse(collector.putChunk(older));
+        long version = collector.getSequence();
+        assertFalse(collector.putChunk(copyOf(newer))); // 同じ時刻のものも置き換えない
+        assertEquals(version, collector.getSequence());
+        assertSame(newer.blocks, collector.getChunk("overworld", 0, 0).blocks);
+    }
+
+    @Test
+    void storedChunksAreOlderThanAnySnapshot(@TempDir Path root) throws IOException {
+        try (ChunkStore store = new ChunkStore(root, "palette")) {
+            store.write(chunk(0, 0));
+            store.write(chunk(1, 0));
+            ChunkDataCollector.CompactChunkData stored = store.read("overworld", 0, 0);
+            assertEquals(Long.MIN_VALUE, stored.capturedAt);
+
+            // System.nanoTime() は負になることもある
+            ChunkDataCollector.CompactChunkData extracted = chunk(0, 0);
+            extracted.capturedAt = -1_000_000;
+            assertTrue(collector.putChunk(stored));
+            assertTrue(collector.putChunk(extracted));
+            assertSame(extracted.blocks, collector.getChunk("overworld", 0, 0).blocks);
+
+            // 抽出済みのチャンクを、後から読み込んだ保存済みのデータで戻さない
+            ChunkDataCollector.CompactChunkData fresh = chunk(1, 0);
+            fresh.capturedAt = -5;
+            assertTrue(collector.putChunk(fresh));
+            assertFalse(collector.putChunk(store.read("overworld", 1, 0)));
+        }
+    }
+
+    @Test
+    void removalDoesNotDropNewerSnapshot() {
+        ChunkDataCollector.CompactChunkData data = chunk(0, 0);
+        collector.putChunk(data);
+
+        assertFalse(collector.removeChunk("overworld", 0, 0, data.capturedAt - 1));
+        assertNotNull(collector.getChunk("overworld", 0, 0));
+        assertTrue(collector.removeChunk("overworld", 0, 0, data.capturedAt));
+        assertNull(collector.getChunk("overworld", 0, 0));
+        assertTrue(collector.removeChunk("overworld", 0, 0, data.capturedAt)); // 既にない
+    }
+
+    @Test
+    void surfaceIsReadWithoutTouchingTheChunk() {
+        ChunkDataCollector.CompactChunkData data = chunk(0, 0);
+        data.blocks = new int[]{PackedBlocks.pack(1, 10, 1, 2), PackedBlocks.pack(1, 64, 1, 3)};
+        collector.putChunk(data);
+        long lastAccess = data.lastAccess;
+
+        assertArrayEquals(new int[]{PackedBlocks.pack(1, 64, 1, 3)}, collector.getSurface("overworld", 0, 0));
+        assertEquals(lastAccess, data.lastAccess);
+        assertNull(collector.getSurface("overworld", 5, 5));
+    }
+
+    private static ChunkDataCollector.CompactChunkData copyOf(ChunkDataCollector.CompactChunkData data) {
+        ChunkDataCollector.CompactChunkData copy = chunk(data.chunkX, data.chunkZ);
+        copy.capturedAt = data.capturedAt;
+        return copy;
+    }
+
+    private static ChunkDataCollector start() {
+        ChunkMapperConfig config = new ChunkMapperConfig();
+        config.coldChunkSeconds = 0;
+        ChunkDataCollector collector = new ChunkDataCollector(config);
+        collector.startAggregator(PALETTE);
+        return collector;
+    }
+
+    private void put(int chunkX, int chunkZ) {
+        assertTrue(collector.putChunk(chunk(chunkX, chunkZ)));
+    }
+
+    static ChunkDataCollector.CompactChunkData chunk(int chunkX, int chunkZ) {
+        ChunkDataCollector.CompactChunkData data = new ChunkDataCollector.CompactChunkData();
+        data.dimension = "overworld";
+        data.chunkX = chunkX;
+        data.chunkZ = chunkZ;
+        data.blocks = new int[]{PackedBlocks.pack(0, 64, 0, 1)};
+        data.capturedAt = System.nanoTime();
+        return data;
+    }
+}
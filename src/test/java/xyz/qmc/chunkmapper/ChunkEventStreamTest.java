@@ -0,0 +1,235 @@
+package xyz.qmc.chunkmapper;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpContext;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpPrincipal;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ChunkEventStreamTest {
+    private static final BlockPalette PALETTE = new BlockPalette(new short[0],
+            new String[]{"minecraft:air", "minecraft:stone"}, new int[2], new boolean[]{false, true});
+
+    private final ChunkDataCollector collector = start();
+    private final ChunkEventStream stream = new ChunkEventStream(collector);
+
+    @AfterEach
+    void stop() {
+        stream.close();
+        collector.stop();
+    }
+
+    @Test
+    void sendsCatchUpThenUpdatesInsideQuery() throws Exception {
+        collector.putChunk(ChunkDataCollectorTest.chunk(0, 0));
+        collector.addListener(stream);
+        FakeExchange client = new FakeExchange(false);
+        assertTrue(stream.open(client, 0, new ChunkQuery(null, -5, -5, 5, 5, Integer.MIN_VALUE, Integer.MAX_VALUE)));
+
+        ChunkDataCollector.ChunkDelta catchUp = client.awaitDeltas(1).get(0);
+        assertTrue(catchUp.full);
+        assertEquals(1, catchUp.chunks.size());
+
+        collector.putChunk(ChunkDataCollectorTest.chunk(100, 100)); // 範囲外
+        collector.putChunk(ChunkDataCollectorTest.chunk(1, 1));
+        ChunkDataCollector.ChunkDelta update = client.awaitDeltas(2).get(1);
+        assertFalse(update.full);
+        assertEquals(1, update.chunks.size());
+        assertEquals(1, update.chunks.get(0).chunkX);
+        assertEquals(collector.getSequence(), update.seq);
+    }
+
+    @Test
+    void overflowedClientIsResentACatchUpDelta() throws Exception {
+        collector.addListener(stream);
+        FakeExchange client = new FakeExchange(true);
+        assertTrue(stream.open(client, 0, ChunkQuery.ALL));
+        assertTrue(client.writing.await(5, TimeUnit.SECONDS));
+
+        // 最初の送信が終わらないうちに送信待ちの上限を超える更新が来る
+        int count = 1500;
+        for (int i = 0; i < count; i++) {
+            collector.putChunk(ChunkDataCollectorTest.chunk(i, 0));
+        }
+        client.release.countDown();
+
+        List<ChunkDataCollector.ChunkDelta> deltas = client.awaitDeltas(2);
+        ChunkDataCollector.ChunkDelta resync = deltas.get(1);
+        Set<Integer> received = new HashSet<>();
+        resync.chunks.forEach(chunk -> received.add(chunk.chunkX));
+        assertEquals(count, received.size());
+        assertEquals(collector.getSequence(), resync.seq);
+        assertEquals(1, collector.getMetrics().counter("chunkmapper_stream_resyncs_total",
+                "Times a slow stream client overflowed and was resent a catch-up delta").get());
+    }
+
+    private static ChunkDataCollector start() {
+        ChunkMapperConfig config = new ChunkMapperConfig();
+        config.coldChunkSeconds = 0;
+        ChunkDataCollector collector = new ChunkDataCollector(config);
+        collector.startAggregator(PALETTE);
+        return collector;
+    }
+
+    // 送信内容を記録するだけの HttpExchange。block = true なら最初の書き込みを release まで止める
+    private static final class FakeExchange extends HttpExchange {
+        final CountDownLatch writing = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        private final boolean block;
+        private final Headers responseHeaders = new Headers();
+        private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        private final OutputStream out = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[]{(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                writing.countDown();
+                if (block) {
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        throw new IOException(e);
+                    }
+                }
+                synchronized (body) {
+                    body.write(b, off, len);
+                }
+            }
+        };
+
+        FakeExchange(boolean block) {
+            this.block = block;
+        }
+
+        List<ChunkDataCollector.ChunkDelta> awaitDeltas(int count) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + 10_000;
+            while (true) {
+                List<ChunkDataCollector.ChunkDelta> deltas = deltas();
+                if (deltas.size() >= count || System.currentTimeMillis() > deadline) {
+                    assertEquals(count, deltas.size());
+                    return deltas;
+                }
+                Thread.sleep(10);
+            }
+        }
+
+        private List<ChunkDataCollector.ChunkDelta> deltas() {
+            String text;
+            synchronized (body) {
+                text = body.toString(StandardCharsets.UTF_8);
+            }
+            List<ChunkDataCollector.ChunkDelta> deltas = new ArrayList<>();
+            for (String event : text.split("\n\n")) {
+                if (event.startsWith("event: delta\ndata: ")) {
+                    byte[] data = Base64.getDecoder().decode(event.substring("event: delta\ndata: ".length()));
+                    deltas.add(ChunkBinaryDecoder.decode(ByteBuffer.wrap(data)));
+                }
+            }
+            return deltas;
+        }
+
+        @Override
+        public Headers getRequestHeaders() {
+            return new Headers();
+        }
+
+        @Override
+        public Headers getResponseHeaders() {
+            return responseHeaders;
+        }
+
+        @Override
+        public URI getRequestURI() {
+            return URI.create("/api/stream");
+        }
+
+        @Override
+        public String getRequestMethod() {
+            return "GET";
+        }
+
+        @Override
+        public HttpContext getHttpContext() {
+            return null;
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public InputStream getRequestBody() {
+            return new ByteArrayInputStream(new byte[0]);
+        }
+
+        @Override
+        public OutputStream getResponseBody() {
+            return out;
+        }
+
+        @Override
+        public void sendResponseHeaders(int rCode, long responseLength) {
+        }
+
+        @Override
+        public InetSocketAddress getRemoteAddress() {
+            return null;
+        }
+
+        @Override
+        public int getResponseCode() {
+            return 200;
+        }
+
+        @Override
+        public InetSocketAddress getLocalAddress() {
+            return null;
+        }
+
+        @Override
+        public String getProtocol() {
+            return "HTTP/1.1";
+        }
+
+        @Override
+        public Object getAttribute(String name) {
+            return null;
+        }
+
+        @Override
+        public void setAttribute(String name, Object value) {
+        }
+
+        @Override
+        public void setStreams(InputStream i, OutputStream o) {
+        }
+
+        @Override
+        public HttpPrincipal getPrincipal() {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package xyz.qmc.chunkmapper;
+
+import net.minecraft.util.math.ChunkPos;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ChunkExtractorTest {
+    private static final int STONE = 1;
+    private static final int WATER = 2;
+
+    // タイプID = ステートの raw ID。水だけ不透明でない
+    private static final BlockPalette PALETTE = new BlockPalette(
+            new short[]{BlockPalette.AIR, STONE, WATER},
+            new String[]{"minecraft:air", "minecraft:stone", "minecraft:water"},
+            new int[]{0, 0x707070, 0x4040ff},
+            new boolean[]{false, true, false});
+
+    @Test
+    void allModeEmitsEveryBlockFromY51ToSurface() {
+        int[] blocks = new ChunkExtractor(PALETTE, false, false).extract(solidChunk(true)).build();
+        // Y 51-63 の 13 層
+        assertEquals(13 * 256, blocks.length);
+    }
+
+    @Test
+    void visibleModeEmitsOnlyTheTopLayerOfASolidChunk() {
+        PackedBlocks.Builder builder = new ChunkExtractor(PALETTE, true, true).extract(solidChunk(true));
+        byte[] faces = builder.buildFaces();
+        int[] blocks = builder.build();
+
+        assertEquals(256, blocks.length);
+        for (int i = 0; i < blocks.length; i++) {
+            assertEquals(63, PackedBlocks.y(blocks[i]));
+            assertEquals(PackedBlocks.FACE_UP, faces[i]);
+        }
+    }
+
+    @Test
+    void visibleModeTreatsMissingNeighboursAsExposed() {
+        int[] blocks = new ChunkExtractor(PALETTE, true, false).extract(solidChunk(false)).build();
+        // 上面 256 + 外周の 60 列 x 下の 12 層
+        assertEquals(256 + 60 * 12, blocks.length);
+    }
+
+    @Test
+    void visibleModeKeepsBlocksNextToTransparentOnes() {
+        // 中央の列の Y 60 だけ水にする
+        int[] values = new int[4096];
+        Arrays.fill(values, STONE);
+        int waterIndex = (60 & 15) << 8 | 8 << 4 | 8;
+        values[waterIndex] = WATER;
+        SectionSnapshot[] sections = solidSections();
+        sections[(60 >> 4) + 4] = section(values);
+        ChunkSnapshot snapshot = new ChunkSnapshot("overworld", new ChunkPos(0, 0), -4, sections,
+                neighbours(), surfaceHeights());
+
+        PackedBlocks.Builder builder = new ChunkExtractor(PALETTE, true, true).extract(snapshot);
+        byte[] faces = builder.buildFaces();
+        int[] blocks = builder.build();
+
+        // 上面 256 + 水に接する石 6。水自体は周りがすべて不透明なので出ない
+        assertEquals(256 + 6, blocks.length);
+        for (int i = 0; i < blocks.length; i++) {
+            assertEquals(STONE, PackedBlocks.type(blocks[i]));
+            if (PackedBlocks.x(blocks[i]) == 8 && PackedBlocks.y(blocks[i]) == 59 && PackedBlocks.z(blocks[i]) == 8) {
+                assertEquals(PackedBlocks.FACE_UP, faces[i]);
+            }
+            if (PackedBlocks.x(blocks[i]) == 7 && PackedBlocks.y(blocks[i]) == 60 && PackedBlocks.z(blocks[i]) == 8) {
+                assertEquals(PackedBlocks.FACE_EAST, faces[i]);
+            }
+        }
+    }
+
+    // Y -64 から 63 まで石で埋めたチャンク
+    private static ChunkSnapshot solidChunk(boolean withNeighbours) {
+        return new ChunkSnapshot("overworld", new ChunkPos(0, 0), -4, solidSections(),
+                withNeighbours ? neighbours() : null, surfaceHeights());
+    }
+
+    private static SectionSnapshot[][] neighbours() {
+        return new SectionSnapshot[][]{solidSections(), solidSections(), solidSections(), solidSections()};
+    }
+
+    private static SectionSnapshot[] solidSections() {
+        SectionSnapshot[] sections = new SectionSnapshot[24];
+        for (int i = 0; i < 8; i++) {
+            sections[i] = SectionSnapshot.single(STONE);
+        }
+        return sections;
+    }
+
+    private static int[] surfaceHeights() {
+        int[] heights = new int[256];
+        Arrays.fill(heights, 64);
+        return heights;
+    }
+
+    // ローカルパレット 4 ビットで詰める（PalettedContainer と同じ形）
+    private static SectionSnapshot section(int[] values) {
+        short[] types = {STONE, WATER};
+        long[] data = new long[4096 / 16];
+        for (int index = 0; index < 4096; index++) {
+            long paletteIndex = values[index] == STONE ? 0 : 1;
+            data[index / 16] |= paletteIndex << ((index % 16) * 4);
+        }
+        return SectionSnapshot.packed(data, 4, types);
+    }
+}
@@ -0,0 +1,80 @@
+package xyz.qmc.chunkmapper;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ChunkQueryTest {
+    @Test
+    void parsesEmptyParametersAsAll() {
+        assertSame(ChunkQuery.ALL, ChunkQuery.parse(Map.of()));
+        assertSame(ChunkQuery.ALL, ChunkQuery.parse(Map.of("dim", "", "minX", "")));
+        assertFalse(ChunkQuery.ALL.hasBounds());
+        assertFalse(ChunkQuery.ALL.clipsY());
+    }
+
+    @Test
+    void rejectsInvalidParameters() {
+        assertThrows(IllegalArgumentException.class, () -> ChunkQuery.parse(Map.of("minX", "abc")));
+        assertThrows(IllegalArgumentException.class, () -> ChunkQuery.parse(Map.of("minX", "5", "maxX", "4")));
+        assertThrows(IllegalArgumentException.class, () -> ChunkQuery.parse(Map.of("minY", "70", "maxY", "60")));
+    }
+
+    @Test
+    void queryStringIsCanonical() {
+        assertEquals("", ChunkQuery.ALL.toQueryString());
+        ChunkQuery query = ChunkQuery.parse(Map.of("maxY", "90", "minX", "-3", "dim", "my mod:a&b"));
+        assertEquals("dim=my+mod%3Aa%26b&minX=-3&maxY=90", query.toQueryString());
+        assertEquals(query, ChunkQuery.parse(Map.of("dim", "my mod:a&b", "minX", "-3", "maxY", "90")));
+        // 値が同じでも項目が違えば別の文字列
+        assertNotEquals(ChunkQuery.parse(Map.of("minX", "1")).toQueryString(),
+                ChunkQuery.parse(Map.of("minZ", "1")).toQueryString());
+    }
+
+    @Test
+    void matchesDimensionAndInclusiveBounds() {
+        ChunkQuery query = ChunkQuery.parse(Map.of("dim", "overworld", "minX", "-2", "maxX", "2", "minZ", "0"));
+        assertTrue(query.hasBounds());
+        assertTrue(query.matches("overworld", -2, 0));
+        assertTrue(query.matches("overworld", 2, 1_000_000));
+        assertFalse(query.matches("overworld", 3, 0));
+        assertFalse(query.matches("overworld", 0, -1));
+        assertFalse(query.matches("the_nether", 0, 0));
+    }
+
+    @Test
+    void clipsBlocksAndFacesToYRange() {
+        ChunkDataCollector.CompactChunkData chunk = ChunkBinaryCodecTest.chunk("overworld", 1, 2, true);
+        chunk.version = 9;
+        ChunkQuery query = ChunkQuery.parse(Map.of("minY", "50", "maxY", "61"));
+        assertTrue(query.clipsY());
+
+        ChunkDataCollector.CompactChunkData clipped = query.clip(chunk);
+        assertNotSame(chunk, clipped);
+        assertEquals(9, clipped.version);
+        assertEquals(1, clipped.chunkX);
+        assertEquals(clipped.blocks.length, clipped.faces.length);
+        int expected = 0;
+        for (int i = 0; i < chunk.blocks.length; i++) {
+            int y = PackedBlocks.y(chunk.blocks[i]);
+            if (y >= 50 && y <= 61) {
+                assertEquals(chunk.blocks[i], clipped.blocks[expected]);
+                assertEquals(chunk.faces[i], clipped.faces[expected]);
+                expected++;
+            }
+        }
+        assertEquals(expected, clipped.blocks.length);
+    }
+
+    @Test
+    void returnsSameChunkWhenNothingIsClipped() {
+        ChunkDataCollector.CompactChunkData chunk = ChunkBinaryCodecTest.chunk("overworld", 0, 0, false);
+        assertSame(chunk, ChunkQuery.parse(Map.of("minY", "-64", "maxY", "300")).clip(chunk));
+        assertSame(chunk, ChunkQuery.ALL.clip(chunk));
+
+        ChunkDataCollector.CompactChunkData empty = ChunkQuery.parse(Map.of("minY", "300")).clip(chunk);
+        assertSame(PackedBlocks.EMPTY, empty.blocks);
+    }
+}
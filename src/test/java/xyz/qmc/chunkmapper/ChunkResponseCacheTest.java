@@ -0,0 +1,60 @@
+package xyz.qmc.chunkmapper;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ChunkResponseCacheTest {
+    private static final BlockPalette PALETTE = new BlockPalette(new short[0],
+            new String[]{"minecraft:air", "minecraft:stone"}, new int[2], new boolean[]{false, true});
+
+    private final ChunkDataCollector collector = start();
+    private final ChunkResponseCache cache = new ChunkResponseCache(collector);
+
+    @AfterEach
+    void stop() {
+        collector.stop();
+    }
+
+    @Test
+    void etagDistinguishesQueriesWithSameHashCode() {
+        // レコードの hashCode は 31 * h + 次の値 なので、この2つは同じ値になる
+        ChunkQuery first = bounds(0, 0);
+        ChunkQuery second = bounds(1, -31);
+        assertNotEquals(first, second);
+
+        ChunkResponseCache.Format format = ChunkResponseCache.Format.BINARY;
+        assertNotEquals(cache.currentEtag(format, first), cache.currentEtag(format, second));
+        assertEquals(cache.currentEtag(format, first), cache.currentEtag(format, bounds(0, 0)));
+        assertNotEquals(cache.currentEtag(format, first), cache.currentEtag(format, ChunkQuery.ALL));
+    }
+
+    @Test
+    void responsesAreCachedPerQuery() {
+        collector.putChunk(ChunkDataCollectorTest.chunk(0, 0));
+        collector.putChunk(ChunkDataCollectorTest.chunk(50, 0));
+        collector.publish();
+
+        ChunkResponseCache.Format format = ChunkResponseCache.Format.JSON_ARRAY;
+        ChunkResponseCache.CachedResponse all = cache.get(format, -1, ChunkQuery.ALL);
+        ChunkResponseCache.CachedResponse near = cache.get(format, -1, bounds(0, 0));
+        assertSame(all, cache.get(format, -1, ChunkQuery.ALL));
+        assertSame(near, cache.get(format, -1, bounds(0, 0)));
+        assertNotSame(near, cache.get(format, -1, bounds(1, -31)));
+        assertTrue(all.identity().length > near.identity().length);
+        assertEquals(cache.currentEtag(format, bounds(0, 0)), near.etag());
+    }
+
+    private static ChunkQuery bounds(int minChunkX, int minChunkZ) {
+        return new ChunkQuery(null, minChunkX, minChunkZ, 10, 10, Integer.MIN_VALUE, Integer.MAX_VALUE);
+    }
+
+    private static ChunkDataCollector start() {
+        ChunkMapperConfig config = new ChunkMapperConfig();
+        config.coldChunkSeconds = 0;
+        ChunkDataCollector collector = new ChunkDataCollector(config);
+        collector.startAggregator(PALETTE);
+        return collector;
+    }
+}
@@ -0,0 +1,126 @@
+package xyz.qmc.chunkmapper;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ChunkStoreTest {
+    @TempDir
+    Path root;
+
+    @Test
+    void readsBackWrittenChunks() throws IOException {
+        try (ChunkStore store = new ChunkStore(root, "palette")) {
+            ChunkDataCollector.CompactChunkData data = chunk(3, -5, 1);
+            store.write(data);
+
+            ChunkDataCollector.CompactChunkData read = store.read("overworld", 3, -5);
+            assertEquals(3, read.chunkX);
+            assertEquals(-5, read.chunkZ);
+            assertArrayEquals(data.blocks, read.blocks);
+            assertNull(store.read("overworld", 4, -5));
+            assertNull(store.read("the_nether", 3, -5));
+        }
+    }
+
+    @Test
+    void scanKeepsLatestRecordAndDeletions() throws IOException {
+        try (ChunkStore store = new ChunkStore(root, "palette")) {
+            store.write(chunk(0, 0, 1));
+            store.write(chunk(0, 0, 2));
+            store.write(chunk(1, 0, 1));
+            store.write(chunk(40, 40, 1)); // 別のリージョン
+            store.delete("overworld", 1, 0);
+        }
+
+        try (ChunkStore store = new ChunkStore(root, "palette")) {
+            assertArrayEquals(chunk(0, 0, 2).blocks, store.read("overworld", 0, 0).blocks);
+            assertNull(store.read("overworld", 1, 0));
+            assertNotNull(store.read("overworld", 40, 40));
+
+            List<String> seen = new ArrayList<>();
+            store.forEachChunk("overworld", data -> seen.add(data.chunkX + "," + data.chunkZ));
+            seen.sort(null);
+            assertEquals(List.of("0,0", "40,40"), seen);
+        }
+    }
+
+    @Test
+    void dropsIncompleteTrailingRecord() throws IOException {
+        try (ChunkStore store = new ChunkStore(root, "palette")) {
+            store.write(chunk(0, 0, 1));
+            store.write(chunk(1, 0, 1));
+        }
+        Path region = root.resolve("overworld").resolve("r.0.0.cmr");
+        long size = Files.size(region);
+        try (FileChannel channel = FileChannel.open(region, StandardOpenOption.WRITE)) {
+            channel.truncate(size - 10);
+        }
+
+        try (ChunkStore store = new ChunkStore(root, "palette")) {
+            assertNotNull(store.read("overworld", 0, 0));
+            assertNull(store.read("overworld", 1, 0));
+            store.write(chunk(1, 0, 2));
+            assertArrayEquals(chunk(1, 0, 2).blocks, store.read("overworld", 1, 0).blocks);
+        }
+    }
+
+    @Test
+    void compactsWhileRegionStaysOpen() throws IOException {
+        try (ChunkStore store = new ChunkStore(root, "palette")) {
+            Path region = root.resolve("overworld").resolve("r.0.0.cmr");
+            long recordSize = 0;
+            // 同じチャンクを書き直し続けても、ファイルは生きているレコードの数倍に収まる
+            for (int version = 0; version < 200; version++) {
+                store.write(chunk(0, 0, version));
+                if (version == 0) {
+                    recordSize = Files.size(region);
+                }
+                assertTrue(Files.size(region) < 1_200_000 + 2 * recordSize, "region grew to " + Files.size(region));
+            }
+            assertArrayEquals(chunk(0, 0, 199).blocks, store.read("overworld", 0, 0).blocks);
+        }
+
+        try (ChunkStore store = new ChunkStore(root, "palette")) {
+            assertArrayEquals(chunk(0, 0, 199).blocks, store.read("overworld", 0, 0).blocks);
+        }
+    }
+
+    @Test
+    void clearsStoreWhenPaletteChanges() throws IOException {
+        try (ChunkStore store = new ChunkStore(root, "palette")) {
+            store.write(chunk(0, 0, 1));
+        }
+        try (ChunkStore store = new ChunkStore(root, "other")) {
+            assertNull(store.read("overworld", 0, 0));
+            assertTrue(store.getDimensions().isEmpty());
+        }
+    }
+
+    // ランにまとまらないよう、seed ごとに異なるタイプで高さ 64 の列を埋める
+    private static ChunkDataCollector.CompactChunkData chunk(int chunkX, int chunkZ, int seed) {
+        PackedBlocks.Builder blocks = new PackedBlocks.Builder();
+        for (int x = 0; x < 16; x++) {
+            for (int z = 0; z < 16; z++) {
+                for (int y = 0; y < 64; y++) {
+                    blocks.add(x, y, z, 1 + Math.floorMod(x * 31 + y * 7 + z * 13 + seed, 200));
+                }
+            }
+        }
+        ChunkDataCollector.CompactChunkData data = new ChunkDataCollector.CompactChunkData();
+        data.chunkX = chunkX;
+        data.chunkZ = chunkZ;
+        data.dimension = "overworld";
+        data.blocks = blocks.build();
+        return data;
+    }
+}
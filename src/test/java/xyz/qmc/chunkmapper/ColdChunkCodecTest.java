@@ -0,0 +1,72 @@
+package xyz.qmc.chunkmapper;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.Deflater;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ColdChunkCodecTest {
+    @Test
+    void compressAndExpandRoundTrip() {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        for (boolean faces : new boolean[]{false, true}) {
+            ChunkDataCollector.CompactChunkData hot = ChunkBinaryCodecTest.chunk("overworld", -7, 11, faces);
+            hot.version = 5;
+            hot.capturedAt = 123;
+            hot.lastAccess = 456;
+            hot.surface = PackedBlocks.topBlocks(hot.blocks);
+            hot.estimatedBytes = hot.estimateBytes();
+
+            ChunkDataCollector.CompactChunkData cold = ColdChunkCodec.compress(hot, deflater);
+            assertTrue(cold.isCold());
+            assertNull(cold.blocks);
+            assertTrue(cold.estimatedBytes < hot.estimatedBytes);
+            assertEquals(5, cold.version);
+            assertSame(hot.surface, cold.surface); // タイル用の列はコールドでもそのまま読める
+
+            ChunkDataCollector.CompactChunkData expanded = ColdChunkCodec.expand(cold);
+            assertFalse(expanded.isCold());
+            ChunkBinaryCodecTest.assertChunkEquals(hot, expanded);
+            assertEquals(5, expanded.version);
+            assertEquals(123, expanded.capturedAt);
+            assertEquals(456, expanded.lastAccess);
+            assertEquals(hot.estimatedBytes, expanded.estimatedBytes);
+        }
+        deflater.end();
+    }
+
+    @Test
+    void coldAccessorsExpandOnDemand() {
+        Deflater deflater = new Deflater();
+        ChunkDataCollector.CompactChunkData hot = ChunkBinaryCodecTest.chunk("overworld", 0, 0, false);
+        ChunkDataCollector.CompactChunkData cold = ColdChunkCodec.compress(hot, deflater);
+        deflater.end();
+
+        assertEquals(hot.getBlockCount(), cold.getBlockCount());
+        List<Integer> visited = new ArrayList<>();
+        cold.forEachBlock((x, y, z, type) -> visited.add(PackedBlocks.pack(x, y, z, type)));
+        assertEquals(hot.blocks.length, visited.size());
+        for (int i = 0; i < hot.blocks.length; i++) {
+            assertEquals(hot.blocks[i], (int) visited.get(i));
+        }
+        assertTrue(cold.isCold());
+    }
+
+    @Test
+    void truncatedDataFailsClearly() {
+        Deflater deflater = new Deflater();
+        ChunkDataCollector.CompactChunkData cold = ColdChunkCodec.compress(
+                ChunkBinaryCodecTest.chunk("overworld", 0, 0, false), deflater);
+        cold.compressed = Arrays.copyOf(cold.compressed, cold.compressed.length / 2);
+        assertThrows(IllegalStateException.class, () -> ColdChunkCodec.expand(cold));
+
+        // 失敗した後も同じスレッドの Inflater で展開できる
+        ChunkDataCollector.CompactChunkData hot = ChunkBinaryCodecTest.chunk("overworld", 1, 1, false);
+        ChunkBinaryCodecTest.assertChunkEquals(hot, ColdChunkCodec.expand(ColdChunkCodec.compress(hot, deflater)));
+        deflater.end();
+    }
+}
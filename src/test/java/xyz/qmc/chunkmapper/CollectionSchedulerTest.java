@@ -0,0 +1,75 @@
+package xyz.qmc.chunkmapper;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CollectionSchedulerTest {
+    private final CollectionScheduler scheduler = new CollectionScheduler(config(2.0, 10));
+
+    @Test
+    void keepsFullBudgetBelowThrottleThreshold() {
+        assertFalse(scheduler.adjust(30));
+        assertFalse(scheduler.isThrottled());
+        assertEquals(2_000_000, scheduler.getBudgetNanos());
+        assertEquals(10, scheduler.getRadius());
+        assertEquals(30, scheduler.getMspt());
+    }
+
+    @Test
+    void shrinksBudgetAndRadiusAsMsptApproachesLimit() {
+        assertTrue(scheduler.adjust(45)); // 40〜50ms の中間で半分
+        assertTrue(scheduler.isThrottled());
+        assertEquals(1_000_000, scheduler.getBudgetNanos());
+        assertEquals(5, scheduler.getRadius());
+
+        assertFalse(scheduler.adjust(48)); // 絞り込み状態は変わらない
+        assertTrue(scheduler.getBudgetNanos() < 1_000_000);
+
+        // 上限を超えても最低限は残す
+        scheduler.adjust(80);
+        assertEquals(200_000, scheduler.getBudgetNanos());
+        assertEquals(1, scheduler.getRadius());
+
+        assertTrue(scheduler.adjust(20));
+        assertEquals(2_000_000, scheduler.getBudgetNanos());
+        assertEquals(10, scheduler.getRadius());
+    }
+
+    @Test
+    void queueIsServedNearestFirst() {
+        DimensionChunks dim = new DimensionChunks("overworld");
+        List<CollectionScheduler.Candidate> candidates = new ArrayList<>();
+        candidates.add(new CollectionScheduler.Candidate(dim, 1, 25));
+        candidates.add(new CollectionScheduler.Candidate(dim, 2, 0));
+        candidates.add(new CollectionScheduler.Candidate(dim, 3, 4));
+        scheduler.setQueue(candidates);
+
+        List<Long> order = new ArrayList<>();
+        for (CollectionScheduler.Candidate next; (next = scheduler.peek()) != null; scheduler.advance()) {
+            order.add(next.key());
+        }
+        assertEquals(List.of(2L, 3L, 1L), order);
+
+        scheduler.setQueue(new ArrayList<>(List.of(new CollectionScheduler.Candidate(dim, 9, 1))));
+        assertEquals(9, scheduler.peek().key());
+    }
+
+    @Test
+    void clampsConfiguredValues() {
+        CollectionScheduler tiny = new CollectionScheduler(config(0, 0));
+        assertEquals(1, tiny.getBudgetNanos());
+        assertEquals(1, tiny.getRadius());
+        assertFalse(tiny.isThrottled());
+    }
+
+    private static ChunkMapperConfig config(double tickBudgetMs, int collectRadius) {
+        ChunkMapperConfig config = new ChunkMapperConfig();
+        config.tickBudgetMs = tickBudgetMs;
+        config.collectRadius = collectRadius;
+        return config;
+    }
+}
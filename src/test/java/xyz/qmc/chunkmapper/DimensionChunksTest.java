@@ -0,0 +1,128 @@
+package xyz.qmc.chunkmapper;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DimensionChunksTest {
+    private final DimensionChunks dim = new DimensionChunks("overworld");
+
+    @Test
+    void keysAreDistinctForNegativeCoordinates() {
+        assertNotEquals(DimensionChunks.key(-1, 0), DimensionChunks.key(0, -1));
+        assertNotEquals(DimensionChunks.key(1, -1), DimensionChunks.key(-1, 1));
+        assertEquals(DimensionChunks.key(-30000, 30000), DimensionChunks.key(-30000, 30000));
+    }
+
+    @Test
+    void putGetRemoveAndReplace() {
+        long key = DimensionChunks.key(3, -4);
+        ChunkDataCollector.CompactChunkData first = ChunkDataCollectorTest.chunk(3, -4);
+        ChunkDataCollector.CompactChunkData second = ChunkDataCollectorTest.chunk(3, -4);
+
+        assertNull(dim.put(key, first));
+        assertSame(first, dim.put(key, second));
+        assertSame(second, dim.get(key));
+        assertEquals(1, dim.size());
+
+        // 登録されているものと違うデータでは削除・置き換えしない
+        assertFalse(dim.remove(key, first));
+        assertFalse(dim.replace(key, first, ChunkDataCollectorTest.chunk(3, -4)));
+        assertTrue(dim.replace(key, second, first));
+        assertSame(first, dim.get(key));
+        assertTrue(dim.remove(key, first));
+        assertNull(dim.get(key));
+        assertEquals(0, dim.size());
+    }
+
+    @Test
+    void collectUsesTheLatestDataInTheQueryRange() {
+        ChunkDataCollector.CompactChunkData inside = ChunkDataCollectorTest.chunk(1, 1);
+        dim.put(DimensionChunks.key(1, 1), ChunkDataCollectorTest.chunk(1, 1));
+        dim.put(DimensionChunks.key(1, 1), inside);
+        dim.put(DimensionChunks.key(50, 50), ChunkDataCollectorTest.chunk(50, 50));
+
+        List<ChunkDataCollector.CompactChunkData> out = new ArrayList<>();
+        dim.collect(new ChunkQuery(null, 0, 0, 10, 10, Integer.MIN_VALUE, Integer.MAX_VALUE), out);
+        assertEquals(List.of(inside), out);
+
+        out.clear();
+        dim.collect(ChunkQuery.ALL, out);
+        assertEquals(2, out.size());
+    }
+
+    @Test
+    void pendingChunksBecomeProcessed() {
+        long key = DimensionChunks.key(0, 0);
+        dim.addPending(key);
+        dim.addPending(DimensionChunks.key(1, 0));
+        assertEquals(2, dim.getPendingCount());
+
+        dim.setProcessed(key, true);
+        assertTrue(dim.isProcessed(key));
+        assertEquals(1, dim.getPendingCount());
+        dim.addPending(key); // 収集済みのチャンクは再ロードで待ちに戻さない
+        assertEquals(1, dim.getPendingCount());
+
+        dim.retry(key);
+        assertFalse(dim.isProcessed(key));
+        assertEquals(2, dim.getPendingCount());
+        dim.removePending(key);
+        List<Long> pending = new ArrayList<>();
+        dim.forEachPending(pending::add);
+        assertEquals(List.of(DimensionChunks.key(1, 0)), pending);
+    }
+
+    @Test
+    void onlyProcessedChunksAreMarkedDirty() {
+        long processed = DimensionChunks.key(0, 0);
+        dim.setProcessed(processed, true);
+        dim.markDirty(processed);
+        dim.markDirty(DimensionChunks.key(9, 9));
+        assertEquals(1, dim.getDirtyCount());
+
+        dim.addDirty(DimensionChunks.key(1, 0));
+        dim.addDirty(DimensionChunks.key(2, 0));
+        long[] out = new long[2];
+        assertEquals(2, dim.pollDirty(out, 2));
+        assertEquals(1, dim.pollDirty(out, 2));
+        assertEquals(0, dim.getDirtyCount());
+    }
+
+    @Test
+    void evictForgetsCollectionState() {
+        long key = DimensionChunks.key(0, 0);
+        ChunkDataCollector.CompactChunkData data = ChunkDataCollectorTest.chunk(0, 0);
+        dim.put(key, data);
+        dim.setProcessed(key, true);
+        dim.markDirty(key);
+
+        assertFalse(dim.evict(key, ChunkDataCollectorTest.chunk(0, 0)));
+        assertTrue(dim.evict(key, data));
+        assertNull(dim.get(key));
+        assertFalse(dim.isProcessed(key));
+        assertEquals(0, dim.getDirtyCount());
+        // 戻ってきたら通常の収集で拾い直す
+        dim.addPending(key);
+        assertEquals(1, dim.getPendingCount());
+    }
+
+    @Test
+    void partialChunkIsDirtiedWhenItsNeighbourArrives() {
+        dim.trackNeighbours(0, 0, false);
+        dim.trackNeighbours(5, 5, true);
+        assertEquals(0, dim.getDirtyCount());
+
+        dim.trackNeighbours(1, 0, true);
+        long[] out = new long[4];
+        assertEquals(1, dim.pollDirty(out, 4));
+        assertEquals(DimensionChunks.key(0, 0), out[0]);
+
+        // 一度解決したら、次の隣接チャンクでは再抽出しない
+        dim.trackNeighbours(-1, 0, true);
+        assertEquals(0, dim.getDirtyCount());
+    }
+}
@@ -0,0 +1,78 @@
+package xyz.qmc.chunkmapper;
+
+import com.google.gson.Gson;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PackedBlocksTest {
+    @Test
+    void packsAndUnpacksEveryField() {
+        int[][] cases = {{0, -64, 0, 0}, {15, 4031, 15, PackedBlocks.MAX_TYPE}, {7, 63, 9, 123}};
+        for (int[] c : cases) {
+            int packed = PackedBlocks.pack(c[0], c[1], c[2], c[3]);
+            assertEquals(c[0], PackedBlocks.x(packed));
+            assertEquals(c[1], PackedBlocks.y(packed));
+            assertEquals(c[2], PackedBlocks.z(packed));
+            assertEquals(c[3], PackedBlocks.type(packed));
+            assertEquals(c[0] << 4 | c[2], PackedBlocks.column(packed));
+        }
+    }
+
+    @Test
+    void builderSortsByColumnThenYAndKeepsFacesAligned() {
+        PackedBlocks.Builder builder = new PackedBlocks.Builder(1, true);
+        builder.add(15, 10, 0, 1, 1);
+        builder.add(0, 20, 3, 2, 2);
+        builder.add(0, -5, 3, 3, 3);
+        builder.add(8, 0, 8, 4, 4);
+        for (int y = 100; y < 140; y++) {
+            builder.add(1, y, 1, 5, 5); // 初期容量を超えて伸ばす
+        }
+
+        byte[] faces = builder.buildFaces();
+        int[] blocks = builder.build();
+        assertEquals(44, blocks.length);
+        for (int i = 1; i < blocks.length; i++) {
+            assertTrue(Integer.compareUnsigned(blocks[i - 1], blocks[i]) < 0);
+        }
+        // 面マスクはタイプと同じ値にしてあるので、並べ替え後も一致する
+        for (int i = 0; i < blocks.length; i++) {
+            assertEquals(PackedBlocks.type(blocks[i]), faces[i]);
+        }
+        assertEquals(-5, PackedBlocks.y(blocks[0]));
+        assertEquals(15, PackedBlocks.x(blocks[blocks.length - 1]));
+    }
+
+    @Test
+    void emptyBuilderReturnsSharedEmptyArray() {
+        PackedBlocks.Builder builder = new PackedBlocks.Builder();
+        assertTrue(builder.isEmpty());
+        assertNull(builder.buildFaces());
+        assertSame(PackedBlocks.EMPTY, builder.build());
+    }
+
+    @Test
+    void topBlocksKeepsHighestBlockOfEachColumn() {
+        int[] blocks = {
+                PackedBlocks.pack(0, -10, 0, 1),
+                PackedBlocks.pack(0, 70, 0, 2),
+                PackedBlocks.pack(3, 5, 0, 3),
+                PackedBlocks.pack(15, 20, 15, 4),
+                PackedBlocks.pack(15, 21, 15, 5),
+        };
+        assertArrayEquals(new int[]{blocks[1], blocks[2], blocks[4]}, PackedBlocks.topBlocks(blocks));
+        assertSame(PackedBlocks.EMPTY, PackedBlocks.topBlocks(PackedBlocks.EMPTY));
+    }
+
+    @Test
+    void jsonRoundTrip() {
+        ChunkDataCollector.CompactChunkData chunk = ChunkBinaryCodecTest.chunk("overworld", 4, 5, false);
+        Gson gson = new Gson();
+        String json = gson.toJson(chunk);
+        assertTrue(json.contains("{\"x\":1,\"y\":-64,\"z\":1,\"type\":7}"));
+
+        ChunkDataCollector.CompactChunkData decoded = gson.fromJson(json, ChunkDataCollector.CompactChunkData.class);
+        ChunkBinaryCodecTest.assertChunkEquals(chunk, decoded);
+    }
+}
@@ -0,0 +1,60 @@
+package xyz.qmc.chunkmapper;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TileRendererTest {
+    private static final BlockPalette PALETTE = new BlockPalette(new short[0],
+            new String[]{"minecraft:air", "minecraft:stone"}, new int[2], new boolean[]{false, true});
+    private static final TileRenderer.TileKey TILE = new TileRenderer.TileKey("overworld", 0, 0, 0);
+
+    private final ChunkDataCollector collector = start();
+    private final TileRenderer renderer = new TileRenderer(collector);
+
+    @AfterEach
+    void stop() {
+        collector.stop();
+    }
+
+    @Test
+    void etagDependsOnlyOnTileContents() {
+        collector.addListener(renderer);
+        collector.putChunk(ChunkDataCollectorTest.chunk(0, 0));
+        TileRenderer.Tile first = renderer.getTile(TILE);
+
+        // 別のタイルのチャンクや、同じ内容での作り直しでは ETag は変わらない
+        collector.putChunk(ChunkDataCollectorTest.chunk(100, 100));
+        collector.putChunk(ChunkDataCollectorTest.chunk(0, 0));
+        TileRenderer.Tile rerendered = renderer.getTile(TILE);
+        assertEquals(first.etag, rerendered.etag);
+        assertEquals(first.etag, new TileRenderer(collector).getTile(TILE).etag);
+
+        ChunkDataCollector.CompactChunkData changed = ChunkDataCollectorTest.chunk(0, 0);
+        changed.blocks = new int[]{PackedBlocks.pack(0, 80, 0, 1)};
+        collector.putChunk(changed);
+        assertNotEquals(first.etag, renderer.getTile(TILE).etag);
+    }
+
+    @Test
+    void tileShowsTopBlockOfEachColumn() {
+        ChunkDataCollector.CompactChunkData data = ChunkDataCollectorTest.chunk(0, 0);
+        data.blocks = new int[]{PackedBlocks.pack(2, 10, 3, 1), PackedBlocks.pack(2, 70, 3, 1)};
+        collector.putChunk(data);
+
+        byte[] raw = renderer.getTile(TILE).raw;
+        int pixel = 8 + (3 * TileRenderer.TILE_SIZE + 2) * 4;
+        assertEquals(1, ((raw[pixel] & 0xFF) << 8) | (raw[pixel + 1] & 0xFF));
+        assertEquals(70, (short) (((raw[pixel + 2] & 0xFF) << 8) | (raw[pixel + 3] & 0xFF)));
+        assertEquals(0xFF, raw[8] & 0xFF); // データなし (0xFFFF)
+    }
+
+    private static ChunkDataCollector start() {
+        ChunkMapperConfig config = new ChunkMapperConfig();
+        config.coldChunkSeconds = 0;
+        ChunkDataCollector collector = new ChunkDataCollector(config);
+        collector.startAggregator(PALETTE);
+        return collector;
+    }
+}